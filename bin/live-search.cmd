@@ -0,0 +1,23 @@
+@echo off
+rem Starts Simple Live File Search from the built jar, e.g.
+rem   bin\live-search run "path C:\docs" "content TODO"
+rem Uses the class-data-sharing archive from 'mvn package -Pcds' when it is there.
+rem Extra JVM options can be passed in JAVA_OPTS.
+
+setlocal
+set "BASE_DIR=%~dp0.."
+set "JAR=%BASE_DIR%\target\simple-live-search-1.0.0.jar"
+set "ARCHIVE=%BASE_DIR%\target\simple-live-search.jsa"
+set "JAVA=java"
+if defined JAVA_HOME set "JAVA=%JAVA_HOME%\bin\java"
+
+if not exist "%JAR%" (
+    echo %JAR% not found; build it with: mvn package -Pcds 1>&2
+    exit /b 1
+)
+
+if exist "%ARCHIVE%" (
+    "%JAVA%" -XX:SharedArchiveFile="%ARCHIVE%" -Xshare:auto %JAVA_OPTS% -cp "%JAR%" searchengine.Main %*
+) else (
+    "%JAVA%" %JAVA_OPTS% -cp "%JAR%" searchengine.Main %*
+)
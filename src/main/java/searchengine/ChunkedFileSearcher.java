@@ -0,0 +1,113 @@
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Searches files that are too large to read in one go. The file is split into
+// fixed-size chunks which are memory-mapped and scanned in parallel; each chunk
+// extends a little into the next one so matches across a boundary are not lost.
+// At most `parallelism` chunks are mapped at a time, so memory stays bounded
+// regardless of file size. What counts as a match is up to the ContentMatcher.
+public class ChunkedFileSearcher {
+    private final ExecutorService executorService;
+    private final int parallelism;
+    
+    public ChunkedFileSearcher(ExecutorService executorService, int parallelism) {
+        this.executorService = executorService;
+        this.parallelism = Math.max(1, parallelism);
+    }
+    
+    public boolean search(Path file, ContentMatcher matcher, long chunkSize) throws IOException {
+        return search(file, matcher, chunkSize, null);
+    }
+    
+    public boolean search(Path file, ContentMatcher matcher, long chunkSize, SearchProfile profile) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Detect the encoding once from the head of the file; every chunk shares it
+            ByteBuffer head = ByteBuffer.allocate(EncodingDetector.SAMPLE_SIZE);
+            channel.read(head, 0);
+            head.flip();
+            final EncodingDetector.Encoding encoding = EncodingDetector.detect(head);
+            final int overlap = matcher.overlap(encoding);
+            // A mapping is at most Integer.MAX_VALUE bytes, overlap and lead byte included
+            chunkSize = Math.min(chunkSize, Integer.MAX_VALUE - (long) overlap - encoding.getUnitSize());
+            if (chunkSize <= overlap) {
+                chunkSize = overlap + 1L;
+            }
+            final long fileSize = channel.size();
+            final long chunkLength = chunkSize;
+            final long chunkCount = (fileSize + chunkLength - 1) / chunkLength;
+            final AtomicBoolean stop = new AtomicBoolean(false);
+            boolean matched = false;
+            Throwable failure = null;
+            CompletionService<Boolean> completion = new ExecutorCompletionService<>(executorService);
+            List<Future<Boolean>> submitted = new ArrayList<>();
+            
+            long nextChunk = 0;
+            int inFlight = 0;
+            try {
+                while (!matched && failure == null && (nextChunk < chunkCount || inFlight > 0)) {
+                    // Keep only `parallelism` chunks mapped at once
+                    while (nextChunk < chunkCount && inFlight < parallelism) {
+                        final long start = nextChunk * chunkLength;
+                        final boolean first = nextChunk == 0;
+                        submitted.add(completion.submit(() -> {
+                            if (stop.get()) {
+                                return false;
+                            }
+                            // A later chunk also maps the code unit before it, so a line
+                            // starting exactly at the boundary is known to start there
+                            long lead = first ? 0 : Math.min(encoding.getUnitSize(), start);
+                            long coreLength = Math.min(chunkLength, fileSize - start);
+                            long mappedLength = Math.min(coreLength + overlap, fileSize - start);
+                            ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start - lead, mappedLength + lead);
+                            return matcher.matchesChunk(chunk, (int) (coreLength + lead), start - lead, first, encoding, stop, profile);
+                        }));
+                        nextChunk++;
+                        inFlight++;
+                    }
+                    
+                    Future<Boolean> done = completion.take();
+                    inFlight--;
+                    try {
+                        matched = done.get();
+                    } catch (ExecutionException e) {
+                        // A chunk that could not be mapped or read leaves the answer unknown
+                        failure = e.getCause();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // Short-circuit the remaining chunks, then wait for them before the channel closes
+                stop.set(true);
+                for (Future<Boolean> future : submitted) {
+                    future.cancel(false);
+                }
+                while (inFlight > 0) {
+                    try {
+                        completion.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    inFlight--;
+                }
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure != null) {
+                throw new IOException("Could not search " + file, failure);
+            }
+            return matched;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,700 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// An optional inverted index over the words in text files (and in the extracted
+// text of documents), for ranked content search. For every word it keeps the files containing it with the number of
+// occurrences, and for every file its length in words, path, size and mtime. Files
+// are re-read only when their mtime or size changed since they were indexed.
+//
+// Queries are ranked with BM25 and answered with WAND: every word has an upper
+// bound on what it can add to a score, so once the top k are known, files that
+// cannot beat the k-th score are skipped without being scored, and long posting
+// lists are jumped through rather than read.
+//
+// Removed and changed files leave tombstones in the posting lists until enough
+// have piled up to compact them. The index is saved to a checksummed file like the
+// catalogue snapshot.
+public class ContentIndex {
+    private static final int MAGIC = 0x4C465349; // "LFSI"
+    private static final int VERSION = 1;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    // Files above this size are not indexed; plain content search still finds them
+    public static final long MAX_INDEXED_FILE_SIZE = 16L * 1024 * 1024;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private List<Document> documents = new ArrayList<>(); // by id, tombstones included
+    private final Map<String, Integer> byPath = new HashMap<>(); // live documents only
+    private Map<String, Postings> postings = new HashMap<>();
+    private final Set<String> indexedRoots = new TreeSet<>();
+    private long totalLength;
+    private int liveDocuments;
+    private int minLength = Integer.MAX_VALUE; // may be stale-low after removals, which keeps bounds valid
+    private boolean dirty;
+    
+    // A file's words, read outside the index lock
+    public static final class DocumentTerms {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final Map<String, Integer> frequencies;
+        private final int length;
+        
+        DocumentTerms(String path, long lastModified, long size, Map<String, Integer> frequencies, int length) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.frequencies = frequencies;
+            this.length = length;
+        }
+    }
+    
+    // A ranked file
+    public static final class Hit {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final double score;
+        
+        Hit(String path, long lastModified, long size, double score) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.score = score;
+        }
+        
+        public String getPath() { return path; }
+        public long getLastModified() { return lastModified; }
+        public long getSize() { return size; }
+        public double getScore() { return score; }
+    }
+    
+    // Words are maximal runs of letters and digits, lowercased; longer runs than
+    // MAX_TOKEN_LENGTH (hashes, base64) are dropped
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        Tokenizer tokenizer = new Tokenizer(tokens::add);
+        char[] chars = text.toString().toCharArray();
+        tokenizer.feed(chars, 0, chars.length);
+        tokenizer.end();
+        return tokens;
+    }
+    
+    // Reads and tokenizes a file in its detected encoding. throttle, if given, paces
+    // the read and decides whether it bypasses the page cache.
+    public static DocumentTerms read(Path file, long lastModified, long size, SearchProfile profile,
+                                     IoThrottle throttle) throws IOException {
+        return read(file, file, lastModified, size, profile, throttle);
+    }
+    
+    // Indexes file under the words of text, e.g. a document under its extracted text
+    public static DocumentTerms read(Path file, Path text, long lastModified, long size, SearchProfile profile,
+                                     IoThrottle throttle) throws IOException {
+        Map<String, Integer> frequencies = new HashMap<>();
+        int[] length = new int[1];
+        Tokenizer tokenizer = new Tokenizer(token -> {
+            frequencies.merge(token, 1, Integer::sum);
+            length[0]++;
+        });
+        try (SeekableByteChannel channel = throttle != null
+                ? throttle.open(text)
+                : FileChannel.open(text, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(EncodingDetector.SAMPLE_SIZE);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // Fill the sample
+            }
+            head.flip();
+            EncodingDetector.Encoding encoding = EncodingDetector.detect(head);
+            channel.position(encoding.getBomLength());
+            Reader reader = Channels.newReader(channel, encoding.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE), -1);
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                tokenizer.feed(buffer, 0, read);
+            }
+            tokenizer.end();
+            if (profile != null) {
+                profile.bytesRead(channel.size());
+            }
+        }
+        return new DocumentTerms(file.toString(), lastModified, size, frequencies, length[0]);
+    }
+    
+    // Whether the file is indexed as it is now
+    public boolean isCurrent(String path, long lastModified, long size) {
+        lock.readLock().lock();
+        try {
+            Integer id = byPath.get(path);
+            if (id == null) {
+                return false;
+            }
+            Document document = documents.get(id);
+            return document.lastModified == lastModified && document.size == size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Adds a file, replacing what was indexed for it before
+    public void put(DocumentTerms terms) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(terms.path);
+            int id = documents.size();
+            String[] words = new String[terms.frequencies.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : terms.frequencies.entrySet()) {
+                Postings list = postings.computeIfAbsent(entry.getKey(), Postings::new);
+                list.add(id, entry.getValue());
+                words[i++] = list.term; // share one instance per word
+            }
+            documents.add(new Document(terms.path, terms.lastModified, terms.size, terms.length, words));
+            byPath.put(terms.path, id);
+            totalLength += terms.length;
+            liveDocuments++;
+            minLength = Math.min(minLength, terms.length);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void remove(String path) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Drops indexed files under root that are not in seen, i.e. that a complete walk
+    // of root no longer found, and records root as indexed. Returns how many were dropped.
+    public int retainUnder(Path root, Set<String> seen) {
+        String prefix = prefix(root.toString());
+        lock.writeLock().lock();
+        try {
+            List<String> gone = new ArrayList<>();
+            for (String path : byPath.keySet()) {
+                if ((path.equals(root.toString()) || path.startsWith(prefix)) && !seen.contains(path)) {
+                    gone.add(path);
+                }
+            }
+            for (String path : gone) {
+                removeLocked(path);
+            }
+            if (indexedRoots.add(root.toString())) {
+                dirty = true;
+            }
+            maybeCompact();
+            return gone.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Whether a complete walk of root or a directory above it has been indexed
+    public boolean covers(Path root) {
+        lock.readLock().lock();
+        try {
+            for (Path dir = root; dir != null; dir = dir.getParent()) {
+                if (indexedRoots.contains(dir.toString())) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return liveDocuments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // The k files under the roots that score highest for the query words, best first.
+    // profile, if given, is charged with the documents scored and postings skipped.
+    public List<Hit> top(List<String> words, List<Path> roots, int k, SearchProfile profile) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        List<String> prefixes = new ArrayList<>();
+        for (Path root : roots) {
+            prefixes.add(prefix(root.toString()));
+        }
+        lock.readLock().lock();
+        try {
+            if (liveDocuments == 0) {
+                return Collections.emptyList();
+            }
+            double averageLength = Math.max(1.0, (double) totalLength / liveDocuments);
+            List<Cursor> cursors = new ArrayList<>();
+            long totalPostings = 0;
+            for (String word : new LinkedHashSet<>(words)) {
+                Postings list = postings.get(word);
+                if (list != null && list.live > 0) {
+                    cursors.add(new Cursor(list, idf(list.live), averageLength, minLength));
+                    totalPostings += list.size;
+                }
+            }
+            
+            // Min-heap of the best k so far; its head is the score to beat
+            PriorityQueue<Hit> best = new PriorityQueue<>(Comparator.comparingDouble(Hit::getScore)
+                .thenComparing(Hit::getPath, Comparator.reverseOrder()));
+            double threshold = 0;
+            long scored = 0;
+            Comparator<Cursor> byDocument = Comparator.comparingInt(Cursor::document);
+            while (true) {
+                cursors.sort(byDocument);
+                // Pivot: the first document at which the words seen so far could beat the threshold
+                double bound = 0;
+                int pivot = -1;
+                for (int i = 0; i < cursors.size() && cursors.get(i).document() != Integer.MAX_VALUE; i++) {
+                    bound += cursors.get(i).upperBound;
+                    if (bound > threshold) {
+                        pivot = i;
+                        break;
+                    }
+                }
+                if (pivot < 0) {
+                    break;
+                }
+                int pivotDocument = cursors.get(pivot).document();
+                if (cursors.get(0).document() == pivotDocument) {
+                    Document document = documents.get(pivotDocument);
+                    double score = 0;
+                    for (Cursor cursor : cursors) {
+                        if (cursor.document() != pivotDocument) {
+                            break;
+                        }
+                        score += cursor.score(document.length);
+                        cursor.next();
+                    }
+                    scored++;
+                    if (document.live && under(document.path, roots, prefixes)) {
+                        Hit hit = new Hit(document.path, document.lastModified, document.size, score);
+                        if (best.size() < k) {
+                            best.add(hit);
+                        } else if (score > best.peek().getScore()) {
+                            best.poll();
+                            best.add(hit);
+                        }
+                        if (best.size() == k) {
+                            threshold = best.peek().getScore();
+                        }
+                    }
+                } else {
+                    // Nothing before the pivot document can make the top k
+                    for (int i = 0; i < pivot; i++) {
+                        cursors.get(i).advanceTo(pivotDocument);
+                    }
+                }
+            }
+            if (profile != null) {
+                profile.indexScored(scored, totalPostings);
+            }
+            
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(Comparator.comparingDouble(Hit::getScore).reversed().thenComparing(Hit::getPath));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return dirty;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // Writes live documents only, renumbered, so a loaded index has no tombstones
+    public void save(Path indexFile) throws IOException {
+        lock.writeLock().lock();
+        try {
+            compact();
+            Files.createDirectories(indexFile.toAbsolutePath().getParent());
+            Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(indexedRoots.size());
+                for (String root : indexedRoots) {
+                    out.writeUTF(root);
+                }
+                out.writeInt(documents.size());
+                for (Document document : documents) {
+                    out.writeUTF(document.path);
+                    out.writeLong(document.lastModified);
+                    out.writeLong(document.size);
+                    out.writeInt(document.length);
+                }
+                out.writeInt(postings.size());
+                for (Postings list : postings.values()) {
+                    out.writeUTF(list.term);
+                    out.writeInt(list.size);
+                    // Document ids ascend, so gaps are small
+                    int previous = 0;
+                    for (int i = 0; i < list.size; i++) {
+                        writeVarInt(out, list.documents[i] - previous);
+                        writeVarInt(out, list.frequencies[i]);
+                        previous = list.documents[i];
+                    }
+                }
+                // The checksum covers everything written before it
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+            try {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Loads an index written by save(). A missing, corrupt or older-version file is
+    // ignored and the index starts empty.
+    public boolean load(Path indexFile) {
+        if (!Files.isRegularFile(indexFile)) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            byte[] bytes = Files.readAllBytes(indexFile);
+            if (bytes.length < 16) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+                System.err.println("Ignoring corrupt content index: " + indexFile);
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int rootCount = in.readInt();
+            for (int i = 0; i < rootCount; i++) {
+                indexedRoots.add(in.readUTF());
+            }
+            int documentCount = in.readInt();
+            List<List<String>> words = new ArrayList<>(documentCount);
+            int[] lengths = new int[documentCount];
+            String[] paths = new String[documentCount];
+            long[] modified = new long[documentCount];
+            long[] sizes = new long[documentCount];
+            for (int id = 0; id < documentCount; id++) {
+                paths[id] = in.readUTF();
+                modified[id] = in.readLong();
+                sizes[id] = in.readLong();
+                lengths[id] = in.readInt();
+                words.add(new ArrayList<>());
+            }
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                Postings list = new Postings(in.readUTF());
+                int size = in.readInt();
+                int document = 0;
+                for (int i = 0; i < size; i++) {
+                    document += readVarInt(in);
+                    list.add(document, readVarInt(in));
+                    words.get(document).add(list.term);
+                }
+                postings.put(list.term, list);
+            }
+            for (int id = 0; id < documentCount; id++) {
+                documents.add(new Document(paths[id], modified[id], sizes[id], lengths[id],
+                    words.get(id).toArray(new String[0])));
+                byPath.put(paths[id], id);
+                totalLength += lengths[id];
+                minLength = Math.min(minLength, lengths[id]);
+            }
+            liveDocuments = documentCount;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load content index: " + e.getMessage());
+            clearLocked();
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void clearLocked() {
+        documents = new ArrayList<>();
+        byPath.clear();
+        postings = new HashMap<>();
+        indexedRoots.clear();
+        totalLength = 0;
+        liveDocuments = 0;
+        minLength = Integer.MAX_VALUE;
+    }
+    
+    private void removeLocked(String path) {
+        Integer id = byPath.remove(path);
+        if (id == null) {
+            return;
+        }
+        Document document = documents.get(id);
+        document.live = false;
+        for (String word : document.words) {
+            postings.get(word).live--;
+        }
+        totalLength -= document.length;
+        liveDocuments--;
+        dirty = true;
+    }
+    
+    private void maybeCompact() {
+        int tombstones = documents.size() - liveDocuments;
+        if (tombstones > 1024 && tombstones > liveDocuments / 4) {
+            compact();
+        }
+    }
+    
+    // Renumbers the live documents and drops tombstones from the posting lists.
+    // Ids keep their order, so the lists stay sorted.
+    private void compact() {
+        if (documents.size() == liveDocuments) {
+            return;
+        }
+        int[] newIds = new int[documents.size()];
+        List<Document> live = new ArrayList<>(liveDocuments);
+        minLength = Integer.MAX_VALUE;
+        for (int id = 0; id < documents.size(); id++) {
+            Document document = documents.get(id);
+            if (document.live) {
+                newIds[id] = live.size();
+                byPath.put(document.path, live.size());
+                live.add(document);
+                minLength = Math.min(minLength, document.length);
+            } else {
+                newIds[id] = -1;
+            }
+        }
+        Map<String, Postings> compacted = new HashMap<>();
+        for (Postings list : postings.values()) {
+            if (list.live == 0) {
+                continue;
+            }
+            Postings kept = new Postings(list.term);
+            for (int i = 0; i < list.size; i++) {
+                int id = newIds[list.documents[i]];
+                if (id >= 0) {
+                    kept.add(id, list.frequencies[i]);
+                }
+            }
+            compacted.put(kept.term, kept);
+        }
+        documents = live;
+        postings = compacted;
+    }
+    
+    private double idf(int documentFrequency) {
+        return Math.log(1 + (liveDocuments - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+    
+    private static boolean under(String path, List<Path> roots, List<String> prefixes) {
+        for (int i = 0; i < roots.size(); i++) {
+            if (path.equals(roots.get(i).toString()) || path.startsWith(prefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String prefix(String root) {
+        return root.endsWith(File.separator) ? root : root + File.separator;
+    }
+    
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+    
+    private static final class Document {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final int length;
+        private final String[] words;
+        private boolean live = true;
+        
+        Document(String path, long lastModified, long size, int length, String[] words) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.length = length;
+            this.words = words;
+        }
+    }
+    
+    // Ascending document ids with their term frequencies. live counts the entries
+    // that are not tombstones, which is the word's document frequency.
+    private static final class Postings {
+        private final String term;
+        private int[] documents = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+        private int live;
+        private int maxFrequency;
+        
+        Postings(String term) {
+            this.term = term;
+        }
+        
+        void add(int document, int frequency) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+            live++;
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+    }
+    
+    // Position in one word's postings during a query
+    private static final class Cursor {
+        private final Postings list;
+        private final double idf;
+        private final double averageLength;
+        private final double upperBound;
+        private int position;
+        
+        Cursor(Postings list, double idf, double averageLength, int minLength) {
+            this.list = list;
+            this.idf = idf;
+            this.averageLength = averageLength;
+            // BM25 grows with the frequency and shrinks with the length, so the highest
+            // frequency in the shortest document bounds every score this word adds
+            this.upperBound = weight(list.maxFrequency, minLength == Integer.MAX_VALUE ? 0 : minLength);
+        }
+        
+        int document() {
+            return position < list.size ? list.documents[position] : Integer.MAX_VALUE;
+        }
+        
+        double score(int length) {
+            return weight(list.frequencies[position], length);
+        }
+        
+        private double weight(int frequency, int length) {
+            return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+        }
+        
+        void next() {
+            position++;
+        }
+        
+        // Gallops to the first posting at or after target
+        void advanceTo(int target) {
+            int step = 1;
+            int low = position;
+            int high = position;
+            while (high < list.size && list.documents[high] < target) {
+                low = high + 1;
+                high += step;
+                step *= 2;
+            }
+            high = Math.min(high, list.size);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (list.documents[middle] < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            position = low;
+        }
+    }
+    
+    // Splits text into words across calls to feed, so a word can span two buffers
+    private static final class Tokenizer {
+        private final java.util.function.Consumer<String> sink;
+        private final StringBuilder word = new StringBuilder();
+        private boolean tooLong;
+        
+        Tokenizer(java.util.function.Consumer<String> sink) {
+            this.sink = sink;
+        }
+        
+        void feed(char[] text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = text[i];
+                if (Character.isLetterOrDigit(c)) {
+                    if (word.length() < MAX_TOKEN_LENGTH) {
+                        word.append(Character.toLowerCase(c));
+                    } else {
+                        tooLong = true;
+                    }
+                } else {
+                    end();
+                }
+            }
+        }
+        
+        void end() {
+            if (word.length() > 0 && !tooLong) {
+                sink.accept(word.toString());
+            }
+            word.setLength(0);
+            tooLong = false;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+// Matches a content query against raw file bytes. A literal term is encoded once
+// per detected charset (with every case variant of each character) and compared
+// byte by byte, so files never have to be decoded. Regex queries still need text
+// and are decoded line by line with the detected charset, never more than two
+// MAX_LINE_OVERLAP of a line at a time.
+public class ContentMatcher {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest line we guarantee to see whole when it crosses a chunk boundary
+    private static final int MAX_LINE_OVERLAP = 64 * 1024;
+    // Largest chunk whose mapping, with its overlap and lead byte, still fits in a ByteBuffer
+    static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE - 2L * MAX_LINE_OVERLAP;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> LINE_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(2 * MAX_LINE_OVERLAP));
+    
+    private final String searchTerm;
+    private final Pattern pattern;
+    private final Map<Charset, Optional<BytePattern>> bytePatterns = new ConcurrentHashMap<>();
+    
+    private ContentMatcher(String searchTerm, Pattern pattern) {
+        this.searchTerm = searchTerm;
+        this.pattern = pattern;
+    }
+    
+    public static ContentMatcher literal(String searchTerm) {
+        return new ContentMatcher(searchTerm, null);
+    }
+    
+    public static ContentMatcher regex(Pattern pattern) {
+        return new ContentMatcher(pattern.pattern(), pattern);
+    }
+    
+    public boolean isRegex() {
+        return pattern != null;
+    }
+    
+    // Bytes a chunk has to extend into the next one so no match is cut in half
+    public int overlap(EncodingDetector.Encoding encoding) {
+        if (pattern != null) {
+            return MAX_LINE_OVERLAP;
+        }
+        BytePattern bytePattern = bytePattern(encoding.getCharset());
+        return bytePattern == null ? 0 : Math.max(0, bytePattern.maxLength - 1);
+    }
+    
+    public boolean matches(Path file) throws IOException {
+        return matches(file, null);
+    }
+    
+    // profile, if given, is charged with the bytes read and regex invocations
+    public boolean matches(Path file, SearchProfile profile) throws IOException {
+        return matches(file, profile, null);
+    }
+    
+    // throttle, if given, paces the read and decides whether it bypasses the page cache
+    public boolean matches(Path file, SearchProfile profile, IoThrottle throttle) throws IOException {
+        try (SeekableByteChannel channel = throttle != null
+                ? throttle.open(file)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = READ_BUFFER.get();
+            buffer.clear();
+            boolean eof = fill(channel, buffer);
+            buffer.flip();
+            countBytes(profile, buffer.limit());
+            EncodingDetector.Encoding encoding = EncodingDetector.detect(buffer);
+            
+            if (pattern != null) {
+                return matchesRegex(channel, encoding, profile);
+            }
+            BytePattern bytePattern = bytePattern(encoding.getCharset());
+            if (bytePattern == null) {
+                return false;
+            }
+            
+            long offset = 0;
+            while (true) {
+                if (bytePattern.find(buffer, 0, buffer.limit(), offset, encoding.getUnitSize()) >= 0) {
+                    return true;
+                }
+                if (eof) {
+                    return false;
+                }
+                // Keep the tail so a match spanning two reads is still found
+                int keep = Math.min(bytePattern.maxLength - 1, buffer.limit());
+                offset += buffer.limit() - keep;
+                buffer.position(buffer.limit() - keep);
+                buffer.compact();
+                int kept = buffer.position();
+                eof = fill(channel, buffer);
+                buffer.flip();
+                countBytes(profile, buffer.limit() - kept);
+            }
+        }
+    }
+    
+    public boolean matchesChunk(ByteBuffer chunk, int coreLength, long offset, boolean first,
+                                EncodingDetector.Encoding encoding, AtomicBoolean stop, SearchProfile profile) {
+        countBytes(profile, chunk.limit());
+        if (pattern != null) {
+            return anyLineMatches(chunk, coreLength, offset, first, encoding, stop, profile);
+        }
+        BytePattern bytePattern = bytePattern(encoding.getCharset());
+        return bytePattern != null
+            && bytePattern.find(chunk, 0, chunk.limit(), offset, encoding.getUnitSize(), stop) >= 0;
+    }
+    
+    // Lines are decoded from a window of two MAX_LINE_OVERLAP. A line that does not fit
+    // is matched a window at a time, each overlapping the last by MAX_LINE_OVERLAP, the
+    // same guarantee as for a line crossing a chunk boundary.
+    private boolean matchesRegex(SeekableByteChannel channel, EncodingDetector.Encoding encoding, SearchProfile profile) throws IOException {
+        CharsetDecoder decoder = decoder(encoding.getCharset());
+        byte[] newline = "\n".getBytes(encoding.getCharset());
+        int unit = encoding.getUnitSize();
+        ByteBuffer window = LINE_BUFFER.get();
+        window.clear();
+        long offset = encoding.getBomLength(); // of the window's first byte in the file
+        channel.position(offset);
+        while (true) {
+            int kept = window.position();
+            boolean eof = fill(channel, window);
+            window.flip();
+            countBytes(profile, window.limit() - kept);
+            int lineStart = 0;
+            int lineEnd;
+            while ((lineEnd = indexOf(window, newline, lineStart, window.limit(), offset, unit)) >= 0) {
+                if (lineMatches(window, lineStart, lineEnd, decoder, profile)) {
+                    return true;
+                }
+                lineStart = lineEnd + newline.length;
+            }
+            if (eof) {
+                return lineStart < window.limit() && lineMatches(window, lineStart, window.limit(), decoder, profile);
+            }
+            if (lineStart == 0) {
+                if (lineMatches(window, 0, window.limit(), decoder, profile)) {
+                    return true;
+                }
+                lineStart = window.limit() - MAX_LINE_OVERLAP;
+            }
+            offset += lineStart;
+            window.position(lineStart);
+            window.compact();
+        }
+    }
+    
+    // Matches complete lines only: a line cut off at the start of the chunk was already
+    // seen whole by the previous chunk, and the overlap completes the chunk's last line.
+    // A chunk other than the first begins with the code unit before its core, so a line
+    // starting right at the boundary follows a newline found at index 0.
+    private boolean anyLineMatches(ByteBuffer chunk, int coreLength, long offset, boolean first,
+                                   EncodingDetector.Encoding encoding, AtomicBoolean stop, SearchProfile profile) {
+        CharsetDecoder decoder = decoder(encoding.getCharset());
+        byte[] newline = "\n".getBytes(encoding.getCharset());
+        int unit = encoding.getUnitSize();
+        int limit = chunk.limit();
+        int lineStart = first ? encoding.getBomLength() : indexOf(chunk, newline, 0, coreLength, offset, unit);
+        if (lineStart < 0) {
+            return false;
+        }
+        if (!first) {
+            lineStart += newline.length;
+        }
+        
+        while (lineStart < coreLength) {
+            if (stop.get()) {
+                return false;
+            }
+            int lineEnd = indexOf(chunk, newline, lineStart, limit, offset, unit);
+            if (lineEnd < 0) {
+                lineEnd = limit;
+            }
+            if (lineMatches(chunk, lineStart, lineEnd, decoder, profile)) {
+                return true;
+            }
+            lineStart = lineEnd + newline.length;
+        }
+        return false;
+    }
+    
+    private boolean lineMatches(ByteBuffer buffer, int from, int to, CharsetDecoder decoder, SearchProfile profile) {
+        ByteBuffer line = buffer.duplicate();
+        line.limit(to).position(from);
+        try {
+            CharBuffer chars = decoder.decode(line);
+            if (profile != null) {
+                profile.regexInvoked();
+            }
+            return pattern.matcher(chars).find();
+        } catch (CharacterCodingException e) {
+            // Not reachable with REPLACE, skip the line
+            return false;
+        }
+    }
+    
+    private static int indexOf(ByteBuffer buffer, byte[] needle, int from, int to, long offset, int unit) {
+        outer:
+        for (int i = from; i + needle.length <= to; i++) {
+            if ((offset + i) % unit != 0) {
+                continue;
+            }
+            for (int j = 0; j < needle.length; j++) {
+                if (buffer.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    private static void countBytes(SearchProfile profile, long bytes) {
+        if (profile != null) {
+            profile.bytesRead(bytes);
+        }
+    }
+    
+    private BytePattern bytePattern(Charset charset) {
+        return bytePatterns.computeIfAbsent(charset, c -> Optional.ofNullable(BytePattern.compile(searchTerm, c)))
+            .orElse(null);
+    }
+    
+    private static CharsetDecoder decoder(Charset charset) {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    
+    private static boolean fill(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // A search term encoded in one charset. Each character is kept as the set of byte
+    // sequences of its case variants, which gives case-insensitive matching on raw bytes.
+    static final class BytePattern {
+        private final byte[][][] variants;
+        private final boolean[] firstBytes = new boolean[256];
+        private final int maxLength;
+        
+        private BytePattern(byte[][][] variants) {
+            this.variants = variants;
+            int length = 0;
+            for (byte[][] character : variants) {
+                int longest = 0;
+                for (byte[] variant : character) {
+                    longest = Math.max(longest, variant.length);
+                }
+                length += longest;
+            }
+            this.maxLength = length;
+            if (variants.length > 0) {
+                for (byte[] variant : variants[0]) {
+                    firstBytes[variant[0] & 0xFF] = true;
+                }
+            }
+        }
+        
+        // Returns null when the term cannot be represented in the charset
+        static BytePattern compile(String term, Charset charset) {
+            CharsetEncoder encoder = charset.newEncoder();
+            List<byte[][]> characters = new ArrayList<>();
+            int[] codePoints = term.codePoints().toArray();
+            for (int codePoint : codePoints) {
+                Set<String> cases = new LinkedHashSet<>();
+                cases.add(new String(Character.toChars(codePoint)));
+                cases.add(new String(Character.toChars(Character.toLowerCase(codePoint))));
+                cases.add(new String(Character.toChars(Character.toUpperCase(codePoint))));
+                cases.add(new String(Character.toChars(Character.toTitleCase(codePoint))));
+                
+                List<byte[]> encoded = new ArrayList<>();
+                for (String variant : cases) {
+                    if (encoder.canEncode(variant)) {
+                        encoded.add(variant.getBytes(charset));
+                    }
+                }
+                if (encoded.isEmpty()) {
+                    return null;
+                }
+                characters.add(encoded.toArray(new byte[0][]));
+            }
+            return new BytePattern(characters.toArray(new byte[0][][]));
+        }
+        
+        int find(ByteBuffer buffer, int from, int to, long offset, int unit) {
+            return find(buffer, from, to, offset, unit, null);
+        }
+        
+        int find(ByteBuffer buffer, int from, int to, long offset, int unit, AtomicBoolean stop) {
+            if (variants.length == 0) {
+                return from < to ? from : -1;
+            }
+            for (int i = from; i < to; i++) {
+                if (stop != null && (i & 0xFFFF) == 0 && stop.get()) {
+                    return -1;
+                }
+                if (!firstBytes[buffer.get(i) & 0xFF] || (offset + i) % unit != 0) {
+                    continue;
+                }
+                if (matchesAt(buffer, i, to)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        private boolean matchesAt(ByteBuffer buffer, int position, int to) {
+            int p = position;
+            for (byte[][] character : variants) {
+                byte[] matched = null;
+                for (byte[] variant : character) {
+                    if (p + variant.length <= to && regionEquals(buffer, p, variant)) {
+                        matched = variant;
+                        break;
+                    }
+                }
+                if (matched == null) {
+                    return false;
+                }
+                p += matched.length;
+            }
+            return true;
+        }
+        
+        private static boolean regionEquals(ByteBuffer buffer, int position, byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (buffer.get(position + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
\ No newline at end of file
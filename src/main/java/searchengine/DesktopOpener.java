@@ -0,0 +1,20 @@
+package searchengine;
+
+import java.awt.Desktop;
+import java.io.IOException;
+import java.nio.file.Path;
+
+// The only place the CLI touches AWT. Kept apart so that loading the CLI does not
+// load java.awt; it is loaded when a file is actually opened.
+final class DesktopOpener {
+    private DesktopOpener() {
+    }
+    
+    static boolean isSupported() {
+        return Desktop.isDesktopSupported();
+    }
+    
+    static void open(Path path) throws IOException {
+        Desktop.getDesktop().open(path.toFile());
+    }
+}
@@ -0,0 +1,123 @@
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+
+// Reads a file with O_DIRECT, so its pages never enter the page cache and a bulk
+// scan cannot evict the data other processes keep hot. Direct reads must start at
+// a block boundary and fill a block-aligned buffer, so this reads whole aligned
+// blocks into a per-thread buffer and hands them out at any position and length.
+// Where O_DIRECT is not available (the option is missing from the JDK, or the file
+// system refuses it, like tmpfs), open returns an ordinary FileChannel.
+final class DirectReadChannel implements SeekableByteChannel {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_ALIGNMENT = 64 * 1024;
+    private static final OpenOption DIRECT = directOption();
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() ->
+        ByteBuffer.allocateDirect(BUFFER_SIZE + MAX_ALIGNMENT).alignedSlice(MAX_ALIGNMENT));
+    
+    private final FileChannel channel;
+    private final int alignment;
+    private final ByteBuffer buffer;
+    private long bufferStart = -1; // file offset of the buffer's first byte
+    private long position;
+    
+    private DirectReadChannel(FileChannel channel, int alignment) {
+        this.channel = channel;
+        this.alignment = alignment;
+        this.buffer = BUFFER.get();
+        this.buffer.clear().limit(0);
+    }
+    
+    // The channel belongs to the calling thread, which must close it before opening another
+    static SeekableByteChannel open(Path file) throws IOException {
+        if (DIRECT != null) {
+            try {
+                long blockSize = Files.getFileStore(file).getBlockSize();
+                if (blockSize > 0 && MAX_ALIGNMENT % blockSize == 0) {
+                    return new DirectReadChannel(FileChannel.open(file, StandardOpenOption.READ, DIRECT), (int) blockSize);
+                }
+            } catch (UnsupportedOperationException e) {
+                // Block size unknown
+            } catch (FileSystemException e) {
+                // O_DIRECT refused; a missing or unreadable file fails again below
+            }
+        }
+        return FileChannel.open(file, StandardOpenOption.READ);
+    }
+    
+    // com.sun.nio.file.ExtendedOpenOption.DIRECT, looked up so that the code still
+    // compiles and runs on a JDK without it
+    private static OpenOption directOption() {
+        try {
+            Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) options.getField("DIRECT").get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (position < bufferStart || position >= bufferStart + buffer.limit()) {
+            bufferStart = position - position % alignment;
+            // The aligned slice may be longer; a direct read must be a whole number of blocks
+            buffer.clear().limit(BUFFER_SIZE);
+            int read = channel.read(buffer, bufferStart);
+            buffer.flip();
+            if (read <= 0 || position >= bufferStart + buffer.limit()) {
+                return -1;
+            }
+        }
+        ByteBuffer available = buffer.duplicate();
+        available.position((int) (position - bufferStart));
+        int count = Math.min(available.remaining(), dst.remaining());
+        available.limit(available.position() + count);
+        dst.put(available);
+        position += count;
+        return count;
+    }
+    
+    @Override
+    public long position() {
+        return position;
+    }
+    
+    @Override
+    public SeekableByteChannel position(long newPosition) {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+    
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+    
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,240 @@
+package searchengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Finds files with identical content. Files are collected from a walk and grouped
+// by size; only sizes shared by several files are read at all. Those files get a
+// hash of their first and last few KB, computed in parallel, and only files that
+// still collide are hashed in full. Hardlinks to the same file (same file key)
+// are one file, not duplicates of each other. Given a throttle, hashing reads
+// through it like any other bulk read.
+public class DuplicateFinder {
+    private static final int EDGE_SIZE = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    
+    private final ExecutorService executorService;
+    private final IoThrottle throttle; // null for unthrottled reads
+    private final Map<Long, List<Candidate>> bySize = new ConcurrentHashMap<>();
+    
+    public DuplicateFinder(ExecutorService executorService) {
+        this(executorService, null);
+    }
+    
+    public DuplicateFinder(ExecutorService executorService, IoThrottle throttle) {
+        this.executorService = executorService;
+        this.throttle = throttle;
+    }
+    
+    // Called concurrently from the walkers; empty files are not worth reporting
+    public void add(Path file, BasicFileAttributes attrs) {
+        if (attrs.size() == 0) {
+            return;
+        }
+        bySize.computeIfAbsent(attrs.size(), size -> Collections.synchronizedList(new ArrayList<>()))
+            .add(new Candidate(file, attrs));
+    }
+    
+    // Largest waste first. Throws InterruptedException if cancelled while hashing.
+    public List<DuplicateGroup> find() throws InterruptedException {
+        // Sizes shared by at least two distinct files (hardlinks collapsed)
+        List<List<Candidate>> groups = new ArrayList<>();
+        for (List<Candidate> sameSize : bySize.values()) {
+            List<Candidate> distinct = distinctFiles(sameSize);
+            if (distinct.size() > 1) {
+                groups.add(distinct);
+            }
+        }
+        
+        // Cheap pass: first and last EDGE_SIZE bytes. For small files this is the whole file.
+        groups = splitByHash(groups, false);
+        
+        // Full hash only where the edges were not enough to tell the files apart
+        List<List<Candidate>> confirmed = new ArrayList<>();
+        List<List<Candidate>> remaining = new ArrayList<>();
+        for (List<Candidate> group : groups) {
+            if (group.get(0).size <= 2L * EDGE_SIZE) {
+                confirmed.add(group);
+            } else {
+                remaining.add(group);
+            }
+        }
+        confirmed.addAll(splitByHash(remaining, true));
+        
+        List<DuplicateGroup> result = new ArrayList<>();
+        for (List<Candidate> group : confirmed) {
+            group.sort(Comparator.comparing(candidate -> candidate.file.toString()));
+            List<LiveFileSearch.SearchResult> files = new ArrayList<>();
+            for (Candidate candidate : group) {
+                files.add(candidate.toResult());
+            }
+            result.add(new DuplicateGroup(group.get(0).size, files));
+        }
+        result.sort(Comparator.comparingLong(DuplicateGroup::getWastedBytes).reversed());
+        return result;
+    }
+    
+    private static List<Candidate> distinctFiles(List<Candidate> sameSize) {
+        Map<Object, Candidate> byKey = new LinkedHashMap<>();
+        List<Candidate> distinct = new ArrayList<>();
+        synchronized (sameSize) {
+            for (Candidate candidate : sameSize) {
+                if (candidate.fileKey == null) {
+                    // No file key on this platform: every path counts as its own file
+                    distinct.add(candidate);
+                } else {
+                    byKey.putIfAbsent(candidate.fileKey, candidate);
+                }
+            }
+        }
+        distinct.addAll(byKey.values());
+        return distinct;
+    }
+    
+    // Hashes every candidate in parallel and splits each group by hash, dropping
+    // files that turn out to be unique. Unreadable files are left out.
+    private List<List<Candidate>> splitByHash(List<List<Candidate>> groups, boolean full) throws InterruptedException {
+        Map<Candidate, Future<String>> hashes = new HashMap<>();
+        for (List<Candidate> group : groups) {
+            for (Candidate candidate : group) {
+                hashes.put(candidate, executorService.submit(() -> full ? fullHash(candidate.file) : edgeHash(candidate)));
+            }
+        }
+        
+        List<List<Candidate>> split = new ArrayList<>();
+        try {
+            for (List<Candidate> group : groups) {
+                Map<String, List<Candidate>> byHash = new LinkedHashMap<>();
+                for (Candidate candidate : group) {
+                    try {
+                        byHash.computeIfAbsent(hashes.get(candidate).get(), hash -> new ArrayList<>()).add(candidate);
+                    } catch (ExecutionException e) {
+                        // Skip files with access issues
+                    }
+                }
+                for (List<Candidate> sameHash : byHash.values()) {
+                    if (sameHash.size() > 1) {
+                        split.add(sameHash);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<String> future : hashes.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return split;
+    }
+    
+    private String edgeHash(Candidate candidate) throws IOException {
+        MessageDigest digest = newDigest();
+        try (SeekableByteChannel channel = open(candidate.file)) {
+            long size = candidate.size;
+            if (size <= 2L * EDGE_SIZE) {
+                update(digest, channel, 0, size);
+            } else {
+                update(digest, channel, 0, EDGE_SIZE);
+                update(digest, channel, size - EDGE_SIZE, EDGE_SIZE);
+            }
+        }
+        return toHex(digest.digest());
+    }
+    
+    private String fullHash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (SeekableByteChannel channel = open(file)) {
+            update(digest, channel, 0, Long.MAX_VALUE);
+        }
+        return toHex(digest.digest());
+    }
+    
+    private SeekableByteChannel open(Path file) throws IOException {
+        return throttle != null ? throttle.open(file) : FileChannel.open(file, StandardOpenOption.READ);
+    }
+    
+    // Feeds up to length bytes starting at position into the digest
+    private static void update(MessageDigest digest, SeekableByteChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        long remaining = length;
+        channel.position(position);
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            remaining -= read;
+        }
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+    
+    private static final class Candidate {
+        private final Path file;
+        private final Object fileKey;
+        private final long size;
+        private final long lastModified;
+        
+        Candidate(Path file, BasicFileAttributes attrs) {
+            this.file = file;
+            this.fileKey = attrs.fileKey();
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+        
+        LiveFileSearch.SearchResult toResult() {
+            return new LiveFileSearch.SearchResult(file.toString(), file.getFileName().toString(),
+                size, lastModified, LiveFileSearch.SearchType.DUPLICATE);
+        }
+    }
+    
+    // Files with identical content; all but one of them could be removed
+    public static class DuplicateGroup {
+        private final long size;
+        private final List<LiveFileSearch.SearchResult> files;
+        
+        public DuplicateGroup(long size, List<LiveFileSearch.SearchResult> files) {
+            this.size = size;
+            this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        }
+        
+        public long getSize() { return size; }
+        public List<LiveFileSearch.SearchResult> getFiles() { return files; }
+        
+        public long getWastedBytes() {
+            return size * (files.size() - 1);
+        }
+    }
+}
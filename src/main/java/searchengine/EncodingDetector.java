@@ -0,0 +1,111 @@
+package searchengine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Guesses the encoding of a text file from its first few KB: a byte order mark
+// if there is one, otherwise the distribution of zero bytes (UTF-16) or whether
+// the sample is well-formed UTF-8. Anything else is treated as Latin-1, which
+// can represent every byte.
+public final class EncodingDetector {
+    public static final int SAMPLE_SIZE = 4096;
+    
+    private EncodingDetector() {
+    }
+    
+    public static Encoding detect(ByteBuffer head) {
+        int length = Math.min(head.remaining(), SAMPLE_SIZE);
+        int start = head.position();
+        
+        // Byte order marks
+        if (length >= 3 && u(head, start) == 0xEF && u(head, start + 1) == 0xBB && u(head, start + 2) == 0xBF) {
+            return new Encoding(StandardCharsets.UTF_8, 3);
+        }
+        if (length >= 2 && u(head, start) == 0xFE && u(head, start + 1) == 0xFF) {
+            return new Encoding(StandardCharsets.UTF_16BE, 2);
+        }
+        if (length >= 2 && u(head, start) == 0xFF && u(head, start + 1) == 0xFE) {
+            return new Encoding(StandardCharsets.UTF_16LE, 2);
+        }
+        
+        // UTF-16 without BOM: mostly-ASCII text has a zero in every other byte
+        int evenZeros = 0, oddZeros = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (head.get(start + i) == 0) evenZeros++;
+            if (head.get(start + i + 1) == 0) oddZeros++;
+        }
+        int pairs = length / 2;
+        if (pairs >= 2) {
+            if (oddZeros > pairs * 0.4 && evenZeros < pairs * 0.05) {
+                return new Encoding(StandardCharsets.UTF_16LE, 0);
+            }
+            if (evenZeros > pairs * 0.4 && oddZeros < pairs * 0.05) {
+                return new Encoding(StandardCharsets.UTF_16BE, 0);
+            }
+        }
+        
+        if (isValidUtf8(head, start, start + length, length < head.remaining())) {
+            return new Encoding(StandardCharsets.UTF_8, 0);
+        }
+        return new Encoding(StandardCharsets.ISO_8859_1, 0);
+    }
+    
+    private static boolean isValidUtf8(ByteBuffer buffer, int from, int to, boolean truncated) {
+        int i = from;
+        while (i < to) {
+            int b = u(buffer, i);
+            int continuation;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+            if (i + continuation >= to) {
+                // A sequence cut off by the sample boundary is not evidence against UTF-8
+                return truncated;
+            }
+            for (int j = 1; j <= continuation; j++) {
+                if ((u(buffer, i + j) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+    
+    private static int u(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+    
+    public static class Encoding {
+        private final Charset charset;
+        private final int bomLength;
+        
+        public Encoding(Charset charset, int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+        
+        public Charset getCharset() { return charset; }
+        public int getBomLength() { return bomLength; }
+        
+        // Width of one code unit; matches must start on a unit boundary
+        public int getUnitSize() {
+            return charset == StandardCharsets.UTF_16LE || charset == StandardCharsets.UTF_16BE ? 2 : 1;
+        }
+        
+        @Override
+        public String toString() {
+            return charset.name() + (bomLength > 0 ? " (BOM)" : "");
+        }
+    }
+}
\ No newline at end of file
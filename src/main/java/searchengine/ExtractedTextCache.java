@@ -0,0 +1,327 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// The text of documents that a TextExtractor has turned into plain text, so each one
+// is extracted once rather than on every content search. Texts are kept as UTF-8
+// files (with a BOM, so EncodingDetector needs no guessing) and looked up by the
+// document's path, size and mtime: a changed document is extracted again, and a
+// document the extractor rejected (see UnreadableDocumentException) is remembered as
+// having no text until it changes. Any other failure is tried again next time.
+//
+// The cache keeps at most maxBytes of text, dropping the least recently used first.
+// Its entries are saved to a checksummed file on shutdown, like the content index;
+// without a data directory it lives in a temporary directory deleted on shutdown.
+public class ExtractedTextCache {
+    private static final int MAGIC = 0x4C465358; // "LFSX"
+    private static final int VERSION = 1;
+    private static final String ENTRIES = "entries";
+    private static final String TEXT_SUFFIX = ".txt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    
+    private final Path configuredDirectory; // null for a temporary cache
+    private Path directory; // created on first use
+    private boolean loaded;
+    private boolean dirty;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong(); // orders uses, for eviction
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    
+    // Keeps the cache in directory, or in a temporary one if directory is null
+    public ExtractedTextCache(Path directory) {
+        this.configuredDirectory = directory;
+    }
+    
+    public void setMaxBytes(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + bytes);
+        }
+        this.maxBytes = bytes;
+        evict();
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    // Bytes of text held
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+    
+    // The file holding the text of document, extracted now unless the cache has it for
+    // the document's current size and mtime; null if the extractor could not read it.
+    // The returned file may be evicted by a concurrent search before it is read; call
+    // forget and try again then. profile may be null.
+    public Path text(Path document, TextExtractor extractor, SearchProfile profile) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(document, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Path base = directory();
+        String key = document.toString();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            entry.lastUsed = clock.incrementAndGet();
+            if (profile != null) {
+                profile.extractedTextReused();
+            }
+            return entry.name != null ? base.resolve(entry.name) : null;
+        }
+        
+        Entry extracted = extract(base, document, size, lastModified, extractor);
+        if (profile != null) {
+            profile.documentExtracted();
+        }
+        if (extracted == null) {
+            return null;
+        }
+        Entry previous = entries.put(key, extracted);
+        if (previous != null) {
+            discard(base, previous);
+        }
+        synchronized (this) {
+            dirty = true;
+        }
+        if (totalBytes.addAndGet(extracted.textBytes) > maxBytes) {
+            evict();
+        }
+        return extracted.name != null ? base.resolve(extracted.name) : null;
+    }
+    
+    // Drops what is cached for document, e.g. after its text file turned out to be evicted
+    public void forget(Path document) {
+        Entry entry = entries.remove(document.toString());
+        if (entry != null) {
+            try {
+                discard(directory(), entry);
+            } catch (IOException e) {
+                // The directory is gone, and the text with it
+            }
+        }
+    }
+    
+    // null if the extraction failed in a way that may not happen again
+    private Entry extract(Path base, Path document, long size, long lastModified, TextExtractor extractor)
+            throws IOException {
+        String id = UUID.randomUUID().toString();
+        // Two hex digits of subdirectory keep directories small in a large cache
+        String name = id.substring(0, 2) + File.separator + id + TEXT_SUFFIX;
+        Path text = base.resolve(name);
+        Files.createDirectories(text.getParent());
+        Path temp = text.resolveSibling(id + TEMP_SUFFIX);
+        try {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8))) {
+                out.write('\uFEFF');
+                extractor.extract(document, out);
+            }
+            Files.move(temp, text, StandardCopyOption.ATOMIC_MOVE);
+            return new Entry(size, lastModified, name, Files.size(text), clock.incrementAndGet());
+        } catch (UnreadableDocumentException e) {
+            // Don't try again until the document changes
+            Files.deleteIfExists(temp);
+            return new Entry(size, lastModified, null, 0, clock.incrementAndGet());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            return null;
+        }
+    }
+    
+    private void discard(Path base, Entry entry) {
+        if (entry.name == null) {
+            return;
+        }
+        totalBytes.addAndGet(-entry.textBytes);
+        try {
+            Files.deleteIfExists(base.resolve(entry.name));
+        } catch (IOException e) {
+            // Left for the clean-up on the next load
+        }
+    }
+    
+    // Drops the least recently used texts until the cache is a tenth below its limit,
+    // so a full cache does not evict on every extraction
+    private synchronized void evict() {
+        if (totalBytes.get() <= maxBytes || directory == null) {
+            return;
+        }
+        // Uses as they are now; lastUsed keeps moving while the list is sorted
+        List<Map.Entry<Long, String>> byUse = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().name != null) {
+                byUse.add(new AbstractMap.SimpleImmutableEntry<>(entry.getValue().lastUsed, entry.getKey()));
+            }
+        }
+        byUse.sort(Map.Entry.comparingByKey());
+        long target = maxBytes - maxBytes / 10;
+        for (Map.Entry<Long, String> use : byUse) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            Entry entry = entries.get(use.getValue());
+            if (entry != null && entry.name != null && entries.remove(use.getValue(), entry)) {
+                discard(directory, entry);
+            }
+        }
+        dirty = true;
+    }
+    
+    private synchronized Path directory() throws IOException {
+        if (directory == null) {
+            if (configuredDirectory != null) {
+                Files.createDirectories(configuredDirectory);
+                directory = configuredDirectory;
+            } else {
+                directory = Files.createTempDirectory("simple-live-search-text");
+            }
+        }
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+        return directory;
+    }
+    
+    // Saves the entries, or deletes a temporary cache
+    public synchronized void close() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        if (configuredDirectory == null) {
+            deleteTree(directory);
+            directory = null;
+            entries.clear();
+            totalBytes.set(0);
+            return;
+        }
+        if (!dirty) {
+            return;
+        }
+        Path entriesFile = directory.resolve(ENTRIES);
+        Path temp = entriesFile.resolveSibling(ENTRIES + TEMP_SUFFIX);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            List<Map.Entry<String, Entry>> saved = new ArrayList<>(entries.entrySet());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(saved.size());
+            for (Map.Entry<String, Entry> entry : saved) {
+                Entry value = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(value.size);
+                out.writeLong(value.lastModified);
+                out.writeUTF(value.name != null ? value.name : "");
+                out.writeLong(value.textBytes);
+                out.writeLong(value.lastUsed);
+            }
+            // The checksum covers everything written before it
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temp, entriesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, entriesFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+    
+    // Loads the entries saved by close() and deletes text files they don't mention:
+    // left by a crash, or by an entries file that was lost or corrupt
+    private void load() {
+        Path entriesFile = directory.resolve(ENTRIES);
+        if (Files.isRegularFile(entriesFile)) {
+            try {
+                byte[] bytes = Files.readAllBytes(entriesFile);
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, Math.max(0, bytes.length - 8));
+                if (bytes.length < 16 || crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+                    System.err.println("Ignoring corrupt extracted-text cache: " + entriesFile);
+                } else {
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+                    if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                        int count = in.readInt();
+                        long latest = 0;
+                        for (int i = 0; i < count; i++) {
+                            String path = in.readUTF();
+                            long size = in.readLong();
+                            long lastModified = in.readLong();
+                            String name = in.readUTF();
+                            Entry entry = new Entry(size, lastModified, name.isEmpty() ? null : name, in.readLong(), in.readLong());
+                            entries.put(path, entry);
+                            totalBytes.addAndGet(entry.textBytes);
+                            latest = Math.max(latest, entry.lastUsed);
+                        }
+                        clock.set(latest);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not load extracted-text cache: " + e.getMessage());
+                entries.clear();
+                totalBytes.set(0);
+            }
+        }
+        
+        Set<String> referenced = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (entry.name != null) {
+                referenced.add(entry.name);
+            }
+        }
+        try (DirectoryStream<Path> subdirectories = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path subdirectory : subdirectories) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(subdirectory)) {
+                    for (Path file : files) {
+                        if (!referenced.contains(directory.relativize(file).toString())) {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Orphans only cost disk space
+        }
+    }
+    
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String name; // relative to the cache directory; null if the document has no text
+        final long textBytes;
+        volatile long lastUsed;
+        
+        Entry(long size, long lastModified, String name, long textBytes, long lastUsed) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.name = name;
+            this.textBytes = textBytes;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+// Remembers the files seen by complete walks (paths, sizes, mtimes and directory
+// mtimes) so a fresh engine can answer name queries before it has walked anything.
+// The catalogue is saved to a versioned, checksummed snapshot on shutdown and
+// memory-mapped on startup. Loading only reads the snapshot's index of roots; a
+// root's records are decoded from the mapping the first time it is used. Roots
+// loaded from a snapshot are only trusted until the background verification pass
+// has compared them against the disk.
+public class FileCatalogue {
+    private static final int MAGIC = 0x4C465343; // "LFSC"
+    private static final int VERSION = 2;
+    
+    private final Map<String, RootEntry> roots = new ConcurrentHashMap<>();
+    
+    public Recorder newRecorder(Path root) {
+        return new Recorder(normalize(root));
+    }
+    
+    // Answers a name query from a snapshot-loaded root that has not been verified yet.
+    // Returns false when the query has to walk the disk instead.
+    public boolean answerFromSnapshot(Path root, Predicate<String> nameMatcher, List<LiveFileSearch.SearchResult> results) {
+        String queryRoot = normalize(root);
+        RootEntry entry = coveringRoot(queryRoot);
+        if (entry == null || !entry.fromSnapshot || entry.verified) {
+            return false;
+        }
+        String prefix = queryRoot.endsWith(File.separator) ? queryRoot : queryRoot + File.separator;
+        for (DirRecord dir : entry.directories()) {
+            if (!dir.path.equals(queryRoot) && !dir.path.startsWith(prefix)) {
+                continue;
+            }
+            for (FileRecord file : dir.files) {
+                if (nameMatcher.test(file.name)) {
+                    results.add(new LiveFileSearch.SearchResult(
+                        Paths.get(dir.path, file.name).toString(),
+                        file.name,
+                        file.size,
+                        file.lastModified,
+                        LiveFileSearch.SearchType.NAME
+                    ));
+                }
+            }
+        }
+        return true;
+    }
+    
+    // answerFromSnapshot for a path query. The query's state for each recorded directory
+    // is worked out from its parent's, so each directory is matched once.
+    public boolean answerPathsFromSnapshot(Path root, RelativePathMatcher pathMatcher,
+                                           List<LiveFileSearch.SearchResult> results) {
+        String queryRoot = normalize(root);
+        RootEntry entry = coveringRoot(queryRoot);
+        if (entry == null || !entry.fromSnapshot || entry.verified) {
+            return false;
+        }
+        String prefix = queryRoot.endsWith(File.separator) ? queryRoot : queryRoot + File.separator;
+        Map<String, RelativePathMatcher.Directory> directories = new HashMap<>();
+        directories.put(queryRoot, pathMatcher.root());
+        for (DirRecord dir : entry.directories()) {
+            if (!dir.path.equals(queryRoot) && !dir.path.startsWith(prefix)) {
+                continue;
+            }
+            RelativePathMatcher.Directory directory = directory(dir.path, pathMatcher, directories);
+            for (FileRecord file : dir.files) {
+                if (pathMatcher.matches(directory, file.name, 0, file.name.length())) {
+                    results.add(new LiveFileSearch.SearchResult(
+                        Paths.get(dir.path, file.name).toString(),
+                        file.name,
+                        file.size,
+                        file.lastModified,
+                        LiveFileSearch.SearchType.PATH
+                    ));
+                }
+            }
+        }
+        return true;
+    }
+    
+    // The state of a directory below the query root, whose own state is already in the map
+    private static RelativePathMatcher.Directory directory(String path, RelativePathMatcher pathMatcher,
+                                                           Map<String, RelativePathMatcher.Directory> directories) {
+        RelativePathMatcher.Directory directory = directories.get(path);
+        if (directory == null) {
+            Path dir = Paths.get(path);
+            directory = pathMatcher.child(directory(dir.getParent().toString(), pathMatcher, directories),
+                dir.getFileName().toString());
+            directories.put(path, directory);
+        }
+        return directory;
+    }
+    
+    // Whether answerFromSnapshot and answerPathsFromSnapshot answer queries under root
+    public boolean answersFromSnapshot(Path root) {
+        RootEntry entry = coveringRoot(normalize(root));
+        return entry != null && entry.fromSnapshot && !entry.verified;
+    }
+    
+    public boolean hasUnverifiedRoots() {
+        for (RootEntry entry : roots.values()) {
+            if (entry.fromSnapshot && !entry.verified) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Re-checks every snapshot-loaded root against the disk. Directories whose mtime is
+    // unchanged keep their recorded files; changed directories are listed again and new
+    // subdirectories are walked.
+    public void verify(Predicate<Path> skipDirectory) {
+        for (RootEntry entry : new ArrayList<>(roots.values())) {
+            if (!entry.fromSnapshot || entry.verified) {
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            RootEntry refreshed = verifyRoot(entry, skipDirectory);
+            if (refreshed != null) {
+                roots.replace(entry.root, entry, refreshed);
+            } else {
+                roots.remove(entry.root, entry);
+            }
+        }
+    }
+    
+    private RootEntry verifyRoot(RootEntry entry, Predicate<Path> skipDirectory) {
+        Path rootPath = Paths.get(entry.root);
+        if (!Files.isDirectory(rootPath)) {
+            return null;
+        }
+        List<DirRecord> directories = entry.directories();
+        Map<String, DirRecord> known = new HashMap<>();
+        for (DirRecord dir : directories) {
+            known.put(dir.path, dir);
+        }
+        List<DirRecord> verified = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        for (DirRecord dir : directories) {
+            if (Thread.currentThread().isInterrupted()) {
+                return entry;
+            }
+            if (isUnder(dir.path, removed)) {
+                continue;
+            }
+            Path dirPath = Paths.get(dir.path);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(dirPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                removed.add(dir.path);
+                continue;
+            }
+            if (!attrs.isDirectory()) {
+                removed.add(dir.path);
+                continue;
+            }
+            if (attrs.lastModifiedTime().toMillis() == dir.lastModified) {
+                verified.add(dir);
+                continue;
+            }
+            
+            // The directory changed: list it again and walk subdirectories we have not seen
+            List<FileRecord> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dirPath)) {
+                for (Path child : stream) {
+                    // Not following links, like the walk: a link verified against its
+                    // target would pass a snapshot the walk would not have recorded
+                    BasicFileAttributes childAttrs;
+                    try {
+                        childAttrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (childAttrs.isRegularFile()) {
+                        files.add(new FileRecord(child.getFileName().toString(), childAttrs.size(),
+                            childAttrs.lastModifiedTime().toMillis()));
+                    } else if (childAttrs.isDirectory() && !known.containsKey(normalize(child))
+                               && !skipDirectory.test(child)) {
+                        verified.addAll(walkNewDirectory(child, skipDirectory));
+                    }
+                }
+            } catch (IOException e) {
+                removed.add(dir.path);
+                continue;
+            }
+            verified.add(new DirRecord(dir.path, attrs.lastModifiedTime().toMillis(), files));
+        }
+        RootEntry refreshed = new RootEntry(entry.root, verified, true);
+        refreshed.verified = true;
+        return refreshed;
+    }
+    
+    private List<DirRecord> walkNewDirectory(Path dir, Predicate<Path> skipDirectory) {
+        Recorder recorder = new Recorder(normalize(dir));
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                    if (skipDirectory.test(d)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    recorder.enterDirectory(d, attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        recorder.addFile(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                @Override
+                public FileVisitResult postVisitDirectory(Path d, IOException exc) {
+                    recorder.exitDirectory();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // Keep whatever was recorded before the failure
+        }
+        return recorder.directories;
+    }
+    
+    public void save(Path snapshotFile) throws IOException {
+        Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            List<RootEntry> entries = new ArrayList<>(roots.values());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            // The records of each root, then an index of where they start, so loading
+            // can leave the records alone until a root is used
+            int[] offsets = new int[entries.size()];
+            for (int r = 0; r < entries.size(); r++) {
+                offsets[r] = out.size();
+                List<DirRecord> directories = entries.get(r).directories();
+                out.writeInt(directories.size());
+                for (DirRecord dir : directories) {
+                    writeString(out, dir.path);
+                    out.writeLong(dir.lastModified);
+                    out.writeInt(dir.files.size());
+                    for (FileRecord file : dir.files) {
+                        writeString(out, file.name);
+                        out.writeLong(file.size);
+                        out.writeLong(file.lastModified);
+                    }
+                }
+            }
+            int indexOffset = out.size();
+            out.writeInt(entries.size());
+            for (int r = 0; r < entries.size(); r++) {
+                writeString(out, entries.get(r).root);
+                out.writeInt(offsets[r]);
+            }
+            out.writeInt(indexOffset);
+            // The checksum covers everything written before it
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    // Loads a snapshot written by save(). A missing, truncated, corrupt or
+    // older-version snapshot is ignored and the engine simply starts cold. Only the
+    // checksum is computed over the whole file; no record is decoded here.
+    public boolean load(Path snapshotFile) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 32 || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                System.err.println("Ignoring corrupt catalogue snapshot: " + snapshotFile);
+                return false;
+            }
+            
+            buffer.limit((int) size - 8);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            buffer.getLong(); // creation time
+            buffer.position(buffer.getInt((int) size - 12));
+            int rootCount = buffer.getInt();
+            for (int r = 0; r < rootCount; r++) {
+                String root = readString(buffer);
+                ByteBuffer records = buffer.duplicate();
+                records.position(buffer.getInt());
+                roots.put(root, new RootEntry(root, records));
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load catalogue snapshot: " + e.getMessage());
+            roots.clear();
+            return false;
+        }
+    }
+    
+    private RootEntry coveringRoot(String path) {
+        RootEntry best = null;
+        for (RootEntry entry : roots.values()) {
+            String prefix = entry.root.endsWith(File.separator) ? entry.root : entry.root + File.separator;
+            if ((path.equals(entry.root) || path.startsWith(prefix))
+                && (best == null || entry.root.length() > best.root.length())) {
+                best = entry;
+            }
+        }
+        return best;
+    }
+    
+    private void commit(RootEntry entry) {
+        // A newer walk of a root replaces any catalogued roots it contains
+        String prefix = entry.root.endsWith(File.separator) ? entry.root : entry.root + File.separator;
+        roots.keySet().removeIf(root -> root.startsWith(prefix));
+        roots.put(entry.root, entry);
+    }
+    
+    private static boolean isUnder(String path, Set<String> ancestors) {
+        for (String ancestor : ancestors) {
+            if (path.startsWith(ancestor + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    static String normalize(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    // The records of one root, as written by save()
+    private static List<DirRecord> readDirectories(ByteBuffer buffer) {
+        int dirCount = buffer.getInt();
+        List<DirRecord> directories = new ArrayList<>(dirCount);
+        for (int d = 0; d < dirCount; d++) {
+            String path = readString(buffer);
+            long lastModified = buffer.getLong();
+            int fileCount = buffer.getInt();
+            List<FileRecord> files = new ArrayList<>(fileCount);
+            for (int f = 0; f < fileCount; f++) {
+                files.add(new FileRecord(readString(buffer), buffer.getLong(), buffer.getLong()));
+            }
+            directories.add(new DirRecord(path, lastModified, files));
+        }
+        return directories;
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    // Collects the directories and files of one walk. The walk is only added to
+    // the catalogue when commit() is called, i.e. when it ran to completion.
+    public class Recorder {
+        private final String root;
+        private final List<DirRecord> directories = new ArrayList<>();
+        private final Deque<List<FileRecord>> open = new ArrayDeque<>();
+        
+        private Recorder(String root) {
+            this.root = root;
+        }
+        
+        public void enterDirectory(Path dir, BasicFileAttributes attrs) {
+            List<FileRecord> files = new ArrayList<>();
+            directories.add(new DirRecord(normalize(dir), attrs.lastModifiedTime().toMillis(), files));
+            open.push(files);
+        }
+        
+        public void exitDirectory() {
+            open.poll();
+        }
+        
+        public void addFile(Path file, BasicFileAttributes attrs) {
+            List<FileRecord> files = open.peek();
+            if (files != null) {
+                files.add(new FileRecord(file.getFileName().toString(), attrs.size(),
+                    attrs.lastModifiedTime().toMillis()));
+            }
+        }
+        
+        // A recorder for one part of the same walk, e.g. a subtree walked on another thread
+        public Recorder fork() {
+            return new Recorder(root);
+        }
+        
+        public void merge(Recorder other) {
+            directories.addAll(other.directories);
+        }
+        
+        public void commit() {
+            FileCatalogue.this.commit(new RootEntry(root, directories, false));
+        }
+    }
+    
+    private static class RootEntry {
+        final String root;
+        final boolean fromSnapshot;
+        volatile boolean verified;
+        private List<DirRecord> directories; // null until decoded from records
+        private ByteBuffer records; // the root's part of the mapped snapshot, until decoded
+        
+        RootEntry(String root, List<DirRecord> directories, boolean fromSnapshot) {
+            this.root = root;
+            this.directories = directories;
+            this.fromSnapshot = fromSnapshot;
+        }
+        
+        RootEntry(String root, ByteBuffer records) {
+            this.root = root;
+            this.records = records;
+            this.fromSnapshot = true;
+        }
+        
+        synchronized List<DirRecord> directories() {
+            if (directories == null) {
+                try {
+                    directories = readDirectories(records);
+                } catch (RuntimeException e) {
+                    // The checksum matched, so only a snapshot replaced under the mapping gets here
+                    System.err.println("Could not read catalogue snapshot of " + root + ": " + e);
+                    directories = new ArrayList<>();
+                }
+                records = null;
+            }
+            return directories;
+        }
+    }
+    
+    private static class DirRecord {
+        final String path;
+        final long lastModified;
+        final List<FileRecord> files;
+        
+        DirRecord(String path, long lastModified, List<FileRecord> files) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.files = files;
+        }
+    }
+    
+    private static class FileRecord {
+        final String name;
+        final long size;
+        final long lastModified;
+        
+        FileRecord(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
\ No newline at end of file
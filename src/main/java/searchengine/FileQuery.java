@@ -0,0 +1,627 @@
+package searchengine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// A boolean query over files, e.g.
+//
+//   name:*.log AND content:OOM AND NOT path:archive
+//
+// Predicates are field:value (quote values with spaces): name (substring, or a glob
+// with * and ?), regex (name regex), path (substring of the full path), content,
+// content-regex, size (size:>10M, size:<=4k, size:123) and modified (modified:>2024-01-31,
+// modified:>7d for the last seven days, h for hours). A bare word is a name substring.
+// AND, OR, NOT and parentheses combine them; AND binds tighter than OR and may be left out.
+//
+// The planner orders the operands of every AND and OR by cost: attributes first, then
+// name and path, then content, and evaluation stops as soon as the outcome is known.
+// Walkers evaluate everything but content; files that are still undecided are read.
+public final class FileQuery {
+    private static final Pattern SIZE = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([kmg]?)b?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AGE = Pattern.compile("(\\d+)([hd])", Pattern.CASE_INSENSITIVE);
+    
+    // Result of evaluating a query without reading content
+    public enum Match { YES, NO, MAYBE }
+    
+    public interface ContentReader {
+        boolean matches(ContentMatcher matcher) throws IOException;
+    }
+    
+    private static final int COST_ATTRIBUTES = 0;
+    private static final int COST_NAME = 1;
+    private static final int COST_CONTENT = 2;
+    
+    private final String text;
+    private final Node root;
+    
+    private FileQuery(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+    
+    public static FileQuery parse(String text) {
+        Parser parser = new Parser(tokenize(text));
+        Node root = parser.parseOr();
+        if (parser.hasMore()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "'");
+        }
+        return new FileQuery(text, root);
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public boolean readsContent() {
+        return root.cost() == COST_CONTENT;
+    }
+    
+    // The query in the order it is evaluated
+    public String plan() {
+        return root.toString();
+    }
+    
+    // With a null reader, content predicates are left undecided (MAYBE)
+    public Match test(Path file, BasicFileAttributes attrs, ContentReader reader) {
+        return root.test(new Candidate(file, attrs, reader));
+    }
+    
+    // False when no file below dir can match, so the walk can skip it
+    public boolean mayMatchUnder(Path dir) {
+        String prefix = dir.toString().toLowerCase();
+        if (!prefix.endsWith(File.separator)) {
+            prefix += File.separator;
+        }
+        return root.under(prefix) != Match.NO;
+    }
+    
+    @Override
+    public String toString() {
+        return text;
+    }
+    
+    private static final class Candidate {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private final ContentReader reader;
+        private String nameLower;
+        private String pathLower;
+        
+        Candidate(Path file, BasicFileAttributes attrs, ContentReader reader) {
+            this.file = file;
+            this.attrs = attrs;
+            this.reader = reader;
+        }
+        
+        String name() {
+            return file.getFileName().toString();
+        }
+        
+        String nameLower() {
+            if (nameLower == null) {
+                nameLower = name().toLowerCase();
+            }
+            return nameLower;
+        }
+        
+        String pathLower() {
+            if (pathLower == null) {
+                pathLower = file.toString().toLowerCase();
+            }
+            return pathLower;
+        }
+    }
+    
+    private abstract static class Node {
+        abstract int cost();
+        
+        abstract Match test(Candidate candidate);
+        
+        // What every file below a directory (given as lower-case path ending in a
+        // separator) evaluates to, as far as the path alone tells
+        Match under(String directoryPrefix) {
+            return Match.MAYBE;
+        }
+    }
+    
+    private static final class And extends Node {
+        private final List<Node> operands;
+        
+        And(List<Node> operands) {
+            this.operands = byCost(operands);
+        }
+        
+        @Override
+        int cost() {
+            return operands.get(operands.size() - 1).cost();
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            Match result = Match.YES;
+            for (Node operand : operands) {
+                Match match = operand.test(candidate);
+                if (match == Match.NO) {
+                    return Match.NO;
+                }
+                if (match == Match.MAYBE) {
+                    result = Match.MAYBE;
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        Match under(String directoryPrefix) {
+            Match result = Match.YES;
+            for (Node operand : operands) {
+                Match match = operand.under(directoryPrefix);
+                if (match == Match.NO) {
+                    return Match.NO;
+                }
+                if (match == Match.MAYBE) {
+                    result = Match.MAYBE;
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return join(operands, " AND ");
+        }
+    }
+    
+    private static final class Or extends Node {
+        private final List<Node> operands;
+        
+        Or(List<Node> operands) {
+            this.operands = byCost(operands);
+        }
+        
+        @Override
+        int cost() {
+            return operands.get(operands.size() - 1).cost();
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            Match result = Match.NO;
+            for (Node operand : operands) {
+                Match match = operand.test(candidate);
+                if (match == Match.YES) {
+                    return Match.YES;
+                }
+                if (match == Match.MAYBE) {
+                    result = Match.MAYBE;
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        Match under(String directoryPrefix) {
+            Match result = Match.NO;
+            for (Node operand : operands) {
+                Match match = operand.under(directoryPrefix);
+                if (match == Match.YES) {
+                    return Match.YES;
+                }
+                if (match == Match.MAYBE) {
+                    result = Match.MAYBE;
+                }
+            }
+            return result;
+        }
+        
+        @Override
+        public String toString() {
+            return join(operands, " OR ");
+        }
+    }
+    
+    private static final class Not extends Node {
+        private final Node operand;
+        
+        Not(Node operand) {
+            this.operand = operand;
+        }
+        
+        @Override
+        int cost() {
+            return operand.cost();
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            return negate(operand.test(candidate));
+        }
+        
+        @Override
+        Match under(String directoryPrefix) {
+            return negate(operand.under(directoryPrefix));
+        }
+        
+        private static Match negate(Match match) {
+            return match == Match.YES ? Match.NO : match == Match.NO ? Match.YES : Match.MAYBE;
+        }
+        
+        @Override
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+    
+    // name:, regex:, path:
+    private static final class TextPredicate extends Node {
+        private final String field;
+        private final String value;
+        private final boolean onPath;
+        private final String substring;
+        private final Pattern pattern;
+        
+        TextPredicate(String field, String value, boolean onPath, String substring, Pattern pattern) {
+            this.field = field;
+            this.value = value;
+            this.onPath = onPath;
+            this.substring = substring;
+            this.pattern = pattern;
+        }
+        
+        @Override
+        int cost() {
+            return COST_NAME;
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            boolean matches;
+            if (substring != null) {
+                matches = (onPath ? candidate.pathLower() : candidate.nameLower()).contains(substring);
+            } else {
+                matches = pattern.matcher(onPath ? candidate.file.toString() : candidate.name()).find();
+            }
+            return matches ? Match.YES : Match.NO;
+        }
+        
+        @Override
+        Match under(String directoryPrefix) {
+            // A directory whose path contains the text passes it on to everything below
+            return onPath && substring != null && directoryPrefix.contains(substring) ? Match.YES : Match.MAYBE;
+        }
+        
+        @Override
+        public String toString() {
+            return field + ":" + quote(value);
+        }
+    }
+    
+    // size: and modified:
+    private static final class AttributePredicate extends Node {
+        private final String field;
+        private final String value;
+        private final boolean onSize;
+        private final long from; // inclusive
+        private final long to;   // exclusive
+        
+        AttributePredicate(String field, String value, boolean onSize, long from, long to) {
+            this.field = field;
+            this.value = value;
+            this.onSize = onSize;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        int cost() {
+            return COST_ATTRIBUTES;
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            long actual = onSize ? candidate.attrs.size() : candidate.attrs.lastModifiedTime().toMillis();
+            return actual >= from && actual < to ? Match.YES : Match.NO;
+        }
+        
+        @Override
+        public String toString() {
+            return field + ":" + value;
+        }
+    }
+    
+    // content: and content-regex:
+    private static final class ContentPredicate extends Node {
+        private final String field;
+        private final String value;
+        private final ContentMatcher matcher;
+        
+        ContentPredicate(String field, String value, ContentMatcher matcher) {
+            this.field = field;
+            this.value = value;
+            this.matcher = matcher;
+        }
+        
+        @Override
+        int cost() {
+            return COST_CONTENT;
+        }
+        
+        @Override
+        Match test(Candidate candidate) {
+            if (candidate.reader == null) {
+                return Match.MAYBE;
+            }
+            try {
+                return candidate.reader.matches(matcher) ? Match.YES : Match.NO;
+            } catch (IOException e) {
+                // Unreadable content matches nothing
+                return Match.NO;
+            }
+        }
+        
+        @Override
+        public String toString() {
+            return field + ":" + quote(value);
+        }
+    }
+    
+    // The planner: cheapest operands first, original order among equals
+    private static List<Node> byCost(List<Node> operands) {
+        List<Node> sorted = new ArrayList<>(operands);
+        sorted.sort(Comparator.comparingInt(Node::cost));
+        return sorted;
+    }
+    
+    private static String join(List<Node> operands, String operator) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0) {
+                builder.append(operator);
+            }
+            builder.append(operands.get(i));
+        }
+        return builder.append(')').toString();
+    }
+    
+    private static String quote(String value) {
+        return value.matches("[^\\s()\"]+") ? value : "\"" + value + "\"";
+    }
+    
+    private static Node predicate(String token) {
+        int colon = token.indexOf(':');
+        if (colon <= 0) {
+            return new TextPredicate("name", token, false, token.toLowerCase(), null);
+        }
+        String field = token.substring(0, colon).toLowerCase();
+        String value = token.substring(colon + 1);
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException("Missing value for " + field + ":");
+        }
+        try {
+            switch (field) {
+                case "name":
+                    if (value.contains("*") || value.contains("?")) {
+                        return new TextPredicate(field, value, false, null,
+                            Pattern.compile("^" + globToRegex(value) + "$", Pattern.CASE_INSENSITIVE));
+                    }
+                    return new TextPredicate(field, value, false, value.toLowerCase(), null);
+                case "regex":
+                    return new TextPredicate(field, value, false, null, Pattern.compile(value, Pattern.CASE_INSENSITIVE));
+                case "path":
+                    return new TextPredicate(field, value, true, value.toLowerCase(), null);
+                case "content":
+                    return new ContentPredicate(field, value, ContentMatcher.literal(value));
+                case "content-regex":
+                    return new ContentPredicate(field, value,
+                        ContentMatcher.regex(Pattern.compile(value, Pattern.CASE_INSENSITIVE)));
+                case "size":
+                    return attribute(field, value, true);
+                case "modified":
+                    return attribute(field, value, false);
+                default:
+                    throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid regex pattern: " + e.getDescription());
+        }
+    }
+    
+    private static Node attribute(String field, String value, boolean onSize) {
+        String operator = value.startsWith(">=") || value.startsWith("<=") ? value.substring(0, 2)
+            : value.startsWith(">") || value.startsWith("<") || value.startsWith("=") ? value.substring(0, 1)
+            : "=";
+        String operand = value.substring(value.startsWith(operator) ? operator.length() : 0).trim();
+        
+        // Every operand is a range [low, high); comparisons pick one end of it
+        long low;
+        long high;
+        if (onSize) {
+            Matcher matcher = SIZE.matcher(operand);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Invalid size: " + operand);
+            }
+            String unit = matcher.group(2).toLowerCase();
+            long multiplier = unit.equals("k") ? 1024L : unit.equals("m") ? 1024L * 1024 : unit.equals("g") ? 1024L * 1024 * 1024 : 1;
+            low = (long) (Double.parseDouble(matcher.group(1)) * multiplier);
+            high = low + 1;
+        } else {
+            Matcher age = AGE.matcher(operand);
+            if (age.matches()) {
+                long unit = age.group(2).equalsIgnoreCase("h") ? 3600_000L : 86_400_000L;
+                low = System.currentTimeMillis() - Long.parseLong(age.group(1)) * unit;
+                high = low + 1;
+            } else {
+                try {
+                    LocalDate date = LocalDate.parse(operand);
+                    ZoneId zone = ZoneId.systemDefault();
+                    low = date.atStartOfDay(zone).toInstant().toEpochMilli();
+                    high = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Invalid date (use yyyy-mm-dd, or an age like 7d or 12h): " + operand);
+                }
+            }
+        }
+        
+        switch (operator) {
+            case ">":
+                return new AttributePredicate(field, value, onSize, high, Long.MAX_VALUE);
+            case ">=":
+                return new AttributePredicate(field, value, onSize, low, Long.MAX_VALUE);
+            case "<":
+                return new AttributePredicate(field, value, onSize, Long.MIN_VALUE, low);
+            case "<=":
+                return new AttributePredicate(field, value, onSize, Long.MIN_VALUE, high);
+            default:
+                return new AttributePredicate(field, value, onSize, low, high);
+        }
+    }
+    
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+    
+    // Splits into words and parentheses. A quoted part of a word may contain spaces,
+    // and parentheses inside a field value (a regex) belong to the value while balanced.
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+                continue;
+            }
+            StringBuilder token = new StringBuilder();
+            boolean inValue = false;
+            int depth = 0;
+            while (i < text.length()) {
+                c = text.charAt(i);
+                if (c == '"') {
+                    int end = text.indexOf('"', i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unterminated quote");
+                    }
+                    token.append(text, i + 1, end);
+                    i = end + 1;
+                    continue;
+                }
+                if (Character.isWhitespace(c)) {
+                    break;
+                }
+                if (c == ':' && !inValue) {
+                    inValue = true;
+                } else if (c == '(') {
+                    if (!inValue) {
+                        break;
+                    }
+                    depth++;
+                } else if (c == ')') {
+                    if (depth == 0) {
+                        break;
+                    }
+                    depth--;
+                }
+                token.append(c);
+                i++;
+            }
+            tokens.add(token.toString());
+        }
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty query");
+        }
+        return tokens;
+    }
+    
+    private static final class Parser {
+        private final List<String> tokens;
+        private int position;
+        
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+        
+        boolean hasMore() {
+            return position < tokens.size();
+        }
+        
+        String peek() {
+            return tokens.get(position);
+        }
+        
+        private boolean accept(String keyword) {
+            if (hasMore() && peek().equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+        
+        Node parseOr() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (accept("OR")) {
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Or(operands);
+        }
+        
+        private Node parseAnd() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseNot());
+            while (hasMore() && !peek().equals(")") && !peek().equalsIgnoreCase("OR")) {
+                accept("AND");
+                operands.add(parseNot());
+            }
+            return operands.size() == 1 ? operands.get(0) : new And(operands);
+        }
+        
+        private Node parseNot() {
+            if (accept("NOT")) {
+                return new Not(parseNot());
+            }
+            return parsePrimary();
+        }
+        
+        private Node parsePrimary() {
+            if (!hasMore()) {
+                throw new IllegalArgumentException("Query ends too early");
+            }
+            String token = tokens.get(position++);
+            if (token.equals("(")) {
+                Node inner = parseOr();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')'");
+                }
+                return inner;
+            }
+            if (token.equals(")") || token.equalsIgnoreCase("AND") || token.equalsIgnoreCase("OR")) {
+                throw new IllegalArgumentException("Unexpected '" + token + "'");
+            }
+            return predicate(token);
+        }
+    }
+}
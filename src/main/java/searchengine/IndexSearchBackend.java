@@ -0,0 +1,86 @@
+package searchengine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+// The indexes a LiveFileSearch keeps in this process: the resident catalogue answers
+// name and path searches, and so does the catalogue snapshot of a warm start until its
+// roots have been re-checked; the content index answers ranked ones. A root none of
+// them covers, or a resident catalogue past the engine's maximum age, is left to the
+// live walk; so are content searches and queries, which need the files themselves.
+public class IndexSearchBackend implements SearchBackend {
+    private static final double SCAN_MILLIS_PER_ENTRY = 0.0006; // over every core
+    private static final double SNAPSHOT_MILLIS_PER_ENTRY = 0.0015; // decoded and scanned on one core
+    private static final double FIXED_MILLIS = 1;
+    
+    private final LiveFileSearch engine;
+    
+    public IndexSearchBackend(LiveFileSearch engine) {
+        this.engine = engine;
+    }
+    
+    @Override
+    public String getName() {
+        return "index";
+    }
+    
+    @Override
+    public Kind getKind() {
+        return Kind.LOCAL_INDEX;
+    }
+    
+    @Override
+    public Cost estimate(SearchRequest request, Path root) {
+        switch (request.getKind()) {
+            case NAME:
+            case PATH:
+                // A file given as a root has no directory entry in either catalogue
+                if (request.getKind() == SearchRequest.Kind.PATH && !Files.isDirectory(root)) {
+                    return Cost.unavailable("root is a file");
+                }
+                ResidentCatalogue resident = engine.getResidentCatalogue();
+                String unavailable;
+                if (resident == null) {
+                    unavailable = "no resident catalogue";
+                } else if (!resident.covers(root)) {
+                    unavailable = "root not in resident catalogue";
+                } else if (!engine.isCurrent(resident)) {
+                    unavailable = String.format("resident catalogue stale (%ds old)",
+                        (System.currentTimeMillis() - resident.getBuiltMillis()) / 1000);
+                } else {
+                    // The whole catalogue is scanned, whatever part of it the root is
+                    return Cost.of(FIXED_MILLIS + resident.getFileCount() * SCAN_MILLIS_PER_ENTRY,
+                        String.format("%,d names in memory", resident.getFileCount()));
+                }
+                if (engine.isAnsweredFromSnapshot(root)) {
+                    long files = engine.getWalkEstimator().estimate(root);
+                    return Cost.of(FIXED_MILLIS + Math.max(0, files) * SNAPSHOT_MILLIS_PER_ENTRY,
+                        String.format("%,d names in snapshot", Math.max(0, files)));
+                }
+                return Cost.unavailable(unavailable);
+            case RANKED:
+                if (!engine.isContentIndexed(root)) {
+                    return Cost.unavailable("root not in content index");
+                }
+                return Cost.of(FIXED_MILLIS, "content index");
+            default:
+                return Cost.unavailable("needs file contents");
+        }
+    }
+    
+    @Override
+    public List<LiveFileSearch.SearchResult> search(SearchRequest request, List<String> rootPaths) {
+        // The engine answers the roots from its indexes, which the estimate found to cover them
+        switch (request.getKind()) {
+            case NAME:
+                return engine.searchByName(request.getTerm(), rootPaths, request.isRegex(), request.isFuzzy());
+            case PATH:
+                return engine.searchByPath(request.getTerm(), rootPaths, request.isRegex(), request.isFuzzy());
+            case RANKED:
+                return engine.searchByRelevance(request.getTerm(), rootPaths, request.getLimit());
+            default:
+                throw new IllegalArgumentException("Not answered from an index: " + request);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package searchengine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Limits how hard bulk searches hit the disk, so they can run next to a
+// latency-sensitive service. Three token buckets cap the files opened, the bytes
+// read and the directories listed per second (each 0 for no limit). A caller that
+// takes more than is left goes into debt and sleeps until it is paid off. Files read
+// through open are charged block by block as they are read, so a large file is paced
+// rather than started late.
+//
+// The limits adapt to how the disk is doing: reads report how long they took, and
+// every window the average time per 64KB is compared with the baseline, the lowest
+// recent average. Reads taking twice as long mean the disk is queueing behind other
+// work, so every limit is halved (down to a twentieth of its setting); otherwise they
+// recover by a twentieth of their setting per window. This is the additive-increase,
+// multiplicative-decrease scheme of TCP congestion control, with delay as the signal.
+// The baseline follows a device that stays slower over a few seconds. An absolute
+// target latency can be set as well.
+//
+// Bulk reads can also bypass the page cache where the file system allows it, so a
+// scan does not evict the pages a service keeps hot.
+public class IoThrottle {
+    public enum Resource { FILES, BYTES, DIRECTORIES }
+    
+    private static final double MIN_FACTOR = 0.05;
+    private static final double BACKOFF = 0.5;
+    private static final double RECOVERY = 0.05;
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int MIN_WINDOW_READS = 4;
+    private static final long BLOCK = 64 * 1024;
+    private static final double LATENCY_RATIO = 2.0;
+    // Below this per 64KB, reads come from the cache and say nothing about the disk
+    private static final long MIN_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final int BASELINE_FOLLOW = 64; // windows for the baseline to follow a slower device
+    
+    private final Map<Resource, Bucket> buckets = new EnumMap<>(Resource.class);
+    private volatile boolean bypassPageCache;
+    private volatile boolean adaptive = true;
+    private volatile long targetLatencyNanos; // 0 for none
+    
+    // The fraction of each limit currently allowed, and the reads of the current window
+    private final Object adaptLock = new Object();
+    private volatile double factor = 1.0;
+    private long windowStart = System.nanoTime();
+    private int windowReads;
+    private long windowBlocks;
+    private long windowNanos;
+    private long backoffs;
+    private long lastLatencyNanos;
+    private long baselineNanos = Long.MAX_VALUE;
+    
+    public IoThrottle() {
+        for (Resource resource : Resource.values()) {
+            buckets.put(resource, new Bucket());
+        }
+    }
+    
+    // Units per second: files, bytes or directories; 0 (the default) for no limit
+    public void setLimit(Resource resource, long perSecond) {
+        if (perSecond < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + perSecond);
+        }
+        buckets.get(resource).setLimit(perSecond);
+    }
+    
+    public long getLimit(Resource resource) {
+        return buckets.get(resource).limit;
+    }
+    
+    // Whether the limits back off when reads slow down (the default)
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        if (!adaptive) {
+            factor = 1.0;
+        }
+    }
+    
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+    
+    // Average read time per 64KB above which the limits back off regardless of the
+    // baseline; 0 (the default) for none
+    public void setTargetLatency(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Target latency must not be negative: " + millis);
+        }
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+    
+    public long getTargetLatency() {
+        return TimeUnit.NANOSECONDS.toMillis(targetLatencyNanos);
+    }
+    
+    // Read with O_DIRECT where supported (see DirectReadChannel)
+    public void setBypassPageCache(boolean bypass) {
+        this.bypassPageCache = bypass;
+    }
+    
+    public boolean isBypassPageCache() {
+        return bypassPageCache;
+    }
+    
+    // The fraction of the configured limits currently in force, between 0.05 and 1
+    public double getRateFactor() {
+        return factor;
+    }
+    
+    // How many times the limits were backed off since the throttle was created
+    public long getBackoffs() {
+        synchronized (adaptLock) {
+            return backoffs;
+        }
+    }
+    
+    // Average read time per 64KB in the last complete window, in microseconds
+    public long getObservedLatencyMicros() {
+        synchronized (adaptLock) {
+            return TimeUnit.NANOSECONDS.toMicros(lastLatencyNanos);
+        }
+    }
+    
+    public boolean isLimited() {
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.limit > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Takes amount units from the resource's budget, waiting if it is spent
+    public void acquire(Resource resource, long amount) throws InterruptedException {
+        long waitNanos = buckets.get(resource).take(amount, factor);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+    
+    // Opens file for a bulk read: charged one file now, and each block when it is read.
+    // Like a DirectReadChannel, the channel belongs to the calling thread.
+    public SeekableByteChannel open(Path file) throws IOException {
+        try {
+            acquire(Resource.FILES, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to open " + file);
+        }
+        return new ThrottledChannel(bypassPageCache
+            ? DirectReadChannel.open(file)
+            : FileChannel.open(file, StandardOpenOption.READ));
+    }
+    
+    // Reports a finished read of bytes that took nanos, not counting time spent waiting here
+    public void readCompleted(long bytes, long nanos) {
+        if (!adaptive || !isLimited()) {
+            return;
+        }
+        synchronized (adaptLock) {
+            windowReads++;
+            windowBlocks += Math.max(1, (bytes + BLOCK - 1) / BLOCK);
+            windowNanos += nanos;
+            long now = System.nanoTime();
+            if (now - windowStart < WINDOW_NANOS || windowReads < MIN_WINDOW_READS) {
+                return;
+            }
+            long latency = windowNanos / windowBlocks;
+            lastLatencyNanos = latency;
+            // Down at once, up slowly
+            baselineNanos = latency <= baselineNanos ? latency : baselineNanos + (latency - baselineNanos) / BASELINE_FOLLOW;
+            long target = targetLatencyNanos;
+            boolean slow = latency > MIN_LATENCY_NANOS && latency > baselineNanos * LATENCY_RATIO;
+            if (slow || (target > 0 && latency > target)) {
+                factor = Math.max(MIN_FACTOR, factor * BACKOFF);
+                backoffs++;
+            } else {
+                factor = Math.min(1.0, factor + RECOVERY);
+            }
+            windowStart = now;
+            windowReads = 0;
+            windowBlocks = 0;
+            windowNanos = 0;
+        }
+    }
+    
+    // Times each read for the adaptive limits, then takes its bytes from the budget
+    private final class ThrottledChannel implements SeekableByteChannel {
+        private final SeekableByteChannel channel;
+        
+        ThrottledChannel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+        
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            long start = System.nanoTime();
+            int read = channel.read(dst);
+            if (read > 0) {
+                readCompleted(read, System.nanoTime() - start);
+                try {
+                    acquire(Resource.BYTES, read);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting to read");
+                }
+            }
+            return read;
+        }
+        
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+        
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+        
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+        
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+        
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+        
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+    
+    private static final class Bucket {
+        private volatile long limit;
+        private double tokens;
+        private long updated = System.nanoTime();
+        
+        synchronized void setLimit(long perSecond) {
+            limit = perSecond;
+            tokens = perSecond;
+            updated = System.nanoTime();
+        }
+        
+        // Nanoseconds to wait before using what was taken
+        synchronized long take(long amount, double factor) {
+            if (limit <= 0 || amount <= 0) {
+                return 0;
+            }
+            double rate = limit * factor;
+            long now = System.nanoTime();
+            // Up to one second of unused budget carries over
+            tokens = Math.min(rate, tokens + (now - updated) * (rate / 1e9));
+            updated = now;
+            tokens -= amount;
+            return tokens < 0 ? (long) (-tokens / rate * 1e9) : 0;
+        }
+    }
+}
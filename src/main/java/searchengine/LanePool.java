@@ -0,0 +1,140 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// The walker threads of one device. Unlike a fixed thread pool with one FIFO queue,
+// it keeps a queue per query and per lane: queued interactive tasks always run
+// before bulk ones, queries in the same lane take turns task by task (so a walk
+// of a huge tree cannot push a later small walk to the back), and bulk tasks never
+// occupy the last thread, which stays free for interactive work. Threads are
+// started as tasks arrive, up to the pool size.
+final class LanePool {
+    private final int size;
+    private final int maxBulk;
+    private final String name;
+    private final Map<QueryScheduler.Lane, LinkedHashMap<Object, Deque<FutureTask<?>>>> queues =
+        new EnumMap<>(QueryScheduler.Lane.class);
+    private final List<Thread> threads = new ArrayList<>();
+    private int idle;
+    private int runningBulk;
+    private boolean shutdown;
+    
+    LanePool(int size, String name) {
+        this.size = size;
+        this.maxBulk = size > 1 ? size - 1 : 1;
+        this.name = name;
+        for (QueryScheduler.Lane lane : QueryScheduler.Lane.values()) {
+            queues.put(lane, new LinkedHashMap<>());
+        }
+    }
+    
+    // owner identifies the query the task belongs to
+    <T> Future<T> submit(QueryScheduler.Lane lane, Object owner, Callable<T> task) {
+        return submit(lane, owner, task, false);
+    }
+    
+    // An urgent task runs before the tasks its query has queued so far
+    synchronized <T> Future<T> submit(QueryScheduler.Lane lane, Object owner, Callable<T> task, boolean urgent) {
+        FutureTask<T> future = new FutureTask<>(task);
+        if (shutdown) {
+            future.cancel(false);
+            return future;
+        }
+        Deque<FutureTask<?>> tasks = queues.get(lane).computeIfAbsent(owner, key -> new ArrayDeque<>());
+        if (urgent) {
+            tasks.addFirst(future);
+        } else {
+            tasks.addLast(future);
+        }
+        if (idle == 0 && threads.size() < size) {
+            Thread thread = new Thread(this::work, name);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        } else {
+            notifyAll();
+        }
+        return future;
+    }
+    
+    // Cancels queued tasks and interrupts running ones
+    synchronized void shutdownNow() {
+        shutdown = true;
+        for (LinkedHashMap<Object, Deque<FutureTask<?>>> lane : queues.values()) {
+            for (Deque<FutureTask<?>> tasks : lane.values()) {
+                for (FutureTask<?> task : tasks) {
+                    task.cancel(false);
+                }
+            }
+            lane.clear();
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        notifyAll();
+    }
+    
+    private void work() {
+        while (true) {
+            FutureTask<?> task;
+            boolean bulk;
+            synchronized (this) {
+                while (true) {
+                    if (shutdown) {
+                        return;
+                    }
+                    task = next(QueryScheduler.Lane.INTERACTIVE);
+                    bulk = false;
+                    if (task == null && runningBulk < maxBulk) {
+                        task = next(QueryScheduler.Lane.BULK);
+                        bulk = task != null;
+                    }
+                    if (task != null) {
+                        break;
+                    }
+                    idle++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only shutdownNow interrupts an idle thread
+                    } finally {
+                        idle--;
+                    }
+                }
+                if (bulk) {
+                    runningBulk++;
+                }
+            }
+            try {
+                task.run();
+            } finally {
+                // A cancelled search interrupts its tasks; that must not carry over to the next one
+                Thread.interrupted();
+                if (bulk) {
+                    synchronized (this) {
+                        runningBulk--;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+    
+    // The oldest task of the query whose turn it is; that query then goes to the back
+    private FutureTask<?> next(QueryScheduler.Lane lane) {
+        Iterator<Map.Entry<Object, Deque<FutureTask<?>>>> owners = queues.get(lane).entrySet().iterator();
+        if (!owners.hasNext()) {
+            return null;
+        }
+        Map.Entry<Object, Deque<FutureTask<?>>> first = owners.next();
+        FutureTask<?> task = first.getValue().pollFirst();
+        owners.remove();
+        if (!first.getValue().isEmpty()) {
+            queues.get(lane).put(first.getKey(), first.getValue());
+        }
+        return task;
+    }
+}
@@ -5,319 +5,2073 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
+// Safe to share between threads: any number of queries may run at once. Every list
+// it returns is an immutable snapshot that is never touched again by the engine, so
+// it can be handed to another thread (e.g. the Swing EDT) as is. The setters take
+// effect for queries that start afterwards.
 public class LiveFileSearch {
     private static final int MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
+    private static final long DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024; // 16MB
+    private static final String CATALOGUE_SNAPSHOT = "catalogue.snapshot";
+    private static final String CONTENT_INDEX = "content.index";
+    private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+    private static final String EXTRACTED_TEXT_DIRECTORY = "extracted-text";
+    private static final String SUBTREE_STATS = "subtree.stats";
+    private static final String WALK_SIZES = "walk.sizes";
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 30_000; // ms
+    private static final long DEFAULT_RESIDENT_REFRESH_INTERVAL = 300_000; // ms
+    private static final int MAX_RANKING_ROUNDS = 3;
+    private static final int DEFAULT_DEVICE_PARALLELISM = 4;
+    private static final int READ_QUEUE_CAPACITY = 1024;
+    private static final long SMALL_FILE_SIZE = 64 * 1024; // 64KB, read before anything else
+    private static final int MAX_CONCURRENT_LARGE_READS = 1; // each is already read in parallel chunks
+    private static final String SLOW_QUERY_LOG = "slow-queries.log";
+    private static final long DEFAULT_SLOW_QUERY_THRESHOLD = 2000; // ms
+    private static final int DEFAULT_BULK_QUERIES = 2; // each already reads on every core
+    // File systems whose directory link count is two plus the number of subdirectories
+    private static final Set<String> SUBDIRECTORY_COUNTING_FILE_SYSTEMS = new HashSet<>(Arrays.asList(
+        "ext2", "ext3", "ext4", "xfs", "tmpfs", "jfs", "reiserfs", "f2fs", "ufs"
+    ));
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private static final String ENTRY_ATTRIBUTES = "unix:nlink,dev,isDirectory,isRegularFile,size,lastModifiedTime";
     private static final Set<String> SKIP_DIRECTORIES = new HashSet<>(Arrays.asList(
         ".git", ".svn", ".hg", "node_modules", "target", "build", "bin", "obj",
         "Library", "System", "Applications", "private", "var", "tmp", "usr"
     ));
     
-    private final ExecutorService executorService;
+    private final ExecutorService executorService;
+    private final ExecutorService residentExecutor;
+    private final ExecutorService backgroundExecutor;
+    private final ExecutorService readerService;
+    private final int readerThreads;
+    private final Semaphore readPermits;
+    private final ChunkedFileSearcher chunkedSearcher;
+    private final QueryScheduler queryScheduler;
+    private final FileCatalogue catalogue = new FileCatalogue();
+    private final Path snapshotFile;
+    private final Path contentIndexFile;
+    private final Path checkpointDirectory;
+    private final Set<SearchCheckpoint> runningCheckpoints = ConcurrentHashMap.newKeySet();
+    private ContentIndex contentIndex; // loaded on first use
+    private final ExtractedTextCache extractedText;
+    private final Map<String, TextExtractor> extractors = new ConcurrentHashMap<>(); // by extension
+    private final SubtreeStats subtreeStats = new SubtreeStats();
+    private final Path subtreeStatsFile;
+    private final WalkEstimator walkEstimator = new WalkEstimator();
+    private final Path walkSizesFile;
+    private final ProgressReporter progress = new ProgressReporter(walkEstimator);
+    private volatile ResidentCatalogue residentCatalogue; // null unless loaded
+    private final AtomicBoolean residentRefreshing = new AtomicBoolean();
+    private volatile long residentRefreshInterval = DEFAULT_RESIDENT_REFRESH_INTERVAL;
+    private volatile long residentMaxAge; // 0 for no limit
+    private final Path slowQueryLog;
+    private final Map<String, LanePool> devicePools = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> countsSubdirectories = new ConcurrentHashMap<>();
+    private volatile int deviceParallelism = DEFAULT_DEVICE_PARALLELISM;
+    private volatile long largeFileThreshold = MAX_FILE_SIZE;
+    private volatile long chunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile long slowQueryThreshold = DEFAULT_SLOW_QUERY_THRESHOLD;
+    private volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private volatile boolean lazyNameWalk;
+    private volatile boolean adaptiveWalkOrder = true;
+    
+    public LiveFileSearch() {
+        this(Paths.get(System.getProperty("user.home"), ".simple-live-search"));
+    }
+    
+    // The catalogue snapshot, the content index, the text extracted from documents, where
+    // past searches found results, how many files each root holds, search checkpoints
+    // and the slow-query log are kept in dataDirectory; pass null to always start cold
+    // and log slow queries to stderr
+    public LiveFileSearch(Path dataDirectory) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.executorService = Executors.newFixedThreadPool(threads);
+        // Resident catalogue scans are in-memory lookups and must not queue behind the
+        // chunk reads and hashing of bulk searches on executorService
+        this.residentExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "resident-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backgroundExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "catalogue-verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Readers have their own threads: large files hand chunks to executorService and wait
+        // for them. Every content search gets its own readers, since its walkers block until
+        // they make room; sharing a fixed set between concurrent searches could deadlock.
+        // How many files are read at once across all searches is capped by readPermits.
+        this.readerThreads = threads;
+        this.readPermits = new Semaphore(threads);
+        this.readerService = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "content-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.chunkedSearcher = new ChunkedFileSearcher(executorService, threads);
+        this.queryScheduler = new QueryScheduler(threads * 2, DEFAULT_BULK_QUERIES);
+        this.snapshotFile = dataDirectory != null ? dataDirectory.resolve(CATALOGUE_SNAPSHOT) : null;
+        this.contentIndexFile = dataDirectory != null ? dataDirectory.resolve(CONTENT_INDEX) : null;
+        this.checkpointDirectory = dataDirectory != null ? dataDirectory.resolve(CHECKPOINT_DIRECTORY) : null;
+        this.slowQueryLog = dataDirectory != null ? dataDirectory.resolve(SLOW_QUERY_LOG) : null;
+        this.subtreeStatsFile = dataDirectory != null ? dataDirectory.resolve(SUBTREE_STATS) : null;
+        this.walkSizesFile = dataDirectory != null ? dataDirectory.resolve(WALK_SIZES) : null;
+        this.extractedText = new ExtractedTextCache(
+            dataDirectory != null ? dataDirectory.resolve(EXTRACTED_TEXT_DIRECTORY) : null);
+        registerExtractor(new ZipXmlExtractor());
+        try {
+            for (TextExtractor extractor : ServiceLoader.load(TextExtractor.class)) {
+                registerExtractor(extractor);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.println("Could not load text extractors: " + e.getMessage());
+        }
+        if (subtreeStatsFile != null) {
+            subtreeStats.load(subtreeStatsFile);
+        }
+        if (walkSizesFile != null) {
+            walkEstimator.load(walkSizesFile);
+        }
+        
+        // Answer the first name queries from the last snapshot while it is checked against the disk
+        if (snapshotFile != null && catalogue.load(snapshotFile)) {
+            backgroundExecutor.submit(() -> catalogue.verify(LiveFileSearch::isSkippedDirectory));
+        }
+    }
+    
+    // Files larger than this are searched in memory-mapped chunks instead of line by line
+    public void setLargeFileThreshold(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Large file threshold must be positive: " + bytes);
+        }
+        this.largeFileThreshold = bytes;
+    }
+    
+    public long getLargeFileThreshold() {
+        return largeFileThreshold;
+    }
+    
+    public void setChunkSize(long bytes) {
+        if (bytes <= 0 || bytes > ContentMatcher.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + ContentMatcher.MAX_CHUNK_SIZE + ": " + bytes);
+        }
+        this.chunkSize = bytes;
+    }
+    
+    public long getChunkSize() {
+        return chunkSize;
+    }
+    
+    // Number of walker threads per storage device; applies to devices first used after the call
+    public void setDeviceParallelism(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Device parallelism must be positive: " + workers);
+        }
+        this.deviceParallelism = workers;
+    }
+    
+    public int getDeviceParallelism() {
+        return deviceParallelism;
+    }
+    
+    // Name searches read attributes only for matches and possible directories (see
+    // walkNames). Their walks then no longer feed the catalogue or its snapshot, so
+    // this is off by default.
+    public void setLazyNameWalk(boolean lazy) {
+        this.lazyNameWalk = lazy;
+    }
+    
+    public boolean isLazyNameWalk() {
+        return lazyNameWalk;
+    }
+    
+    // Walks visit the subdirectories where past searches found results first, then the
+    // recently modified ones (see SubtreeStats), and content searches read files in
+    // those subtrees before others of their size. Off, walks go in file system order.
+    public void setAdaptiveWalkOrder(boolean adaptive) {
+        this.adaptiveWalkOrder = adaptive;
+    }
+    
+    public boolean isAdaptiveWalkOrder() {
+        return adaptiveWalkOrder;
+    }
+    
+    // Where past searches found results; its half-life can be configured on it
+    public SubtreeStats getSubtreeStats() {
+        return subtreeStats;
+    }
+    
+    // Reports the progress of every running search to listener every intervalMillis,
+    // and once more when it finishes (see SearchProgress); null stops reporting. The
+    // listener is called on a thread of its own and should return quickly.
+    public void setProgressListener(java.util.function.Consumer<SearchProgress> listener, long intervalMillis) {
+        if (listener != null && intervalMillis <= 0) {
+            throw new IllegalArgumentException("Progress interval must be positive: " + intervalMillis);
+        }
+        progress.setListener(listener, intervalMillis);
+    }
+    
+    // How many files walks of each root saw, which progress reports are estimated from
+    public WalkEstimator getWalkEstimator() {
+        return walkEstimator;
+    }
+    
+    // Searches that take at least this long have their profile written to the slow-query log
+    public void setSlowQueryThreshold(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative: " + millis);
+        }
+        this.slowQueryThreshold = millis;
+    }
+    
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+    
+    // Content searches that run longer than this save a checkpoint this often, and
+    // when cancelled, so that running them again resumes instead of starting over;
+    // 0 turns checkpoints off. Without a data directory there are none.
+    public void setCheckpointInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative: " + millis);
+        }
+        this.checkpointInterval = millis;
+    }
+    
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+    
+    // Content searches and the content index look inside files with the extractor's
+    // extensions through the text it extracts. It replaces an extractor registered
+    // for the same extension before, and takes precedence over reading the file as text.
+    public void registerExtractor(TextExtractor extractor) {
+        for (String extension : extractor.getExtensions()) {
+            extractors.put(extension.toLowerCase(), extractor);
+        }
+    }
+    
+    // Where extracted text is kept; its size limit can be configured on it
+    public ExtractedTextCache getExtractedTextCache() {
+        return extractedText;
+    }
+    
+    // Decides which searches run when several callers share this engine; its lanes,
+    // waits and read budget can be configured on it
+    public QueryScheduler getQueryScheduler() {
+        return queryScheduler;
+    }
+    
+    // Walks the directories once and keeps every file under them in memory (see
+    // ResidentCatalogue). Name, fuzzy and regex name searches under them are then
+    // answered by scanning memory on every core, without touching the disk. Replaces
+    // any catalogue loaded before; the walk is a bulk query.
+    public SearchProfile loadResidentCatalogue(List<String> rootPaths) {
+        SearchProfile profile = new SearchProfile("resident catalogue", rootPaths);
+        List<Path> roots = new ArrayList<>();
+        for (Path root : resolveRoots(rootPaths)) {
+            if (Files.isDirectory(root)) {
+                roots.add(root);
+            }
+        }
+        ResidentCatalogue built = buildResidentCatalogue(roots, profile);
+        if (built != null) {
+            residentCatalogue = built;
+        }
+        return finish(profile, Collections.emptyList());
+    }
+    
+    public void dropResidentCatalogue() {
+        residentCatalogue = null;
+    }
+    
+    // The catalogue name searches are answered from, or null
+    public ResidentCatalogue getResidentCatalogue() {
+        return residentCatalogue;
+    }
+    
+    // A name search answered from a resident catalogue older than this rebuilds it in
+    // the background, keeping the old one in use until the new one is complete; 0
+    // leaves it as it is until loadResidentCatalogue is called again
+    public void setResidentRefreshInterval(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Refresh interval must not be negative: " + millis);
+        }
+        this.residentRefreshInterval = millis;
+    }
+    
+    public long getResidentRefreshInterval() {
+        return residentRefreshInterval;
+    }
+    
+    // A resident catalogue older than this is not trusted to answer: its roots are
+    // walked instead while it is rebuilt in the background; 0 trusts it at any age
+    public void setResidentMaxAge(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Maximum age must not be negative: " + millis);
+        }
+        this.residentMaxAge = millis;
+    }
+    
+    public long getResidentMaxAge() {
+        return residentMaxAge;
+    }
+    
+    // Whether the resident catalogue is within its maximum age
+    public boolean isCurrent(ResidentCatalogue resident) {
+        long maxAge = residentMaxAge;
+        return maxAge == 0 || System.currentTimeMillis() - resident.getBuiltMillis() <= maxAge;
+    }
+    
+    // The resident catalogue if it may answer searches, or null
+    private ResidentCatalogue currentResidentCatalogue() {
+        ResidentCatalogue resident = residentCatalogue;
+        if (resident != null && !isCurrent(resident)) {
+            refreshIfStale(resident);
+            return null;
+        }
+        return resident;
+    }
+    
+    // Null if the walk was cancelled
+    private ResidentCatalogue buildResidentCatalogue(List<Path> roots, SearchProfile profile) {
+        if (!admit(QueryScheduler.Lane.BULK, profile)) {
+            return null;
+        }
+        try {
+            profile.setRoots(roots);
+            ResidentCatalogue.Builder builder = new ResidentCatalogue.Builder(roots);
+            walkRoots(roots, null, builder::addFile, null, profile);
+            profile.mark("walk");
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            ResidentCatalogue built = builder.build();
+            profile.mark("pack");
+            return built;
+        } finally {
+            release(QueryScheduler.Lane.BULK, profile);
+        }
+    }
+    
+    private void refreshIfStale(ResidentCatalogue resident) {
+        long interval = residentRefreshInterval;
+        if (interval == 0 || System.currentTimeMillis() - resident.getBuiltMillis() < interval
+            || !residentRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        List<String> rootPaths = new ArrayList<>();
+        for (Path root : resident.getRoots()) {
+            rootPaths.add(root.toString());
+        }
+        backgroundExecutor.submit(() -> {
+            try {
+                SearchProfile profile = new SearchProfile("resident catalogue refresh", rootPaths);
+                profile.runInBackground();
+                ResidentCatalogue rebuilt = buildResidentCatalogue(resident.getRoots(), profile);
+                finish(profile, Collections.emptyList());
+                synchronized (this) {
+                    // Unless it was dropped or replaced in the meantime
+                    if (rebuilt != null && residentCatalogue == resident) {
+                        residentCatalogue = rebuilt;
+                    }
+                }
+            } finally {
+                residentRefreshing.set(false);
+            }
+        });
+    }
+    
+    public List<SearchResult> searchByName(String searchTerm, String rootPath, boolean useRegex) {
+        return searchByName(searchTerm, rootPath, useRegex, false);
+    }
+    
+    public List<SearchResult> searchByName(String searchTerm, String rootPath, boolean useRegex, boolean useFuzzy) {
+        return searchByName(searchTerm, Collections.singletonList(rootPath), useRegex, useFuzzy);
+    }
+    
+    // Searches several roots at once; see walkRoots for how the work is spread across devices
+    public List<SearchResult> searchByName(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByName(searchTerm, rootPaths, useRegex, useFuzzy).getResults();
+    }
+    
+    // Runs a name search and returns its profile, which carries the results
+    public SearchProfile explainByName(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByName(searchTerm, rootPaths, useRegex, useFuzzy, false);
+    }
+    
+    // searchByName that walks every root, even one the resident catalogue or the
+    // snapshot could answer, e.g. for a caller that knows they are out of date
+    public List<SearchResult> walkByName(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByName(searchTerm, rootPaths, useRegex, useFuzzy, true).getResults();
+    }
+    
+    private SearchProfile explainByName(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy,
+                                        boolean walkOnly) {
+        String kind = useFuzzy ? "fuzzy name" : useRegex ? "regex name" : "name";
+        SearchProfile profile = new SearchProfile(kind + " \"" + searchTerm + "\"", rootPaths);
+        if (walkOnly) {
+            profile.walkOnly();
+        }
+        if (!admit(QueryScheduler.Lane.INTERACTIVE, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            List<SearchResult> results = useFuzzy
+                ? searchByNameFuzzy(searchTerm, rootPaths, profile)
+                : searchByName(searchTerm, rootPaths, useRegex, profile);
+            return finish(profile, results);
+        } finally {
+            release(QueryScheduler.Lane.INTERACTIVE, profile);
+        }
+    }
+    
+    private List<SearchResult> searchByName(String searchTerm, List<String> rootPaths, boolean useRegex, SearchProfile profile) {
+        final List<SearchResult> results = new ArrayList<>();
+        final List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        if (roots.isEmpty()) {
+            return Collections.unmodifiableList(results);
+        }
+        final NameMatcher nameMatcher;
+        if (useRegex) {
+            try {
+                nameMatcher = NameMatcher.regex(java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE));
+            } catch (java.util.regex.PatternSyntaxException e) {
+                System.err.println("Invalid regex pattern: " + e.getMessage());
+                return Collections.unmodifiableList(results);
+            }
+        } else {
+            nameMatcher = NameMatcher.literal(searchTerm);
+        }
+        collectByName(roots, nameMatcher, results, profile);
+        
+        sortByNameRelevance(results, searchTerm);
+        profile.mark("sort");
+        
+        return Collections.unmodifiableList(results);
+    }
+    
+    // Overload for backward compatibility
+    public List<SearchResult> searchByName(String searchTerm, String rootPath) {
+        return searchByName(searchTerm, rootPath, false);
+    }
+    
+    // New method for fuzzy search - splits terms and finds files containing all terms
+    public List<SearchResult> searchByNameFuzzy(String searchTerm, String rootPath) {
+        return searchByNameFuzzy(searchTerm, Collections.singletonList(rootPath));
+    }
+    
+    public List<SearchResult> searchByNameFuzzy(String searchTerm, List<String> rootPaths) {
+        return explainByName(searchTerm, rootPaths, false, true).getResults();
+    }
+    
+    private List<SearchResult> searchByNameFuzzy(String searchTerm, List<String> rootPaths, SearchProfile profile) {
+        List<String> searchTerms = splitFuzzyTerms(searchTerm);
+        
+        if (searchTerms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        List<SearchResult> results = new ArrayList<>();
+        List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        
+        if (roots.isEmpty()) {
+            return Collections.unmodifiableList(results);
+        }
+        
+        // ALL search terms must be present in the filename
+        collectByName(roots, NameMatcher.allOf(searchTerms), results, profile);
+        
+        sortByFuzzyRelevance(results, searchTerms);
+        profile.mark("sort");
+        
+        return Collections.unmodifiableList(results);
+    }
+    
+    // Searches the paths of the files relative to each root, e.g. "service-a/config",
+    // or with useFuzzy "prod/ .log" for the logs anywhere under a prod directory.
+    // See RelativePathMatcher for how the paths are written.
+    public List<SearchResult> searchByPath(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByPath(searchTerm, rootPaths, useRegex, useFuzzy).getResults();
+    }
+    
+    public SearchProfile explainByPath(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByPath(searchTerm, rootPaths, useRegex, useFuzzy, false);
+    }
+    
+    // searchByPath that walks every root; see walkByName
+    public List<SearchResult> walkByPath(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        return explainByPath(searchTerm, rootPaths, useRegex, useFuzzy, true).getResults();
+    }
+    
+    private SearchProfile explainByPath(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy,
+                                        boolean walkOnly) {
+        String kind = useFuzzy ? "fuzzy path" : useRegex ? "regex path" : "path";
+        SearchProfile profile = new SearchProfile(kind + " \"" + searchTerm + "\"", rootPaths);
+        if (walkOnly) {
+            profile.walkOnly();
+        }
+        if (!admit(QueryScheduler.Lane.INTERACTIVE, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            return finish(profile, searchByPath(searchTerm, rootPaths, useRegex, useFuzzy, profile));
+        } finally {
+            release(QueryScheduler.Lane.INTERACTIVE, profile);
+        }
+    }
+    
+    // Whether a name search term is meant for searchByPath: no name contains a separator
+    public static boolean isPathTerm(String searchTerm, boolean useRegex) {
+        return !useRegex && (searchTerm.indexOf('/') >= 0 || searchTerm.indexOf(File.separatorChar) >= 0);
+    }
+    
+    private List<SearchResult> searchByPath(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy,
+                                            SearchProfile profile) {
+        List<SearchResult> results = new ArrayList<>();
+        List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        if (roots.isEmpty()) {
+            return Collections.unmodifiableList(results);
+        }
+        List<String> searchTerms = useFuzzy ? splitFuzzyTerms(searchTerm) : null;
+        if (useFuzzy && searchTerms.isEmpty()) {
+            return Collections.unmodifiableList(results);
+        }
+        RelativePathMatcher pathMatcher;
+        try {
+            if (useFuzzy) {
+                pathMatcher = RelativePathMatcher.allOf(searchTerms);
+            } else if (useRegex) {
+                pathMatcher = RelativePathMatcher.regex(java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE));
+            } else {
+                pathMatcher = RelativePathMatcher.literal(searchTerm);
+            }
+        } catch (java.util.regex.PatternSyntaxException e) {
+            System.err.println("Invalid regex pattern: " + e.getMessage());
+            return Collections.unmodifiableList(results);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid path search: " + e.getMessage());
+            return Collections.unmodifiableList(results);
+        }
+        collectByPath(roots, pathMatcher, results, profile);
+        
+        results.sort(Comparator.comparing(SearchResult::getFilePath));
+        profile.mark("sort");
+        
+        return Collections.unmodifiableList(results);
+    }
+    
+    public List<SearchResult> searchByContent(String searchTerm, String rootPath, boolean useRegex) {
+        return searchByContent(searchTerm, rootPath, useRegex, false);
+    }
+    
+    public List<SearchResult> searchByContent(String searchTerm, String rootPath, boolean useRegex, boolean useFuzzy) {
+        // For content search, fuzzy search doesn't make sense, so we ignore the useFuzzy parameter
+        return searchByContent(searchTerm, Collections.singletonList(rootPath), useRegex);
+    }
+    
+    public List<SearchResult> searchByContent(String searchTerm, List<String> rootPaths, boolean useRegex) {
+        return searchByContent(searchTerm, rootPaths, useRegex, null);
+    }
+    
+    // Files found by the walk are read through a ReadScheduler rather than in walk
+    // order: small files first, then by directory and inode, with few large files at
+    // once. onMatch, if given, sees each match as soon as it is found (on a reader thread).
+    public List<SearchResult> searchByContent(String searchTerm, List<String> rootPaths, boolean useRegex,
+                                              java.util.function.Consumer<SearchResult> onMatch) {
+        return explainByContent(searchTerm, rootPaths, useRegex, onMatch).getResults();
+    }
+    
+    public SearchProfile explainByContent(String searchTerm, List<String> rootPaths, boolean useRegex) {
+        return explainByContent(searchTerm, rootPaths, useRegex, null);
+    }
+    
+    private SearchProfile explainByContent(String searchTerm, List<String> rootPaths, boolean useRegex,
+                                           java.util.function.Consumer<SearchResult> onMatch) {
+        SearchProfile profile = new SearchProfile((useRegex ? "regex content" : "content") + " \"" + searchTerm + "\"", rootPaths);
+        if (!admit(QueryScheduler.Lane.BULK, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            return finish(profile, searchByContent(searchTerm, rootPaths, useRegex, onMatch, profile));
+        } finally {
+            release(QueryScheduler.Lane.BULK, profile);
+        }
+    }
+    
+    private List<SearchResult> searchByContent(String searchTerm, List<String> rootPaths, boolean useRegex,
+                                               java.util.function.Consumer<SearchResult> onMatch, SearchProfile profile) {
+        final List<SearchResult> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        if (roots.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final ContentMatcher matcher;
+        if (useRegex) {
+            try {
+                matcher = ContentMatcher.regex(java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE));
+            } catch (java.util.regex.PatternSyntaxException e) {
+                System.err.println("Invalid regex pattern: " + e.getMessage());
+                return Collections.emptyList();
+            }
+        } else {
+            matcher = ContentMatcher.literal(searchTerm);
+        }
+        
+        final SearchCheckpoint checkpoint = checkpointDirectory != null && checkpointInterval > 0
+            ? SearchCheckpoint.open(checkpointDirectory, profile.getDescription() + "\n" + roots, checkpointInterval)
+            : null;
+        if (checkpoint != null) {
+            runningCheckpoints.add(checkpoint);
+        }
+        profile.mark("checkpoint");
+        walkAndRead(roots, null,
+            (file, attrs) -> {
+                // Skip binary files
+                if (!hasText(file.getFileName().toString().toLowerCase())) {
+                    return false;
+                }
+                if (checkpoint != null && checkpoint.isDone(file, attrs)) {
+                    boolean matched = checkpoint.matchedBefore(file);
+                    profile.fileResumed(matched);
+                    if (matched) {
+                        contentMatch(file, attrs, results, onMatch);
+                    }
+                    return false;
+                }
+                return true;
+            },
+            (file, attrs) -> {
+                if (matchesContent(matcher, file, attrs.size(), profile)) {
+                    if (checkpoint != null) {
+                        checkpoint.matched(file);
+                    }
+                    contentMatch(file, attrs, results, onMatch);
+                }
+            }, checkpoint, profile);
+        profile.mark("walk and read");
+        
+        // Sort by file size (smaller files first)
+        List<SearchResult> sorted = dedupe(results);
+        sorted.sort(Comparator.comparingLong(SearchResult::getSize));
+        profile.mark("sort");
+        
+        return Collections.unmodifiableList(sorted);
+    }
+    
+    private static void contentMatch(Path file, BasicFileAttributes attrs, List<SearchResult> results,
+                                     java.util.function.Consumer<SearchResult> onMatch) {
+        SearchResult result = new SearchResult(
+            file.toString(),
+            file.getFileName().toString(), // Keep original case
+            attrs.size(),
+            attrs.lastModifiedTime().toMillis(),
+            SearchType.CONTENT
+        );
+        results.add(result);
+        if (onMatch != null) {
+            onMatch.accept(result);
+        }
+    }
+    
+    // Overload for backward compatibility
+    public List<SearchResult> searchByContent(String searchTerm, String rootPath) {
+        return searchByContent(searchTerm, rootPath, false);
+    }
+    
+    // The limit text files under the roots most relevant to the words, best first, from
+    // the content index (BM25 over word counts). Roots the index does not cover yet are
+    // indexed first, as a bulk query; after that a ranked search only reads the index,
+    // re-checking its top results against the disk. Files created under an indexed root
+    // since are found once updateContentIndex has run again.
+    public List<SearchResult> searchByRelevance(String words, List<String> rootPaths, int limit) {
+        return explainByRelevance(words, rootPaths, limit).getResults();
+    }
+    
+    public SearchProfile explainByRelevance(String words, List<String> rootPaths, int limit) {
+        SearchProfile profile = new SearchProfile("ranked \"" + words + "\"", rootPaths);
+        // Picked without touching the disk: only an index already loaded and covering
+        // every root keeps the search interactive. Coverage only grows, so it still
+        // holds once admitted; loading the index is bulk work like indexing.
+        boolean indexed = true;
+        for (String rootPath : rootPaths) {
+            indexed &= isContentIndexed(Paths.get(rootPath));
+        }
+        QueryScheduler.Lane lane = indexed ? QueryScheduler.Lane.INTERACTIVE : QueryScheduler.Lane.BULK;
+        if (!admit(lane, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            final List<Path> roots = resolveRoots(rootPaths);
+            profile.setRoots(roots);
+            profile.mark("resolve roots");
+            ContentIndex index = contentIndex();
+            profile.mark("load index");
+            List<Path> unindexed = new ArrayList<>();
+            for (Path root : roots) {
+                if (!index.covers(root)) {
+                    unindexed.add(root);
+                }
+            }
+            if (!unindexed.isEmpty()) {
+                indexRoots(index, unindexed, profile);
+                if (Thread.currentThread().isInterrupted()) {
+                    return finish(profile, Collections.emptyList());
+                }
+            }
+            return finish(profile, rank(index, ContentIndex.tokenize(words), roots, limit, profile));
+        } finally {
+            release(lane, profile);
+        }
+    }
+    
+    // Reads the text files under the roots that are new or changed since they were
+    // indexed, and drops indexed files that are gone
+    public SearchProfile updateContentIndex(List<String> rootPaths) {
+        SearchProfile profile = new SearchProfile("index", rootPaths);
+        if (!admit(QueryScheduler.Lane.BULK, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            final List<Path> roots = resolveRoots(rootPaths);
+            profile.setRoots(roots);
+            profile.mark("resolve roots");
+            indexRoots(contentIndex(), roots, profile);
+            return finish(profile, Collections.emptyList());
+        } finally {
+            release(QueryScheduler.Lane.BULK, profile);
+        }
+    }
+    
+    // Whether name and path searches under root are answered from the catalogue snapshot,
+    // which they are until the background check has re-read the root's directories
+    public boolean isAnsweredFromSnapshot(Path root) {
+        return catalogue.answersFromSnapshot(root);
+    }
+    
+    // Whether ranked searches under root are answered from the content index without
+    // indexing first. False while the index has not been loaded, which only happens
+    // inside an admitted search.
+    public boolean isContentIndexed(Path root) {
+        ContentIndex index;
+        synchronized (this) {
+            index = contentIndex;
+        }
+        return index != null && index.covers(root.toAbsolutePath().normalize());
+    }
+    
+    private synchronized ContentIndex contentIndex() {
+        if (contentIndex == null) {
+            contentIndex = new ContentIndex();
+            if (contentIndexFile != null) {
+                contentIndex.load(contentIndexFile);
+            }
+        }
+        return contentIndex;
+    }
+    
+    private void indexRoots(ContentIndex index, List<Path> roots, SearchProfile profile) {
+        // Files the walk found; an indexed file under a root that is not among them is gone
+        final Set<String> seen = ConcurrentHashMap.newKeySet();
+        walkAndRead(roots, null,
+            (file, attrs) -> {
+                if (!hasText(file.getFileName().toString().toLowerCase())
+                    || attrs.size() > ContentIndex.MAX_INDEXED_FILE_SIZE) {
+                    return false;
+                }
+                String path = file.toString();
+                seen.add(path);
+                return !index.isCurrent(path, attrs.lastModifiedTime().toMillis(), attrs.size());
+            },
+            (file, attrs) -> {
+                // An extractor reads its document on its own, so documents are charged and timed whole
+                boolean document = extractorFor(file.getFileName().toString().toLowerCase()) != null;
+                if (!document || charge(attrs.size(), profile)) {
+                    long start = System.nanoTime();
+                    try {
+                        index.put(readTerms(file, attrs.lastModifiedTime().toMillis(), attrs.size(), profile,
+                            readThrottle(profile)));
+                    } finally {
+                        if (document) {
+                            readCompleted(attrs.size(), System.nanoTime() - start, profile);
+                        }
+                    }
+                }
+            }, null, profile);
+        profile.mark("index");
+        // A cancelled walk saw only part of each root
+        if (!Thread.currentThread().isInterrupted()) {
+            for (Path root : roots) {
+                index.retainUnder(root, seen);
+            }
+        }
+    }
+    
+    // Top hits whose files are unchanged since they were indexed. Changed files are
+    // re-indexed and deleted ones dropped, and then the ranking is repeated, since
+    // their new scores may move them in or out of the top.
+    private List<SearchResult> rank(ContentIndex index, List<String> words, List<Path> roots, int limit,
+                                    SearchProfile profile) {
+        List<SearchResult> results = new ArrayList<>();
+        for (int round = 0; round < MAX_RANKING_ROUNDS; round++) {
+            List<ContentIndex.Hit> hits = index.top(words, roots, limit, profile);
+            profile.mark("rank");
+            results.clear();
+            boolean stale = false;
+            for (ContentIndex.Hit hit : hits) {
+                Path file = Paths.get(hit.getPath());
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    profile.attributesRead();
+                    long lastModified = attrs.lastModifiedTime().toMillis();
+                    if (lastModified == hit.getLastModified() && attrs.size() == hit.getSize()) {
+                        results.add(new SearchResult(hit.getPath(), file.getFileName().toString(),
+                            attrs.size(), lastModified, SearchType.CONTENT));
+                    } else if (attrs.isRegularFile() && attrs.size() <= ContentIndex.MAX_INDEXED_FILE_SIZE) {
+                        index.put(readTerms(file, lastModified, attrs.size(), profile, null));
+                        stale = true;
+                    } else {
+                        index.remove(hit.getPath());
+                        stale = true;
+                    }
+                } catch (IOException e) {
+                    index.remove(hit.getPath());
+                    stale = true;
+                }
+            }
+            profile.mark("verify");
+            if (!stale) {
+                break;
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+    
+    // Evaluates a FileQuery. Walkers apply the attribute, name and path predicates and
+    // skip subtrees the path predicates rule out; only files still undecided after
+    // that are read, through the same read pipeline as a content search.
+    public List<SearchResult> searchByQuery(FileQuery query, List<String> rootPaths) {
+        return explainByQuery(query, rootPaths).getResults();
+    }
+    
+    public SearchProfile explainByQuery(FileQuery query, List<String> rootPaths) {
+        SearchProfile profile = new SearchProfile("query " + query.plan(), rootPaths);
+        // Without content predicates a query only walks, like a name search
+        QueryScheduler.Lane lane = query.readsContent() ? QueryScheduler.Lane.BULK : QueryScheduler.Lane.INTERACTIVE;
+        if (!admit(lane, profile)) {
+            return finish(profile, Collections.emptyList());
+        }
+        try {
+            return finish(profile, searchByQuery(query, rootPaths, profile));
+        } finally {
+            release(lane, profile);
+        }
+    }
+    
+    private List<SearchResult> searchByQuery(FileQuery query, List<String> rootPaths, SearchProfile profile) {
+        final List<SearchResult> results = Collections.synchronizedList(new ArrayList<>());
+        final List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        if (roots.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        walkAndRead(roots,
+            dir -> {
+                if (query.mayMatchUnder(dir)) {
+                    return true;
+                }
+                profile.directoryPruned("query path rule");
+                return false;
+            },
+            (file, attrs) -> {
+                FileQuery.Match match = query.test(file, attrs, null);
+                if (match == FileQuery.Match.YES) {
+                    results.add(queryResult(file, attrs));
+                }
+                return match == FileQuery.Match.MAYBE;
+            },
+            (file, attrs) -> {
+                // Binary files have no content to match
+                boolean text = hasText(file.getFileName().toString().toLowerCase());
+                FileQuery.Match match = query.test(file, attrs,
+                    matcher -> text && matchesContent(matcher, file, attrs.size(), profile));
+                if (match == FileQuery.Match.YES) {
+                    results.add(queryResult(file, attrs));
+                }
+            }, null, profile);
+        profile.mark("walk and read");
+        
+        List<SearchResult> sorted = dedupe(results);
+        sorted.sort(Comparator.comparing(SearchResult::getFilePath));
+        profile.mark("sort");
+        return Collections.unmodifiableList(sorted);
+    }
+    
+    private static SearchResult queryResult(Path file, BasicFileAttributes attrs) {
+        return new SearchResult(
+            file.toString(),
+            file.getFileName().toString(),
+            attrs.size(),
+            attrs.lastModifiedTime().toMillis(),
+            SearchType.QUERY
+        );
+    }
+    
+    // Waits for a slot in the lane; false if the search was cancelled while waiting.
+    // Throws QueryRejectedException if it waited too long.
+    private boolean admit(QueryScheduler.Lane lane, SearchProfile profile) {
+        try {
+            profile.admitted(lane, queryScheduler.admit(lane, profile.getDescription()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        profile.mark("admission");
+        progress.start(profile);
+        return true;
+    }
+    
+    // Frees the lane's slot; a search that failed or was cancelled gets its last progress report here
+    private void release(QueryScheduler.Lane lane, SearchProfile profile) {
+        queryScheduler.release(lane);
+        progress.stop(profile);
+    }
+    
+    private SearchProfile finish(SearchProfile profile, List<SearchResult> results) {
+        profile.complete(results);
+        progress.stop(profile);
+        // A cancelled search's results say little about where the rest would have been
+        if (!Thread.currentThread().isInterrupted()) {
+            subtreeStats.record(profile.getRoots(), results);
+        }
+        if (profile.getTotalMillis() >= slowQueryThreshold) {
+            logSlowQuery(profile);
+        }
+        return profile;
+    }
+    
+    private synchronized void logSlowQuery(SearchProfile profile) {
+        String entry = profile.format() + System.lineSeparator();
+        if (slowQueryLog == null) {
+            System.err.print("Slow query:" + System.lineSeparator() + entry);
+            return;
+        }
+        try {
+            Files.createDirectories(slowQueryLog.getParent());
+            Files.write(slowQueryLog, entry.getBytes(java.nio.charset.StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Could not write slow-query log: " + e.getMessage());
+        }
+    }
+    
+    // Groups of files under the roots with identical content, largest waste first.
+    // Only files that share a size are read, and most are told apart by their edges.
+    public List<DuplicateFinder.DuplicateGroup> findDuplicates(List<String> rootPaths) {
+        SearchProfile profile = new SearchProfile("duplicates", rootPaths);
+        if (!admit(QueryScheduler.Lane.BULK, profile)) {
+            return Collections.emptyList();
+        }
+        try {
+            return findDuplicates(rootPaths, profile);
+        } finally {
+            release(QueryScheduler.Lane.BULK, profile);
+        }
+    }
+    
+    private List<DuplicateFinder.DuplicateGroup> findDuplicates(List<String> rootPaths, SearchProfile profile) {
+        final List<Path> roots = resolveRoots(rootPaths);
+        profile.setRoots(roots);
+        profile.mark("resolve roots");
+        if (roots.isEmpty()) {
+            return Collections.emptyList();
+        }
+        DuplicateFinder finder = new DuplicateFinder(executorService, readThrottle(profile));
+        walkRoots(roots, null, finder::add, null, profile);
+        profile.mark("walk");
+        if (Thread.currentThread().isInterrupted()) {
+            return Collections.emptyList();
+        }
+        List<DuplicateFinder.DuplicateGroup> groups;
+        try {
+            groups = Collections.unmodifiableList(finder.find());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        profile.mark("hash");
+        List<SearchResult> files = new ArrayList<>();
+        for (DuplicateFinder.DuplicateGroup group : groups) {
+            files.addAll(group.getFiles());
+        }
+        finish(profile, Collections.unmodifiableList(files));
+        return groups;
+    }
+    
+    public List<DuplicateFinder.DuplicateGroup> findDuplicates(String rootPath) {
+        return findDuplicates(Collections.singletonList(rootPath));
+    }
+    
+    // True when every file matching searchTerm also matches previousTerm, so the results
+    // of the previous search can be refined in memory instead of walking again
+    public static boolean narrows(String previousTerm, String searchTerm, boolean useRegex, boolean useFuzzy) {
+        if (previousTerm == null || searchTerm == null) {
+            return false;
+        }
+        if (useRegex) {
+            return previousTerm.equals(searchTerm);
+        }
+        if (useFuzzy) {
+            List<String> terms = splitFuzzyTerms(searchTerm);
+            for (String previous : splitFuzzyTerms(previousTerm)) {
+                boolean covered = false;
+                for (String term : terms) {
+                    if (term.contains(previous)) {
+                        covered = true;
+                        break;
+                    }
+                }
+                if (!covered) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return searchTerm.toLowerCase().contains(previousTerm.toLowerCase());
+    }
+    
+    // Filters the results of an earlier name search that narrows() says is a superset
+    public List<SearchResult> refineByName(List<SearchResult> previousResults, String searchTerm, boolean useRegex, boolean useFuzzy) {
+        final NameMatcher nameMatcher;
+        if (useFuzzy) {
+            nameMatcher = NameMatcher.allOf(splitFuzzyTerms(searchTerm));
+        } else if (useRegex) {
+            nameMatcher = NameMatcher.regex(java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE));
+        } else {
+            nameMatcher = NameMatcher.literal(searchTerm);
+        }
+        
+        List<SearchResult> results = new ArrayList<>();
+        for (SearchResult result : previousResults) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (nameMatcher.matches(result.getFileName())) {
+                results.add(result);
+            }
+        }
+        if (useFuzzy) {
+            sortByFuzzyRelevance(results, splitFuzzyTerms(searchTerm));
+        } else {
+            sortByNameRelevance(results, searchTerm);
+        }
+        return Collections.unmodifiableList(results);
+    }
+    
+    // Re-reads only the files of an earlier content search that narrows() says is a superset
+    public List<SearchResult> refineByContent(List<SearchResult> previousResults, String searchTerm, boolean useRegex) {
+        ContentMatcher matcher = useRegex
+            ? ContentMatcher.regex(java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE))
+            : ContentMatcher.literal(searchTerm);
+        List<SearchResult> results = new ArrayList<>();
+        for (SearchResult result : previousResults) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            Path file = Paths.get(result.getFilePath());
+            try {
+                if (matchesContent(matcher, file, result.getSize(), null)) {
+                    results.add(result);
+                }
+            } catch (IOException e) {
+                // File changed or disappeared since the previous search
+            }
+        }
+        return Collections.unmodifiableList(results);
+    }
+    
+    static List<String> splitFuzzyTerms(String searchTerm) {
+        String[] terms = searchTerm.toLowerCase().split("\\s+");
+        List<String> searchTerms = new ArrayList<>();
+        for (String term : terms) {
+            if (!term.trim().isEmpty()) {
+                searchTerms.add(term.trim());
+            }
+        }
+        return searchTerms;
+    }
+    
+    private static void sortByNameRelevance(List<SearchResult> results, String searchTerm) {
+        results.sort(nameRelevance(searchTerm));
+    }
+    
+    // Relevance order of name results: exact matches first, then by name similarity.
+    // Also used to merge the results of several searches.
+    static Comparator<SearchResult> nameRelevance(String searchTerm) {
+        return (a, b) -> {
+            String aName = a.getFileName().toLowerCase();
+            String bName = b.getFileName().toLowerCase();
+            String searchLower = searchTerm.toLowerCase();
+            
+            boolean aExact = aName.equals(searchLower);
+            boolean bExact = bName.equals(searchLower);
+            
+            if (aExact && !bExact) return -1;
+            if (!aExact && bExact) return 1;
+            
+            boolean aStarts = aName.startsWith(searchLower);
+            boolean bStarts = bName.startsWith(searchLower);
+            
+            if (aStarts && !bStarts) return -1;
+            if (!aStarts && bStarts) return 1;
+            
+            return aName.compareTo(bName);
+        };
+    }
+    
+    private static void sortByFuzzyRelevance(List<SearchResult> results, List<String> searchTerms) {
+        results.sort(fuzzyRelevance(searchTerms));
+    }
+    
+    static Comparator<SearchResult> fuzzyRelevance(List<String> searchTerms) {
+        return (a, b) -> {
+            String aName = a.getFileName().toLowerCase();
+            String bName = b.getFileName().toLowerCase();
+            
+            int aExactMatches = 0, bExactMatches = 0;
+            for (String term : searchTerms) {
+                if (aName.equals(term)) aExactMatches++;
+                if (bName.equals(term)) bExactMatches++;
+            }
+            
+            if (aExactMatches != bExactMatches) {
+                return Integer.compare(bExactMatches, aExactMatches);
+            }
+            
+            int aStartsWith = 0, bStartsWith = 0;
+            for (String term : searchTerms) {
+                if (aName.startsWith(term)) aStartsWith++;
+                if (bName.startsWith(term)) bStartsWith++;
+            }
+            
+            if (aStartsWith != bStartsWith) {
+                return Integer.compare(bStartsWith, aStartsWith);
+            }
+            
+            return aName.compareTo(bName);
+        };
+    }
+    
+    // Names are matched in place at the end of the path string, so a file that does not
+    // match costs no more objects than the walk itself creates
+    private void collectByName(List<Path> roots, NameMatcher nameMatcher, List<SearchResult> results,
+                               SearchProfile profile) {
+        List<SearchResult> found = Collections.synchronizedList(new ArrayList<>());
+        List<Path> toWalk = new ArrayList<>();
+        java.util.function.Predicate<String> snapshotMatcher = fileName -> {
+            if (nameMatcher.isRegex()) {
+                profile.regexInvoked();
+            }
+            return nameMatcher.matches(fileName);
+        };
+        ResidentCatalogue resident = profile.isWalkOnly() ? null : currentResidentCatalogue();
+        List<Path> residentRoots = new ArrayList<>();
+        for (Path root : roots) {
+            if (resident != null && resident.covers(root)) {
+                residentRoots.add(root);
+            } else if (profile.isWalkOnly() || !catalogue.answerFromSnapshot(root, snapshotMatcher, found)) {
+                toWalk.add(root);
+            }
+        }
+        if (!residentRoots.isEmpty()) {
+            try {
+                resident.search(residentRoots, nameMatcher, found, residentExecutor,
+                    Runtime.getRuntime().availableProcessors(), profile);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refreshIfStale(resident);
+        }
+        profile.mark("catalogue");
+        if (lazyNameWalk) {
+            walkNames(toWalk, ListingMatcher.byName(nameMatcher), found, profile);
+            profile.mark("walk");
+            results.addAll(dedupe(found));
+            return;
+        }
+        walkRoots(toWalk, null, (file, attrs) -> {
+            String path = file.toString();
+            int nameStart = NameMatcher.nameStart(path);
+            if (nameMatcher.isRegex()) {
+                profile.regexInvoked();
+            }
+            if (nameMatcher.matches(path, nameStart, path.length())) {
+                SearchResult result = new SearchResult(
+                    path,
+                    path.substring(nameStart), // Keep original case
+                    attrs.size(),
+                    attrs.lastModifiedTime().toMillis(),
+                    SearchType.NAME
+                );
+                found.add(result);
+            }
+        }, null, profile);
+        profile.mark("walk");
+        results.addAll(dedupe(found));
+    }
+    
+    // collectByName for a path query. The walks hand each directory's part of the query,
+    // matched once on entering it, to its files (see RelativePathMatcher).
+    private void collectByPath(List<Path> roots, RelativePathMatcher pathMatcher, List<SearchResult> results,
+                               SearchProfile profile) {
+        List<SearchResult> found = Collections.synchronizedList(new ArrayList<>());
+        List<Path> toWalk = new ArrayList<>();
+        ResidentCatalogue resident = profile.isWalkOnly() ? null : currentResidentCatalogue();
+        List<Path> residentRoots = new ArrayList<>();
+        for (Path root : roots) {
+            // A file given as a root is walked: it has no directory entry in the resident catalogue
+            if (resident != null && resident.covers(root) && Files.isDirectory(root)) {
+                residentRoots.add(root);
+            } else if (profile.isWalkOnly() || !catalogue.answerPathsFromSnapshot(root, pathMatcher, found)) {
+                toWalk.add(root);
+            }
+        }
+        if (!residentRoots.isEmpty()) {
+            try {
+                resident.searchPaths(residentRoots, pathMatcher, found, residentExecutor,
+                    Runtime.getRuntime().availableProcessors(), profile);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            refreshIfStale(resident);
+        }
+        profile.mark("catalogue");
+        if (lazyNameWalk) {
+            walkNames(toWalk, ListingMatcher.byPath(pathMatcher, pathMatcher.root()), found, profile);
+        } else {
+            walkTree(toWalk, null, new TreeVisitor<RelativePathMatcher.Directory>() {
+                @Override
+                public RelativePathMatcher.Directory enterDirectory(RelativePathMatcher.Directory parent, Path dir) {
+                    return parent == null ? pathMatcher.root() : pathMatcher.child(parent, dir.getFileName().toString());
+                }
+                
+                @Override
+                public void visitFile(RelativePathMatcher.Directory directory, Path file, BasicFileAttributes attrs) {
+                    String path = file.toString();
+                    int nameStart = NameMatcher.nameStart(path);
+                    if (pathMatcher.isRegex()) {
+                        profile.regexInvoked();
+                    }
+                    if (pathMatcher.matches(directory, path, nameStart, path.length())) {
+                        found.add(new SearchResult(path, path.substring(nameStart), attrs.size(),
+                            attrs.lastModifiedTime().toMillis(), SearchType.PATH));
+                    }
+                }
+            }, null, profile);
+        }
+        profile.mark("walk");
+        results.addAll(dedupe(found));
+    }
+    
+    // Normalizes the roots and drops missing ones and ones nested inside another root,
+    // so overlapping roots are only walked once
+    private List<Path> resolveRoots(List<String> rootPaths) {
+        List<Path> candidates = new ArrayList<>();
+        for (String rootPath : rootPaths) {
+            Path root = Paths.get(rootPath).toAbsolutePath().normalize();
+            if (Files.exists(root)) {
+                candidates.add(root);
+            }
+        }
+        candidates.sort(Comparator.comparingInt(Path::getNameCount));
+        
+        List<Path> roots = new ArrayList<>();
+        List<Path> realRoots = new ArrayList<>();
+        for (Path candidate : candidates) {
+            Path real = toRealPath(candidate);
+            boolean nested = false;
+            for (Path kept : realRoots) {
+                if (real.startsWith(kept)) {
+                    nested = true;
+                    break;
+                }
+            }
+            if (!nested) {
+                roots.add(candidate);
+                realRoots.add(real);
+            }
+        }
+        return roots;
+    }
+    
+    private static Path toRealPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            return path;
+        }
+    }
+    
+    private static List<SearchResult> dedupe(List<SearchResult> results) {
+        Map<String, SearchResult> byPath = new LinkedHashMap<>();
+        synchronized (results) {
+            for (SearchResult result : results) {
+                byPath.putIfAbsent(result.getFilePath(), result);
+            }
+        }
+        return new ArrayList<>(byPath.values());
+    }
+    
+    // Walks the roots and reads the files toRead accepts through a ReadScheduler, on a
+    // set of reader threads of this search's own. toRead runs on the walker threads.
+    // checkpoint, if given, is told which directories have been read completely, and
+    // is saved if the search is cancelled or deleted when it completes.
+    private void walkAndRead(List<Path> roots, java.util.function.Predicate<Path> directoryFilter,
+                             java.util.function.BiPredicate<Path, BasicFileAttributes> toRead,
+                             ReadScheduler.Reader reader, SearchCheckpoint checkpoint, SearchProfile profile) {
+        final ReadScheduler scheduler = new ReadScheduler(READ_QUEUE_CAPACITY, SMALL_FILE_SIZE,
+            largeFileThreshold, MAX_CONCURRENT_LARGE_READS);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < readerThreads; i++) {
+            readers.add(readerService.submit(() -> {
+                scheduler.drain((file, attrs) -> {
+                    readPermits.acquire();
+                    long start = System.nanoTime();
+                    try {
+                        reader.read(file, attrs);
+                    } finally {
+                        readPermits.release();
+                        profile.fileRead(file, System.nanoTime() - start);
+                        // A read cut short by cancellation does not count; a failed one does,
+                        // since running the search again would fail the same way
+                        if (checkpoint != null && !Thread.currentThread().isInterrupted()) {
+                            checkpoint.fileRead(file);
+                        }
+                    }
+                });
+                return null;
+            }));
+        }
+        
+        try {
+            walkRoots(roots, directoryFilter, (file, attrs) -> {
+                if (toRead.test(file, attrs)) {
+                    if (checkpoint != null) {
+                        checkpoint.fileQueued(file);
+                    }
+                    try {
+                        scheduler.submit(file, attrs, adaptiveWalkOrder && subtreeStats.isUnderHot(file.getParent()));
+                        profile.fileQueued();
+                    } catch (InterruptedException e) {
+                        // The search was cancelled; the walk stops at the next file
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, checkpoint, profile);
+        } finally {
+            scheduler.close();
+        }
+        
+        try {
+            for (Future<?> future : readers) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    System.err.println("Error reading files: " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> future : readers) {
+                future.cancel(true);
+            }
+        }
+        if (checkpoint != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                checkpoint.suspend();
+            } else {
+                checkpoint.finish();
+            }
+            runningCheckpoints.remove(checkpoint);
+        }
+    }
+    
+    // Large files are scanned in parallel chunks, and documents through their extracted
+    // text. profile may be null.
+    private boolean matchesContent(ContentMatcher matcher, Path file, long size, SearchProfile profile) throws IOException {
+        TextExtractor extractor = extractorFor(file.getFileName().toString().toLowerCase());
+        if (extractor != null) {
+            if (!charge(size, profile)) {
+                return false;
+            }
+            // Charged and timed as a read of the document, which extracting it is
+            long start = System.nanoTime();
+            try {
+                Boolean matched = withExtractedText(file, extractor, profile, text -> matcher.matches(text, profile, null));
+                return matched != null && matched;
+            } finally {
+                readCompleted(size, System.nanoTime() - start, profile);
+            }
+        }
+        IoThrottle throttle = readThrottle(profile);
+        // Chunks are memory-mapped, which always goes through the page cache and is
+        // read at whatever pace the scan takes
+        return size > largeFileThreshold && throttle == null
+            ? chunkedSearcher.search(file, matcher, chunkSize, profile)
+            : matcher.matches(file, profile, throttle);
+    }
+    
+    // Bulk searches are charged one document and its size against the bulk throttle
+    // before its extractor reads it; false if the search was cancelled while waiting.
+    // Other files are charged as they are read (see readThrottle).
+    private boolean charge(long size, SearchProfile profile) {
+        if (profile != null && profile.getLane() == QueryScheduler.Lane.BULK) {
+            IoThrottle throttle = queryScheduler.getBulkThrottle();
+            try {
+                throttle.acquire(IoThrottle.Resource.FILES, 1);
+                throttle.acquire(IoThrottle.Resource.BYTES, size);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Bulk walks are charged each directory they list; false if cancelled while waiting
+    private boolean chargeDirectory(SearchProfile profile) {
+        if (profile.getLane() == QueryScheduler.Lane.BULK) {
+            try {
+                queryScheduler.getBulkThrottle().acquire(IoThrottle.Resource.DIRECTORIES, 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // The bulk throttle, for bulk reads it has to pace or keep out of the page cache;
+    // null for reads it leaves alone
+    private IoThrottle readThrottle(SearchProfile profile) {
+        if (profile == null || profile.getLane() != QueryScheduler.Lane.BULK) {
+            return null;
+        }
+        IoThrottle throttle = queryScheduler.getBulkThrottle();
+        return throttle.isLimited() || throttle.isBypassPageCache() ? throttle : null;
+    }
+    
+    // Lets the bulk throttle adapt to how long reads take
+    private void readCompleted(long size, long nanos, SearchProfile profile) {
+        if (profile != null && profile.getLane() == QueryScheduler.Lane.BULK) {
+            queryScheduler.getBulkThrottle().readCompleted(size, nanos);
+        }
+    }
     
-    public LiveFileSearch() {
-        this.executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // Walks every regular file under the given roots. Roots are grouped by the device
+    // they live on and each device gets its own pool of walker threads, so a slow
+    // network mount cannot hold up a local disk. Within a root, the files directly in
+    // it and each top-level subdirectory are separate units of work. The file visitor
+    // is called concurrently and must be thread-safe.
+    // directoryFilter, if given, can rule out whole subtrees. Such a walk is incomplete,
+    // so it is not recorded in the catalogue. checkpoint, if given, sees every
+    // directory entered and every directory whose listing was walked to the end.
+    private void walkRoots(List<Path> roots, java.util.function.Predicate<Path> directoryFilter,
+                           java.util.function.BiConsumer<Path, BasicFileAttributes> fileVisitor,
+                           SearchCheckpoint checkpoint, SearchProfile profile) {
+        walkTree(roots, directoryFilter, new TreeVisitor<Void>() {
+            @Override
+            public Void enterDirectory(Void parent, Path dir) {
+                return null;
+            }
+            
+            @Override
+            public void visitFile(Void directory, Path file, BasicFileAttributes attrs) {
+                fileVisitor.accept(file, attrs);
+            }
+        }, checkpoint, profile);
     }
     
-    public List<SearchResult> searchByName(String searchTerm, String rootPath, boolean useRegex) {
-        return searchByName(searchTerm, rootPath, useRegex, false);
+    // A walk's file visitor that also keeps some state per directory, computed once when
+    // the directory is entered and handed to each of its files and subdirectories.
+    // Roots are entered with a null parent; a root that is a file is visited with the
+    // state of entering it. Like the file visitor, it is called concurrently.
+    private interface TreeVisitor<S> {
+        S enterDirectory(S parent, Path dir);
+        
+        void visitFile(S directory, Path file, BasicFileAttributes attrs);
     }
     
-    public List<SearchResult> searchByName(String searchTerm, String rootPath, boolean useRegex, boolean useFuzzy) {
-        if (useFuzzy) {
-            return searchByNameFuzzy(searchTerm, rootPath);
+    // walkRoots with directory state; see TreeVisitor
+    private <S> void walkTree(List<Path> roots, java.util.function.Predicate<Path> directoryFilter,
+                              TreeVisitor<S> visitor, SearchCheckpoint checkpoint, SearchProfile profile) {
+        Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+        List<RootWalk> walks = new ArrayList<>();
+        for (Path root : roots) {
+            // A file given as a root is searched even if its name looks like a skipped directory
+            if ((Files.isDirectory(root) && isSkippedDirectory(root))
+                || (directoryFilter != null && !directoryFilter.test(root))) {
+                continue;
+            }
+            RootWalk walk = new RootWalk(root, devicePool(root), directoryFilter, checkpoint, profile);
+            walks.add(walk);
+            pending.add(walk.pool.submit(profile.getLane(), profile, () -> {
+                walk.walkTopLevel(visitor, pending);
+                return null;
+            }));
         }
         
-        final List<SearchResult> results = new ArrayList<>();
-        final Path root = Paths.get(rootPath);
-        final String searchTermFinal = searchTerm;
-        if (!Files.exists(root)) {
-            return results;
+        boolean complete = true;
+        try {
+            Future<?> future;
+            while ((future = pending.poll()) != null) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    complete = false;
+                    System.err.println("Error searching files: " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Cancelled by the caller: stop the walkers and keep the interrupt flag
+            Thread.currentThread().interrupt();
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+            complete = false;
         }
-        final java.util.regex.Pattern pattern;
-        if (useRegex) {
-            try {
-                pattern = java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE);
-            } catch (java.util.regex.PatternSyntaxException e) {
-                System.err.println("Invalid regex pattern: " + e.getMessage());
-                return results;
+        
+        profile.walkFinished();
+        if (complete && directoryFilter == null) {
+            for (RootWalk walk : walks) {
+                walk.commit();
+                walkEstimator.record(walk.root, profile.filesUnder(walk.root));
             }
-        } else {
-            pattern = null;
         }
+    }
+    
+    // Name-only walk: entries are matched by name first, and attributes are read only
+    // for matches and for entries that may be directories. On file systems where a
+    // directory's link count is two plus its number of subdirectories, the entries
+    // left after the last subdirectory need no attributes at all (the leaf
+    // optimisation of find). On Windows the listing itself carries the attributes.
+    // Work is spread over the device pools one directory per task.
+    private void walkNames(List<Path> roots, ListingMatcher matcher, List<SearchResult> found, SearchProfile profile) {
+        Queue<Future<?>> pending = new ConcurrentLinkedQueue<>();
+        for (Path root : roots) {
+            LanePool pool = devicePool(root);
+            boolean countsSubdirectories = countsSubdirectories(root);
+            pending.add(pool.submit(profile.getLane(), profile, () -> {
+                EntryAttributes attrs = EntryAttributes.read(root);
+                profile.attributesRead();
+                if (attrs.directory && !isSkippedDirectory(root)) {
+                    listNames(root, attrs.device, attrs.subdirectories(countsSubdirectories), countsSubdirectories, true,
+                        pool, matcher, found, profile, profile.unit(root), pending);
+                } else if (attrs.regularFile) {
+                    String path = root.toString();
+                    int nameStart = NameMatcher.nameStart(path);
+                    profile.fileConsidered();
+                    if (matcher.matches(path, nameStart, path.length())) {
+                        found.add(new SearchResult(path, path.substring(nameStart), attrs.size, attrs.lastModified, matcher.type()));
+                    }
+                }
+                return null;
+            }));
+        }
+        
+        boolean complete = true;
         try {
-            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    String dirName = dir.getFileName().toString();
-                    if (SKIP_DIRECTORIES.contains(dirName) || dirName.startsWith(".")) {
-                        return FileVisitResult.SKIP_SUBTREE;
+            Future<?> future;
+            while ((future = pending.poll()) != null) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    complete = false;
+                    System.err.println("Error searching files: " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+            complete = false;
+        }
+        
+        profile.walkFinished();
+        if (complete) {
+            for (Path root : roots) {
+                walkEstimator.record(root, profile.filesUnder(root));
+            }
+        }
+    }
+    
+    // subdirectories is how many subdirectories dir has, or -1 if unknown; device is the
+    // one dir is on
+    private void listNames(Path dir, long device, long subdirectories, boolean countsSubdirectories, boolean topLevel,
+                           LanePool pool, ListingMatcher matcher, List<SearchResult> found,
+                           SearchProfile profile, SearchProfile.Subtree unit, Queue<Future<?>> pending) throws IOException {
+        profile.directoryVisited();
+        long subdirectoriesLeft = subdirectories;
+        List<Map.Entry<Path, EntryAttributes>> toList = new ArrayList<>();
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                String path = child.toString();
+                int nameStart = NameMatcher.nameStart(path);
+                if (matcher.isRegex()) {
+                    profile.regexInvoked();
+                }
+                boolean matches = matcher.matches(path, nameStart, path.length());
+                if (!matches && subdirectoriesLeft == 0) {
+                    // Every subdirectory has been seen, so this is a file (or a link or device)
+                    profile.fileConsidered();
+                    unit.files.increment();
+                    continue;
+                }
+                EntryAttributes attrs;
+                try {
+                    attrs = EntryAttributes.read(child);
+                } catch (IOException e) {
+                    continue;
+                }
+                profile.attributesRead();
+                if (attrs.directory) {
+                    if (subdirectoriesLeft > 0) {
+                        subdirectoriesLeft--;
+                    }
+                    if (!isPruned(child, null, profile)) {
+                        toList.add(new AbstractMap.SimpleImmutableEntry<>(child, attrs));
                     }
-                    return FileVisitResult.CONTINUE;
+                } else if (attrs.regularFile) {
+                    profile.fileConsidered();
+                    unit.files.increment();
+                    if (matches) {
+                        found.add(new SearchResult(path, path.substring(nameStart), attrs.size, attrs.lastModified, matcher.type()));
+                    }
+                }
+            }
+        } finally {
+            unit.walkNanos.add(System.nanoTime() - start);
+        }
+        // Hot subdirectories, where past searches recently found results, go ahead of
+        // everything this search has queued so far, best last so that it runs first; the
+        // rest queue behind
+        List<Map.Entry<Path, EntryAttributes>> ordered = inWalkOrder(toList, attrs -> attrs.lastModified);
+        boolean adaptive = adaptiveWalkOrder;
+        boolean[] urgent = new boolean[ordered.size()];
+        for (int i = 0; i < urgent.length; i++) {
+            urgent[i] = adaptive && subtreeStats.isHot(ordered.get(i).getKey());
+        }
+        for (int i = urgent.length - 1; i >= 0; i--) {
+            if (urgent[i]) {
+                listLater(ordered.get(i), true, device, countsSubdirectories, topLevel, pool, matcher, found, profile, unit, pending);
+            }
+        }
+        for (int i = 0; i < urgent.length; i++) {
+            if (!urgent[i]) {
+                listLater(ordered.get(i), false, device, countsSubdirectories, topLevel, pool, matcher, found, profile, unit, pending);
+            }
+        }
+    }
+    
+    private void listLater(Map.Entry<Path, EntryAttributes> subdirectory, boolean urgent, long device, boolean countsSubdirectories,
+                           boolean parentIsRoot, LanePool pool, ListingMatcher matcher, List<SearchResult> found,
+                           SearchProfile profile, SearchProfile.Subtree unit, Queue<Future<?>> pending) {
+        Path child = subdirectory.getKey();
+        SearchProfile.Subtree childUnit = parentIsRoot ? profile.unit(child) : unit;
+        EntryAttributes attrs = subdirectory.getValue();
+        // A mount point below the root may hold a file system that keeps no link counts
+        boolean childCounts = attrs.device == device ? countsSubdirectories : countsSubdirectories(child);
+        long childSubdirectories = attrs.subdirectories(childCounts);
+        ListingMatcher childMatcher = matcher.enter(child);
+        pending.add(pool.submit(profile.getLane(), profile, () -> {
+            listNames(child, attrs.device, childSubdirectories, childCounts, false,
+                pool, childMatcher, found, profile, childUnit, pending);
+            return null;
+        }, urgent));
+    }
+    
+    // The subdirectories of a listing in the order walks visit them: by SubtreeStats
+    // priority, highest first, or as listed if adaptive walk order is off
+    private <A> List<Map.Entry<Path, A>> inWalkOrder(List<Map.Entry<Path, A>> subdirectories,
+                                                     java.util.function.ToLongFunction<A> lastModified) {
+        if (!adaptiveWalkOrder || subdirectories.size() < 2) {
+            return subdirectories;
+        }
+        // Worked out once: priorities change with the clock
+        Map<Path, Double> priorities = new HashMap<>();
+        for (Map.Entry<Path, A> subdirectory : subdirectories) {
+            priorities.put(subdirectory.getKey(),
+                subtreeStats.priority(subdirectory.getKey(), lastModified.applyAsLong(subdirectory.getValue())));
+        }
+        List<Map.Entry<Path, A>> ordered = new ArrayList<>(subdirectories);
+        ordered.sort(Comparator.comparingDouble((Map.Entry<Path, A> subdirectory) -> priorities.get(subdirectory.getKey()))
+            .reversed());
+        return ordered;
+    }
+    
+    // How walkNames matches the entries of a listing: by name, or by path with the state of
+    // the directory listed (see RelativePathMatcher)
+    private interface ListingMatcher {
+        boolean matches(CharSequence path, int nameStart, int end);
+        
+        // The matcher for the listing of a subdirectory
+        ListingMatcher enter(Path dir);
+        
+        boolean isRegex();
+        
+        SearchType type();
+        
+        static ListingMatcher byName(NameMatcher nameMatcher) {
+            return new ListingMatcher() {
+                @Override
+                public boolean matches(CharSequence path, int nameStart, int end) {
+                    return nameMatcher.matches(path, nameStart, end);
                 }
                 
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (attrs.isRegularFile()) {
-                        String fileName = file.getFileName().toString();
-                        String fileNameLower = fileName.toLowerCase();
-                        String searchLower = searchTermFinal.toLowerCase();
-                        
-                        boolean matches = false;
-                        if (useRegex && pattern != null) {
-                            matches = pattern.matcher(fileName).find();
-                        } else {
-                            matches = fileNameLower.contains(searchLower);
-                        }
-                        
-                        if (matches) {
-                            try {
-                                SearchResult result = new SearchResult(
-                                    file.toString(),
-                                    fileName, // Keep original case
-                                    attrs.size(),
-                                    attrs.lastModifiedTime().toMillis(),
-                                    SearchType.NAME
-                                );
-                                results.add(result);
-                            } catch (Exception e) {
-                                // Skip files with access issues
-                            }
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
+                public ListingMatcher enter(Path dir) {
+                    return this;
                 }
                 
                 @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    return FileVisitResult.CONTINUE;
+                public boolean isRegex() {
+                    return nameMatcher.isRegex();
                 }
-            });
-        } catch (IOException e) {
-            System.err.println("Error searching files: " + e.getMessage());
+                
+                @Override
+                public SearchType type() {
+                    return SearchType.NAME;
+                }
+            };
         }
         
-        // Sort by relevance (exact matches first, then by name similarity)
-        results.sort((a, b) -> {
-            String aName = a.getFileName().toLowerCase();
-            String bName = b.getFileName().toLowerCase();
-            String searchLower = searchTermFinal.toLowerCase();
-            
-            boolean aExact = aName.equals(searchLower);
-            boolean bExact = bName.equals(searchLower);
-            
-            if (aExact && !bExact) return -1;
-            if (!aExact && bExact) return 1;
-            
-            boolean aStarts = aName.startsWith(searchLower);
-            boolean bStarts = bName.startsWith(searchLower);
-            
-            if (aStarts && !bStarts) return -1;
-            if (!aStarts && bStarts) return 1;
-            
-            return aName.compareTo(bName);
-        });
-        
-        return results;
+        static ListingMatcher byPath(RelativePathMatcher pathMatcher, RelativePathMatcher.Directory directory) {
+            return new ListingMatcher() {
+                @Override
+                public boolean matches(CharSequence path, int nameStart, int end) {
+                    return pathMatcher.matches(directory, path, nameStart, end);
+                }
+                
+                @Override
+                public ListingMatcher enter(Path dir) {
+                    return byPath(pathMatcher, pathMatcher.child(directory, dir.getFileName().toString()));
+                }
+                
+                @Override
+                public boolean isRegex() {
+                    return pathMatcher.isRegex();
+                }
+                
+                @Override
+                public SearchType type() {
+                    return SearchType.PATH;
+                }
+            };
+        }
     }
     
-    // Overload for backward compatibility
-    public List<SearchResult> searchByName(String searchTerm, String rootPath) {
-        return searchByName(searchTerm, rootPath, false);
+    // Whether link counts can be trusted on the file system dir lives on
+    private boolean countsSubdirectories(Path dir) {
+        if (!UNIX_ATTRIBUTES) {
+            return false;
+        }
+        try {
+            FileStore store = Files.getFileStore(dir);
+            return countsSubdirectories.computeIfAbsent(store.toString(),
+                key -> SUBDIRECTORY_COUNTING_FILE_SYSTEMS.contains(store.type().toLowerCase()));
+        } catch (IOException e) {
+            return false;
+        }
     }
     
-    // New method for fuzzy search - splits terms and finds files containing all terms
-    public List<SearchResult> searchByNameFuzzy(String searchTerm, String rootPath) {
-        String[] terms = searchTerm.toLowerCase().split("\\s+");
-        List<String> searchTerms = new ArrayList<>();
-        for (String term : terms) {
-            if (!term.trim().isEmpty()) {
-                searchTerms.add(term.trim());
-            }
+    // What walkNames needs to know about an entry, read without following links
+    private static final class EntryAttributes {
+        private final boolean directory;
+        private final boolean regularFile;
+        private final long size;
+        private final long lastModified;
+        private final long links;
+        private final long device;
+        
+        private EntryAttributes(boolean directory, boolean regularFile, long size, long lastModified, long links, long device) {
+            this.directory = directory;
+            this.regularFile = regularFile;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.links = links;
+            this.device = device;
         }
         
-        if (searchTerms.isEmpty()) {
-            return new ArrayList<>();
+        static EntryAttributes read(Path path) throws IOException {
+            if (UNIX_ATTRIBUTES) {
+                // One stat call, link count and device included
+                Map<String, Object> attrs = Files.readAttributes(path, ENTRY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                return new EntryAttributes((Boolean) attrs.get("isDirectory"), (Boolean) attrs.get("isRegularFile"),
+                    (Long) attrs.get("size"), ((java.nio.file.attribute.FileTime) attrs.get("lastModifiedTime")).toMillis(),
+                    ((Number) attrs.get("nlink")).longValue(), ((Number) attrs.get("dev")).longValue());
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new EntryAttributes(attrs.isDirectory(), attrs.isRegularFile(), attrs.size(),
+                attrs.lastModifiedTime().toMillis(), 0, 0);
         }
         
-        List<SearchResult> results = new ArrayList<>();
-        Path root = Paths.get(rootPath);
+        // File systems that do not keep the count report fewer than two links
+        long subdirectories(boolean countsSubdirectories) {
+            return countsSubdirectories && links >= 2 ? links - 2 : -1;
+        }
+    }
+    
+    private LanePool devicePool(Path root) {
+        String device;
+        try {
+            device = Files.getFileStore(root).toString();
+        } catch (IOException e) {
+            device = "unknown";
+        }
+        final String deviceName = device;
+        return devicePools.computeIfAbsent(deviceName, key -> new LanePool(deviceParallelism, "walker " + deviceName));
+    }
+    
+    // One root of a multi-root walk. Each unit records into its own catalogue recorder;
+    // they are merged and committed once every unit of the root has finished.
+    private class RootWalk {
+        private final Path root;
+        private final LanePool pool;
+        private final java.util.function.Predicate<Path> directoryFilter;
+        private final SearchCheckpoint checkpoint;
+        private final SearchProfile profile;
+        private final FileCatalogue.Recorder recorder;
+        private final Queue<FileCatalogue.Recorder> unitRecorders = new ConcurrentLinkedQueue<>();
         
-        if (!Files.exists(root)) {
-            return results;
+        RootWalk(Path root, LanePool pool, java.util.function.Predicate<Path> directoryFilter,
+                 SearchCheckpoint checkpoint, SearchProfile profile) {
+            this.root = root;
+            this.pool = pool;
+            this.directoryFilter = directoryFilter;
+            this.checkpoint = checkpoint;
+            this.profile = profile;
+            this.recorder = catalogue.newRecorder(root);
         }
         
-        try {
-            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    String dirName = dir.getFileName().toString();
-                    if (SKIP_DIRECTORIES.contains(dirName) || dirName.startsWith(".")) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-                    return FileVisitResult.CONTINUE;
+        <S> void walkTopLevel(TreeVisitor<S> visitor, Queue<Future<?>> pending) throws IOException {
+            BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+            S rootState = visitor.enterDirectory(null, root);
+            if (!rootAttrs.isDirectory()) {
+                if (rootAttrs.isRegularFile()) {
+                    visitor.visitFile(rootState, root, rootAttrs);
                 }
-                
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                return;
+            }
+            if (!chargeDirectory(profile)) {
+                return;
+            }
+            recorder.enterDirectory(root, rootAttrs);
+            if (checkpoint != null) {
+                checkpoint.enterDirectory(root, rootAttrs);
+            }
+            profile.directoryVisited();
+            SearchProfile.Subtree rootUnit = profile.unit(root);
+            List<Map.Entry<Path, BasicFileAttributes>> subdirectories = new ArrayList<>();
+            long start = System.nanoTime();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (Path child : stream) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    profile.attributesRead();
                     if (attrs.isRegularFile()) {
-                        String fileName = file.getFileName().toString();
-                        String fileNameLower = fileName.toLowerCase();
-                        
-                        // Check if ALL search terms are present in the filename
-                        boolean allTermsFound = true;
-                        for (String term : searchTerms) {
-                            if (!fileNameLower.contains(term)) {
-                                allTermsFound = false;
-                                break;
-                            }
-                        }
-                        
-                        if (allTermsFound) {
-                            try {
-                                SearchResult result = new SearchResult(
-                                    file.toString(),
-                                    fileName,
-                                    attrs.size(),
-                                    attrs.lastModifiedTime().toMillis(),
-                                    SearchType.NAME
-                                );
-                                results.add(result);
-                            } catch (Exception e) {
-                                // Skip files with access issues
-                            }
-                        }
+                        recorder.addFile(child, attrs);
+                        profile.fileConsidered();
+                        rootUnit.files.increment();
+                        visitor.visitFile(rootState, child, attrs);
+                    } else if (attrs.isDirectory() && !isPruned(child, directoryFilter, profile)) {
+                        subdirectories.add(new AbstractMap.SimpleImmutableEntry<>(child, attrs));
                     }
-                    return FileVisitResult.CONTINUE;
                 }
-                
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    return FileVisitResult.CONTINUE;
+                if (checkpoint != null) {
+                    checkpoint.exitDirectory(root);
                 }
-            });
-        } catch (IOException e) {
-            System.err.println("Error searching files: " + e.getMessage());
+            } finally {
+                recorder.exitDirectory();
+                rootUnit.walkNanos.add(System.nanoTime() - start);
+            }
+            // Units are queued once the root is listed, so that they can start in walk order
+            for (Map.Entry<Path, BasicFileAttributes> subdirectory
+                    : inWalkOrder(subdirectories, attrs -> attrs.lastModifiedTime().toMillis())) {
+                Path child = subdirectory.getKey();
+                FileCatalogue.Recorder unitRecorder = recorder.fork();
+                unitRecorders.add(unitRecorder);
+                pending.add(pool.submit(profile.getLane(), profile, () -> {
+                    SearchProfile.Subtree unit = profile.unit(child);
+                    long unitStart = System.nanoTime();
+                    try {
+                        walk(child, directoryFilter, visitor, rootState, unitRecorder, checkpoint, profile, unit);
+                    } finally {
+                        unit.walkNanos.add(System.nanoTime() - unitStart);
+                    }
+                    return null;
+                }));
+            }
         }
         
-        results.sort((a, b) -> {
-            String aName = a.getFileName().toLowerCase();
-            String bName = b.getFileName().toLowerCase();
-            
-            int aExactMatches = 0, bExactMatches = 0;
-            for (String term : searchTerms) {
-                if (aName.equals(term)) aExactMatches++;
-                if (bName.equals(term)) bExactMatches++;
+        void commit() {
+            for (FileCatalogue.Recorder unitRecorder : unitRecorders) {
+                recorder.merge(unitRecorder);
             }
-            
-            if (aExactMatches != bExactMatches) {
-                return Integer.compare(bExactMatches, aExactMatches);
+            recorder.commit();
+        }
+    }
+    
+    // Walks one subtree on the calling thread, skipping excluded directories. parentState
+    // is the visitor's state for the directory start is in.
+    private <S> void walk(Path start, java.util.function.Predicate<Path> directoryFilter,
+                          TreeVisitor<S> visitor, S parentState,
+                          FileCatalogue.Recorder recorder, SearchCheckpoint checkpoint,
+                          SearchProfile profile, SearchProfile.Subtree unit) throws IOException {
+        // The states of the directories entered, innermost last; may hold nulls
+        List<S> states = new ArrayList<>();
+        states.add(parentState);
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (isPruned(dir, directoryFilter, profile)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (!chargeDirectory(profile)) {
+                    return FileVisitResult.TERMINATE;
+                }
+                recorder.enterDirectory(dir, attrs);
+                if (checkpoint != null) {
+                    checkpoint.enterDirectory(dir, attrs);
+                }
+                states.add(visitor.enterDirectory(states.get(states.size() - 1), dir));
+                profile.directoryVisited();
+                profile.attributesRead();
+                return FileVisitResult.CONTINUE;
             }
             
-            int aStartsWith = 0, bStartsWith = 0;
-            for (String term : searchTerms) {
-                if (aName.startsWith(term)) aStartsWith++;
-                if (bName.startsWith(term)) bStartsWith++;
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                profile.attributesRead();
+                if (attrs.isRegularFile()) {
+                    recorder.addFile(file, attrs);
+                    profile.fileConsidered();
+                    unit.files.increment();
+                    visitor.visitFile(states.get(states.size() - 1), file, attrs);
+                }
+                return FileVisitResult.CONTINUE;
             }
             
-            if (aStartsWith != bStartsWith) {
-                return Integer.compare(bStartsWith, aStartsWith);
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
             }
             
-            return aName.compareTo(bName);
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                recorder.exitDirectory();
+                states.remove(states.size() - 1);
+                // A listing that failed part way may have missed files
+                if (checkpoint != null && exc == null && !Thread.currentThread().isInterrupted()) {
+                    checkpoint.exitDirectory(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
         });
-        
-        return results;
     }
     
-    public List<SearchResult> searchByContent(String searchTerm, String rootPath, boolean useRegex) {
-        return searchByContent(searchTerm, rootPath, useRegex, false);
+    // The directory filter records its own reason when it rejects a directory
+    private static boolean isPruned(Path dir, java.util.function.Predicate<Path> directoryFilter, SearchProfile profile) {
+        if (isSkippedDirectory(dir)) {
+            profile.directoryPruned("skip list (" + dir.getFileName() + ")");
+            return true;
+        }
+        return directoryFilter != null && !directoryFilter.test(dir);
     }
     
-    public List<SearchResult> searchByContent(String searchTerm, String rootPath, boolean useRegex, boolean useFuzzy) {
-        // For content search, fuzzy search doesn't make sense, so we ignore the useFuzzy parameter
-        final List<SearchResult> results = new ArrayList<>();
-        final Path root = Paths.get(rootPath);
-        final String searchTermFinal = searchTerm;
-        if (!Files.exists(root)) {
-            return results;
+    static boolean isSkippedDirectory(Path dir) {
+        Path name = dir.getFileName();
+        if (name == null) {
+            return false; // filesystem root
         }
-        final java.util.regex.Pattern pattern;
-        if (useRegex) {
-            try {
-                pattern = java.util.regex.Pattern.compile(searchTerm, java.util.regex.Pattern.CASE_INSENSITIVE);
-            } catch (java.util.regex.PatternSyntaxException e) {
-                System.err.println("Invalid regex pattern: " + e.getMessage());
-                return results;
-            }
-        } else {
-            pattern = null;
+        String dirName = name.toString();
+        return SKIP_DIRECTORIES.contains(dirName) || dirName.startsWith(".");
+    }
+    
+    // Whether content searches read the file: as text, or through an extractor
+    private boolean hasText(String lowerName) {
+        return extractorFor(lowerName) != null || isTextFile(lowerName);
+    }
+    
+    private TextExtractor extractorFor(String lowerName) {
+        int dot = lowerName.lastIndexOf('.');
+        return dot >= 0 ? extractors.get(lowerName.substring(dot + 1)) : null;
+    }
+    
+    // Reads the extracted text of a document with reader; null if the document has no
+    // text. A text evicted by another search before it is read is extracted again.
+    private <T> T withExtractedText(Path document, TextExtractor extractor, SearchProfile profile,
+                                    TextReader<T> reader) throws IOException {
+        Path text = extractedText.text(document, extractor, profile);
+        if (text == null) {
+            return null;
         }
-        
         try {
-            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    String dirName = dir.getFileName().toString();
-                    if (SKIP_DIRECTORIES.contains(dirName) || dirName.startsWith(".")) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (attrs.isRegularFile() && attrs.size() <= MAX_FILE_SIZE) {
-                        String fileName = file.getFileName().toString();
-                        String fileNameLower = fileName.toLowerCase();
-                        
-                        // Skip binary files and large files
-                        if (isTextFile(fileNameLower)) {
-                            try {
-                                boolean found = false;
-                                if (useRegex && pattern != null) {
-                                    found = searchInFileWithRegex(file, pattern);
-                                } else {
-                                    found = searchInFile(file, searchTermFinal);
-                                }
-                                
-                                if (found) {
-                                    SearchResult result = new SearchResult(
-                                        file.toString(),
-                                        fileName, // Keep original case
-                                        attrs.size(),
-                                        attrs.lastModifiedTime().toMillis(),
-                                        SearchType.CONTENT
-                                    );
-                                    results.add(result);
-                                }
-                            } catch (Exception e) {
-                                // Skip files with access issues
-                            }
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                
-                @Override
-                public FileVisitResult visitFileFailed(Path file, IOException exc) {
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            System.err.println("Error searching files: " + e.getMessage());
+            return reader.read(text);
+        } catch (NoSuchFileException e) {
+            extractedText.forget(document);
+            text = extractedText.text(document, extractor, profile);
+            return text != null ? reader.read(text) : null;
         }
-        
-        // Sort by file size (smaller files first)
-        results.sort(Comparator.comparingLong(SearchResult::getSize));
-        
-        return results;
     }
     
-    // Overload for backward compatibility
-    public List<SearchResult> searchByContent(String searchTerm, String rootPath) {
-        return searchByContent(searchTerm, rootPath, false);
+    private interface TextReader<T> {
+        T read(Path text) throws IOException;
+    }
+    
+    // A file's words for the content index; a document without text has none
+    private ContentIndex.DocumentTerms readTerms(Path file, long lastModified, long size, SearchProfile profile,
+                                                 IoThrottle throttle) throws IOException {
+        TextExtractor extractor = extractorFor(file.getFileName().toString().toLowerCase());
+        if (extractor == null) {
+            return ContentIndex.read(file, lastModified, size, profile, throttle);
+        }
+        ContentIndex.DocumentTerms terms = withExtractedText(file, extractor, profile,
+            text -> ContentIndex.read(file, text, lastModified, size, profile, null));
+        return terms != null
+            ? terms
+            : new ContentIndex.DocumentTerms(file.toString(), lastModified, size, Collections.emptyMap(), 0);
     }
     
     private boolean isTextFile(String fileName) {
@@ -332,43 +2086,67 @@ public class LiveFileSearch {
                !lowerName.contains("."); // Files without extension
     }
     
-    private boolean searchInFile(Path file, String searchTerm) {
-        try (BufferedReader reader = Files.newBufferedReader(file)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.toLowerCase().contains(searchTerm.toLowerCase())) {
-                    return true;
-                }
+    public void shutdown() {
+        // Searches still running can be resumed by the next engine
+        for (SearchCheckpoint checkpoint : runningCheckpoints) {
+            checkpoint.suspend();
+        }
+        executorService.shutdown();
+        residentExecutor.shutdown();
+        backgroundExecutor.shutdownNow();
+        readerService.shutdownNow();
+        for (LanePool pool : devicePools.values()) {
+            pool.shutdownNow();
+        }
+        progress.shutdown();
+        if (walkSizesFile != null && walkEstimator.isDirty()) {
+            try {
+                walkEstimator.save(walkSizesFile);
+            } catch (IOException e) {
+                System.err.println("Could not save walk sizes: " + e.getMessage());
             }
-        } catch (IOException e) {
-            // File cannot be read, skip it
         }
-        return false;
-    }
-    
-    private boolean searchInFileWithRegex(Path file, java.util.regex.Pattern pattern) {
-        try (BufferedReader reader = Files.newBufferedReader(file)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (pattern.matcher(line).find()) {
-                    return true;
-                }
+        if (subtreeStatsFile != null && subtreeStats.isDirty()) {
+            try {
+                subtreeStats.save(subtreeStatsFile);
+            } catch (IOException e) {
+                System.err.println("Could not save subtree stats: " + e.getMessage());
+            }
+        }
+        if (snapshotFile != null) {
+            try {
+                catalogue.save(snapshotFile);
+            } catch (IOException e) {
+                System.err.println("Could not save catalogue snapshot: " + e.getMessage());
             }
+        }
+        try {
+            extractedText.close();
         } catch (IOException e) {
-            // File cannot be read, skip it
+            System.err.println("Could not save extracted-text cache: " + e.getMessage());
+        }
+        ContentIndex index;
+        synchronized (this) {
+            index = contentIndex;
+        }
+        if (contentIndexFile != null && index != null && index.isDirty()) {
+            try {
+                index.save(contentIndexFile);
+            } catch (IOException e) {
+                System.err.println("Could not save content index: " + e.getMessage());
+            }
         }
-        return false;
-    }
-    
-    public void shutdown() {
-        executorService.shutdown();
     }
     
     public enum SearchType {
-        NAME, CONTENT
+        NAME, PATH, CONTENT, DUPLICATE, QUERY
     }
     
     public static class SearchResult {
+        private static final String[] ENGLISH_MONTHS = {
+            "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+        };
+        
         private final String filePath;
         private final String fileName;
         private final long size;
@@ -395,7 +2173,28 @@ public class LiveFileSearch {
                 fileName, // Show entire filename without truncation
                 formatSize(size),
                 searchType.toString(),
-                new java.text.SimpleDateFormat("MMM dd HH:mm").format(new Date(lastModified)));
+                formatModified(lastModified));
+        }
+        
+        // "MMM dd HH:mm". In English the month names are built in: the first localized
+        // format in a JVM loads the locale data, which costs more than a short search.
+        static String formatModified(long millis) {
+            if (!Locale.getDefault(Locale.Category.FORMAT).getLanguage().equals("en")) {
+                return new java.text.SimpleDateFormat("MMM dd HH:mm").format(new Date(millis));
+            }
+            // The offset from TimeZone rather than ZoneId, which would read the zone rules a second time
+            int offsetSeconds = TimeZone.getDefault().getOffset(millis) / 1000;
+            java.time.LocalDateTime time = java.time.LocalDateTime.ofEpochSecond(
+                Math.floorDiv(millis, 1000L), 0, java.time.ZoneOffset.ofTotalSeconds(offsetSeconds));
+            StringBuilder text = new StringBuilder(12);
+            text.append(ENGLISH_MONTHS[time.getMonthValue() - 1]).append(' ');
+            appendTwoDigits(text, time.getDayOfMonth()).append(' ');
+            appendTwoDigits(text, time.getHour()).append(':');
+            return appendTwoDigits(text, time.getMinute()).toString();
+        }
+        
+        private static StringBuilder appendTwoDigits(StringBuilder text, int value) {
+            return text.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
         }
         
         public String getDisplayName() {
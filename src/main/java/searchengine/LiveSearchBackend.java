@@ -0,0 +1,71 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// The live walk: LiveFileSearch itself, which answers every kind of search under any
+// root by walking it (and reading it, for content). The router's fallback, so it never
+// answers from the resident catalogue or the snapshot, which may be what the router is
+// falling back from; a ranked search brings the content index up to date first. Its
+// cost is the files under the root, from WalkEstimator, times what a file costs on a
+// warm cache; the router corrects for the disk it actually runs on.
+public class LiveSearchBackend implements SearchBackend {
+    private static final double LIST_MILLIS_PER_FILE = 0.006;
+    private static final double READ_MILLIS_PER_FILE = 0.03;
+    private static final double INDEX_MILLIS_PER_FILE = 0.4; // a ranked search updates the index first
+    private static final double FIXED_MILLIS = 1;
+    
+    private final LiveFileSearch engine;
+    
+    public LiveSearchBackend(LiveFileSearch engine) {
+        this.engine = engine;
+    }
+    
+    public LiveFileSearch getEngine() {
+        return engine;
+    }
+    
+    @Override
+    public String getName() {
+        return "live walk";
+    }
+    
+    @Override
+    public Kind getKind() {
+        return Kind.LIVE_WALK;
+    }
+    
+    @Override
+    public Cost estimate(SearchRequest request, Path root) {
+        WalkEstimator estimator = engine.getWalkEstimator();
+        long walked = estimator.walkedFiles(root);
+        long files = walked >= 0 ? walked : estimator.estimate(root);
+        if (files < 0) {
+            return Cost.of(FIXED_MILLIS, "root not readable");
+        }
+        double perFile = request.getKind() == SearchRequest.Kind.RANKED ? INDEX_MILLIS_PER_FILE
+            : request.readsContent() ? READ_MILLIS_PER_FILE
+            : LIST_MILLIS_PER_FILE;
+        return Cost.of(FIXED_MILLIS + files * perFile,
+            String.format("%,d files %s", files, walked >= 0 ? "last walked" : "sampled"));
+    }
+    
+    @Override
+    public List<LiveFileSearch.SearchResult> search(SearchRequest request, List<String> rootPaths) {
+        switch (request.getKind()) {
+            case NAME:
+                return engine.walkByName(request.getTerm(), rootPaths, request.isRegex(), request.isFuzzy());
+            case PATH:
+                return engine.walkByPath(request.getTerm(), rootPaths, request.isRegex(), request.isFuzzy());
+            case CONTENT:
+                return engine.searchByContent(request.getTerm(), rootPaths, request.isRegex());
+            case QUERY:
+                return engine.searchByQuery(request.getQuery(), rootPaths);
+            case RANKED:
+                engine.updateContentIndex(rootPaths);
+                return engine.searchByRelevance(request.getTerm(), rootPaths, request.getLimit());
+            default:
+                throw new IllegalArgumentException("Unknown search: " + request);
+        }
+    }
+}
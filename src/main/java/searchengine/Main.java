@@ -1,6 +1,7 @@
 package searchengine;
 
-import java.util.Scanner;
+import java.io.IOException;
+import java.util.Arrays;
 
 public class Main {
     public static void main(String[] args) {
@@ -10,15 +11,25 @@ public class Main {
                 SimpleLiveSearchCLI cli = new SimpleLiveSearchCLI();
                 cli.start();
             } else if (args[0].equalsIgnoreCase("gui")) {
-                // GUI mode
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    SimpleLiveSearchGUI gui = new SimpleLiveSearchGUI();
-                    gui.setVisible(true);
-                });
+                // GUI mode; Swing is only loaded from here
+                SimpleLiveSearchGUI.main(new String[0]);
+            } else if (args[0].equalsIgnoreCase("run")) {
+                // Batch mode: run each following argument as a CLI command and exit
+                SimpleLiveSearchCLI cli = new SimpleLiveSearchCLI();
+                cli.runBatch(Arrays.asList(args).subList(1, args.length));
+            } else if (args[0].equalsIgnoreCase("worker")) {
+                // Worker process for sharded searches
+                try {
+                    SearchWorker.main(Arrays.copyOfRange(args, 1, args.length));
+                } catch (IOException | IllegalArgumentException e) {
+                    System.err.println("Could not start worker: " + e.getMessage());
+                }
             } else {
-                System.out.println("Usage: java -cp target/classes src.Main [cli|gui]");
+                System.out.println("Usage: java -cp target/classes searchengine.Main [cli|gui|run <command>...|worker [port] [address]]");
                 System.out.println("  cli - Command line interface");
+                System.out.println("  run - Run CLI commands (e.g. \"path ~/docs\" \"content TODO\") and exit");
                 System.out.println("  gui - Graphical user interface");
+                System.out.println("  worker - Serve sharded searches for a coordinator (CLI 'shards' command)");
                 System.out.println("  (no args) - Interactive mode selection");
             }
         } else {
@@ -29,24 +40,33 @@ public class Main {
             System.out.println("2. Graphical User Interface (GUI)");
             System.out.print("Enter choice (1 or 2): ");
             
-            Scanner scanner = new Scanner(System.in);
-            String choice = scanner.nextLine().trim();
+            String choice = readChoice();
             
             if (choice.equals("1")) {
                 SimpleLiveSearchCLI cli = new SimpleLiveSearchCLI();
                 cli.start();
             } else if (choice.equals("2")) {
-                javax.swing.SwingUtilities.invokeLater(() -> {
-                    SimpleLiveSearchGUI gui = new SimpleLiveSearchGUI();
-                    gui.setVisible(true);
-                });
+                SimpleLiveSearchGUI.main(new String[0]);
             } else {
                 System.out.println("Invalid choice. Starting CLI by default.");
                 SimpleLiveSearchCLI cli = new SimpleLiveSearchCLI();
                 cli.start();
             }
-            
-            scanner.close();
         }
     }
+    
+    // Reads one line byte by byte, so nothing after it is taken from the CLI's input,
+    // and without a Scanner, which would load regex and locale data just for this
+    private static String readChoice() {
+        StringBuilder line = new StringBuilder();
+        try {
+            int c;
+            while ((c = System.in.read()) >= 0 && c != '\n') {
+                line.append((char) c);
+            }
+        } catch (IOException e) {
+            // Treated as no choice
+        }
+        return line.toString().trim();
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,152 @@
+package searchengine;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// Measures time and heap allocation per file name for the name matchers, against
+// the toLowerCase()/contains() matching they replaced. Allocation is read from the
+// per-thread allocation counter (as JMH's gc profiler does), after a warm-up so
+// the JIT has settled. The names are a synthetic set in which few names match, like
+// a real tree.
+//
+// Usage: java -cp target/classes searchengine.NameMatchBenchmark [names] [iterations]
+public class NameMatchBenchmark {
+    private static final String[] STEMS = {
+        "report", "notes", "data", "index", "Main", "README", "config", "build",
+        "photo", "invoice", "backup", "test", "module", "package", "style", "server"
+    };
+    private static final String[] EXTENSIONS = {".txt", ".md", ".java", ".log", ".jpg", ".json", ".pdf", ".xml"};
+    private static final int WARMUP_ITERATIONS = 5;
+    
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        if (threads == null) {
+            System.out.println("❌ This JVM does not report per-thread allocation");
+            return;
+        }
+        
+        String[] paths = names(count);
+        System.out.println("=== Name Matcher Benchmark ===");
+        System.out.println(count + " names, " + iterations + " iterations");
+        System.out.println();
+        System.out.printf("%-30s %12s %12s %10s%n", "Case", "ns/name", "bytes/name", "matches");
+        
+        boolean allocationFree = true;
+        allocationFree &= compare(threads, paths, iterations, "literal 'repo'",
+            oldLiteral("repo"), NameMatcher.literal("repo"));
+        allocationFree &= compare(threads, paths, iterations, "literal 'INVOICE-12'",
+            oldLiteral("INVOICE-12"), NameMatcher.literal("INVOICE-12"));
+        List<String> terms = Arrays.asList("back", "7", ".log");
+        allocationFree &= compare(threads, paths, iterations, "fuzzy 'back 7 .log'",
+            oldFuzzy(terms), NameMatcher.allOf(terms));
+        Pattern pattern = Pattern.compile("^notes-\\d+\\.md$", Pattern.CASE_INSENSITIVE);
+        allocationFree &= compare(threads, paths, iterations, "regex '^notes-\\d+\\.md$'",
+            name -> pattern.matcher(name).find(), NameMatcher.regex(pattern));
+        
+        System.out.println();
+        if (allocationFree) {
+            System.out.println("✓ Name matchers allocate nothing per name");
+        } else {
+            System.out.println("❌ Name matchers allocated memory per name");
+        }
+    }
+    
+    // Old matchers see the name as the walk used to produce it; new ones match it in
+    // place in the path string. Returns true if the new matcher allocated nothing.
+    private static boolean compare(com.sun.management.ThreadMXBean threads, String[] paths, int iterations,
+                                   String name, Predicate<String> oldMatcher, NameMatcher newMatcher) {
+        Result before = measure(threads, paths, iterations, path -> oldMatcher.test(path.substring(NameMatcher.nameStart(path))));
+        Result after = measure(threads, paths, iterations, path -> newMatcher.matches(path, NameMatcher.nameStart(path), path.length()));
+        if (before.matches != after.matches) {
+            System.out.println("❌ " + name + ": " + before.matches + " matches before, " + after.matches + " after");
+            return false;
+        }
+        System.out.printf("%-30s %12.1f %12.1f %10d%n", name + " (before)", before.nanosPerName, before.bytesPerName, before.matches);
+        System.out.printf("%-30s %12.1f %12.1f %10d%n", name + " (after)", after.nanosPerName, after.bytesPerName, after.matches);
+        // Allow for the counter's own bookkeeping, far below one byte per name
+        return after.bytesPerName < 0.01;
+    }
+    
+    private static Result measure(com.sun.management.ThreadMXBean threads, String[] paths, int iterations, Predicate<String> matcher) {
+        long threadId = Thread.currentThread().getId();
+        int matches = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            matches = run(paths, matcher);
+        }
+        long bytes = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            matches = run(paths, matcher);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+        double names = (double) paths.length * iterations;
+        return new Result(nanos / names, bytes / names, matches);
+    }
+    
+    private static int run(String[] paths, Predicate<String> matcher) {
+        int matches = 0;
+        for (String path : paths) {
+            if (matcher.test(path)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+    
+    private static Predicate<String> oldLiteral(String term) {
+        return fileName -> fileName.toLowerCase().contains(term.toLowerCase());
+    }
+    
+    private static Predicate<String> oldFuzzy(List<String> terms) {
+        return fileName -> {
+            String fileNameLower = fileName.toLowerCase();
+            for (String term : terms) {
+                if (!fileNameLower.contains(term)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+    
+    private static String[] names(int count) {
+        Random random = new Random(42);
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = "/home/user/projects/dir-" + random.nextInt(500) + "/"
+                + STEMS[random.nextInt(STEMS.length)] + "-" + random.nextInt(100_000)
+                + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+        }
+        return paths;
+    }
+    
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+    
+    private static final class Result {
+        private final double nanosPerName;
+        private final double bytesPerName;
+        private final int matches;
+        
+        Result(double nanosPerName, double bytesPerName, int matches) {
+            this.nanosPerName = nanosPerName;
+            this.bytesPerName = bytesPerName;
+            this.matches = matches;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package searchengine;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Matches a name query against file names without creating any objects for the
+// names it rejects. Terms are prepared once per query in both cases, and names are
+// compared char by char in place, so a name never has to be lowercased or cut out
+// of its path first. Several terms are looked for in one pass over the name.
+// Regex queries reuse one Matcher per thread.
+public class NameMatcher {
+    private static final int MAX_SINGLE_PASS_TERMS = 64; // one bit per term in a long
+    private static final int ASCII = 128;
+    
+    private final char[][] lower;
+    private final char[][] upper;
+    private final int minLength;
+    // Terms that can start at an ASCII char, by char, and terms that start with any other
+    private final long[] startingWith = new long[ASCII];
+    private long startingOther;
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matcher;
+    
+    private NameMatcher(List<String> terms, Pattern pattern) {
+        this.lower = new char[terms.size()][];
+        this.upper = new char[terms.size()][];
+        int longest = 0;
+        for (int t = 0; t < terms.size(); t++) {
+            String term = terms.get(t);
+            lower[t] = new char[term.length()];
+            upper[t] = new char[term.length()];
+            for (int i = 0; i < term.length(); i++) {
+                lower[t][i] = Character.toLowerCase(term.charAt(i));
+                // From the lowercase form, so that for ASCII names the two cases are all there is
+                upper[t][i] = Character.toUpperCase(lower[t][i]);
+            }
+            longest = Math.max(longest, term.length());
+            if (t < MAX_SINGLE_PASS_TERMS && term.length() > 0) {
+                if (lower[t][0] < ASCII && upper[t][0] < ASCII) {
+                    startingWith[lower[t][0]] |= 1L << t;
+                    startingWith[upper[t][0]] |= 1L << t;
+                } else {
+                    startingOther |= 1L << t;
+                }
+            }
+        }
+        this.minLength = longest;
+        this.pattern = pattern;
+        this.matcher = pattern != null ? ThreadLocal.withInitial(() -> pattern.matcher("")) : null;
+    }
+    
+    // Names containing the term, ignoring case
+    public static NameMatcher literal(String term) {
+        return new NameMatcher(Collections.singletonList(term), null);
+    }
+    
+    // Names containing every one of the terms, ignoring case, in any order
+    public static NameMatcher allOf(List<String> terms) {
+        List<String> nonEmpty = new ArrayList<>();
+        for (String term : terms) {
+            if (!term.isEmpty()) {
+                nonEmpty.add(term);
+            }
+        }
+        return new NameMatcher(withoutImpliedTerms(nonEmpty), null);
+    }
+    
+    public static NameMatcher regex(Pattern pattern) {
+        return new NameMatcher(Collections.emptyList(), pattern);
+    }
+    
+    public boolean isRegex() {
+        return pattern != null;
+    }
+    
+    // The terms in lowercase; a matching name contains every one of them. Empty for a regex.
+    List<char[]> lowercaseTerms() {
+        return Arrays.asList(lower);
+    }
+    
+    public boolean matches(CharSequence name) {
+        return matches(name, 0, name.length());
+    }
+    
+    // Matches the part of text between start and end, typically the name at the end
+    // of a path string (see nameStart)
+    public boolean matches(CharSequence text, int start, int end) {
+        if (pattern != null) {
+            Matcher m = matcher.get();
+            m.reset(text);
+            m.region(start, end);
+            boolean found = m.find();
+            m.reset(""); // don't keep the last path reachable from the thread
+            return found;
+        }
+        if (end - start < minLength) {
+            return false;
+        }
+        if (lower.length == 1) {
+            return indexOf(text, start, end, 0) >= 0;
+        }
+        if (lower.length > MAX_SINGLE_PASS_TERMS) {
+            for (int t = 0; t < lower.length; t++) {
+                if (indexOf(text, start, end, t) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        long missing = lower.length == 64 ? -1L : (1L << lower.length) - 1;
+        for (int i = start; i < end && missing != 0; i++) {
+            char c = text.charAt(i);
+            // A non-ASCII char may lowercase to an ASCII one, so it could start any term
+            long candidates = c < ASCII ? startingWith[c] | startingOther : missing;
+            for (long bits = candidates & missing; bits != 0; bits &= bits - 1) {
+                int t = Long.numberOfTrailingZeros(bits);
+                if (i + lower[t].length <= end && regionMatches(text, i, t)) {
+                    missing &= ~(1L << t);
+                }
+            }
+        }
+        return missing == 0;
+    }
+    
+    // Index of the first char of the last name element of a path string
+    public static int nameStart(CharSequence path) {
+        for (int i = path.length() - 1; i >= 0; i--) {
+            char c = path.charAt(i);
+            if (c == '/' || c == '\\') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+    
+    private int indexOf(CharSequence text, int start, int end, int t) {
+        int last = end - lower[t].length;
+        for (int i = start; i <= last; i++) {
+            if (regionMatches(text, i, t)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private boolean regionMatches(CharSequence text, int offset, int t) {
+        char[] termLower = lower[t];
+        char[] termUpper = upper[t];
+        for (int i = 0; i < termLower.length; i++) {
+            char c = text.charAt(offset + i);
+            if (c != termLower[i] && c != termUpper[i] && (c < ASCII || Character.toLowerCase(c) != termLower[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // A term contained in another term is found whenever that one is, so it need not
+    // be looked for at all
+    private static List<String> withoutImpliedTerms(List<String> terms) {
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i).toLowerCase();
+            boolean implied = false;
+            for (int j = 0; j < terms.size() && !implied; j++) {
+                String other = terms.get(j).toLowerCase();
+                // Of two equal terms, only the first is kept
+                implied = j != i && other.contains(term) && (other.length() > term.length() || j < i);
+            }
+            if (!implied) {
+                kept.add(terms.get(i));
+            }
+        }
+        return kept;
+    }
+}
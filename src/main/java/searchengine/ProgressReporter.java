@@ -0,0 +1,193 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Reports the progress of running searches to a listener at a fixed rate, from the
+// counters of their profiles. One thread serves all searches of an engine; each
+// report is a SearchProgress. Rates and the ETA are smoothed over the last few
+// reports, so a burst of small files does not make the ETA jump around.
+final class ProgressReporter {
+    private static final double SMOOTHING = 0.3; // weight of the newest interval
+    private static final double MIN_FRACTION_FOR_ETA = 0.01;
+    private static final double UNSEEN_SHARE = 0.05; // assumed left when a walk outgrows its estimate
+    
+    private final WalkEstimator estimator;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<SearchProfile, Tracked> running = new ConcurrentHashMap<>();
+    private volatile Consumer<SearchProgress> listener;
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> ticks;
+    
+    ProgressReporter(WalkEstimator estimator) {
+        this.estimator = estimator;
+    }
+    
+    // Replaces the listener; null stops reporting
+    synchronized void setListener(Consumer<SearchProgress> listener, long intervalMillis) {
+        this.listener = listener;
+        if (ticks != null) {
+            ticks.cancel(false);
+            ticks = null;
+        }
+        if (listener == null) {
+            running.clear();
+            return;
+        }
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "search-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        // Not at a fixed rate: a tick that samples a new root takes a while, and the ones
+        // held up behind it would only repeat its report
+        ticks = timer.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    void start(SearchProfile profile) {
+        if (listener != null && !profile.isBackground()) {
+            running.put(profile, new Tracked(ids.incrementAndGet()));
+        }
+    }
+    
+    // Sends the last report of the search, if it was being reported and has not been
+    // stopped already. Called on the search's thread: unless it was cancelled, the
+    // search is complete.
+    void stop(SearchProfile profile) {
+        boolean completed = !Thread.currentThread().isInterrupted();
+        Tracked tracked = running.remove(profile);
+        Consumer<SearchProgress> current = listener;
+        if (tracked == null || current == null) {
+            return;
+        }
+        synchronized (tracked) {
+            tracked.stopped = true;
+            notify(current, tracked.progress(profile, estimator, completed));
+        }
+    }
+    
+    synchronized void shutdown() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        running.clear();
+    }
+    
+    private void tick() {
+        Consumer<SearchProgress> current = listener;
+        if (current == null) {
+            return;
+        }
+        for (Map.Entry<SearchProfile, Tracked> entry : running.entrySet()) {
+            Tracked tracked = entry.getValue();
+            synchronized (tracked) {
+                // The last report has gone out already
+                if (!tracked.stopped) {
+                    notify(current, tracked.progress(entry.getKey(), estimator, false));
+                }
+            }
+        }
+    }
+    
+    private static void notify(Consumer<SearchProgress> listener, SearchProgress progress) {
+        try {
+            listener.accept(progress);
+        } catch (RuntimeException e) {
+            System.err.println("Progress listener failed: " + e.getMessage());
+        }
+    }
+    
+    // What is known about one running search between reports
+    private static final class Tracked {
+        private final long id;
+        private final long startNanos = System.nanoTime();
+        private long estimate = -1;
+        private boolean estimated;
+        private long lastNanos = startNanos;
+        private long lastFiles;
+        private long lastBytes;
+        private double lastFraction;
+        private double filesPerSecond = -1;
+        private double bytesPerSecond = -1;
+        private double fractionPerSecond = -1;
+        private boolean stopped;
+        
+        Tracked(long id) {
+            this.id = id;
+        }
+        
+        SearchProgress progress(SearchProfile profile, WalkEstimator estimator, boolean completed) {
+            long now = System.nanoTime();
+            // Read first, so that a walk that ends meanwhile has counted every file read next
+            boolean walkFinished = profile.isWalkFinished();
+            long files = profile.getFilesConsidered();
+            long bytes = profile.getBytesRead();
+            if (!estimated && !profile.getRoots().isEmpty()) {
+                // Once the roots are resolved; a root never walked is sampled here, off the search's threads
+                estimated = true;
+                estimate = 0;
+                for (Path root : profile.getRoots()) {
+                    long rootFiles = estimator.estimate(root);
+                    if (rootFiles < 0) {
+                        estimate = -1;
+                        break;
+                    }
+                    estimate += rootFiles;
+                }
+            }
+            
+            long total;
+            if (walkFinished) {
+                total = files;
+            } else if (estimate >= 0) {
+                total = files < estimate ? estimate : (long) Math.ceil(files / (1 - UNSEEN_SHARE));
+            } else {
+                total = -1;
+            }
+            double fraction;
+            if (completed) {
+                fraction = 1;
+            } else if (total < 0) {
+                fraction = -1;
+            } else {
+                fraction = total == 0 ? 1 : (double) files / total;
+                long queued = profile.getFilesQueued();
+                if (queued > 0) {
+                    fraction *= Math.min(1, (double) profile.getFilesRead() / queued);
+                }
+                // Only the search itself knows it is done
+                fraction = Math.min(fraction, 0.99);
+            }
+            
+            double seconds = (now - lastNanos) / 1e9;
+            if (seconds > 0) {
+                filesPerSecond = smooth(filesPerSecond, (files - lastFiles) / seconds);
+                bytesPerSecond = smooth(bytesPerSecond, (bytes - lastBytes) / seconds);
+                if (fraction >= 0) {
+                    fractionPerSecond = smooth(fractionPerSecond, Math.max(0, fraction - lastFraction) / seconds);
+                }
+            }
+            lastNanos = now;
+            lastFiles = files;
+            lastBytes = bytes;
+            if (fraction >= 0) {
+                lastFraction = fraction;
+            }
+            long eta = fraction >= MIN_FRACTION_FOR_ETA && fractionPerSecond > 0 && !completed
+                ? (long) ((1 - fraction) / fractionPerSecond * 1000)
+                : -1;
+            return new SearchProgress(id, profile.getDescription(), TimeUnit.NANOSECONDS.toMillis(now - startNanos),
+                files, profile.getFilesRead(), bytes, total, fraction, Math.max(0, filesPerSecond),
+                Math.max(0, bytesPerSecond), eta, completed || stopped);
+        }
+        
+        private static double smooth(double average, double sample) {
+            return average < 0 ? sample : average + SMOOTHING * (sample - average);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package searchengine;
+
+// Thrown by a search that waited longer for a QueryScheduler slot than its lane
+// allows. Nothing was searched; the caller may try again later.
+public class QueryRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    
+    public QueryRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,158 @@
+package searchengine;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Admission control in front of a LiveFileSearch that many callers share. Every
+// query is classified by what it will cost before it starts: name lookups and
+// queries without content predicates only list directories and go to the
+// INTERACTIVE lane, while anything that reads file contents goes to the BULK lane.
+// Each lane runs a limited number of queries at once and admits the rest in
+// arrival order. A bulk query is not admitted while an interactive one is waiting.
+// A query that waits longer than its lane allows is rejected with a
+// QueryRejectedException rather than queued indefinitely. Bulk queries also share an
+// IoThrottle, which limits the files, bytes and directories they may touch per second.
+//
+// Lanes also order the work inside the engine: the walker pools run interactive
+// tasks first and keep a thread free of bulk work (see LanePool).
+public class QueryScheduler {
+    public enum Lane { INTERACTIVE, BULK }
+    
+    private static final long DEFAULT_INTERACTIVE_WAIT = 10_000; // ms
+    private static final long DEFAULT_BULK_WAIT = 120_000; // ms
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Lane, Deque<Object>> waiting = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> running = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> slots = new EnumMap<>(Lane.class);
+    private final Map<Lane, Long> maxWaitMillis = new EnumMap<>(Lane.class);
+    private final Map<Lane, Long> rejected = new EnumMap<>(Lane.class);
+    
+    private final IoThrottle bulkThrottle = new IoThrottle();
+    
+    public QueryScheduler(int interactiveSlots, int bulkSlots) {
+        for (Lane lane : Lane.values()) {
+            waiting.put(lane, new ArrayDeque<>());
+            running.put(lane, 0);
+            rejected.put(lane, 0L);
+        }
+        setSlots(Lane.INTERACTIVE, interactiveSlots);
+        setSlots(Lane.BULK, bulkSlots);
+        maxWaitMillis.put(Lane.INTERACTIVE, DEFAULT_INTERACTIVE_WAIT);
+        maxWaitMillis.put(Lane.BULK, DEFAULT_BULK_WAIT);
+    }
+    
+    // How many queries of a lane run at once
+    public void setSlots(Lane lane, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Slots must be positive: " + count);
+        }
+        lock.lock();
+        try {
+            slots.put(lane, count);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getSlots(Lane lane) {
+        lock.lock();
+        try {
+            return slots.get(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // How long a query may wait for a slot before it is rejected
+    public void setMaxWait(Lane lane, long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Maximum wait must not be negative: " + millis);
+        }
+        lock.lock();
+        try {
+            maxWaitMillis.put(lane, millis);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getMaxWait(Lane lane) {
+        lock.lock();
+        try {
+            return maxWaitMillis.get(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // The limits bulk queries share: files, bytes and directories per second, and
+    // whether their reads bypass the page cache
+    public IoThrottle getBulkThrottle() {
+        return bulkThrottle;
+    }
+    
+    public long getRejected(Lane lane) {
+        lock.lock();
+        try {
+            return rejected.get(lane);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Blocks until the query may run; the caller must release the lane afterwards.
+    // Returns how long it waited, in nanoseconds.
+    public long admit(Lane lane, String description) throws InterruptedException {
+        long start = System.nanoTime();
+        Object ticket = new Object();
+        lock.lockInterruptibly();
+        try {
+            Deque<Object> queue = waiting.get(lane);
+            queue.addLast(ticket);
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis.get(lane));
+            try {
+                while (!mayStart(lane, ticket)) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        rejected.merge(lane, 1L, Long::sum);
+                        throw new QueryRejectedException("Too busy: " + description + " waited "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms for one of "
+                            + slots.get(lane) + " " + lane.name().toLowerCase() + " slots");
+                    }
+                    changed.awaitNanos(left);
+                }
+                running.merge(lane, 1, Integer::sum);
+            } finally {
+                queue.remove(ticket);
+                // The next query in line may be able to start now, or a bulk query
+                // may no longer be held back by this one
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return System.nanoTime() - start;
+    }
+    
+    public void release(Lane lane) {
+        lock.lock();
+        try {
+            running.merge(lane, -1, Integer::sum);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // First in its lane, a free slot, and for bulk queries no interactive query waiting
+    private boolean mayStart(Lane lane, Object ticket) {
+        return waiting.get(lane).peekFirst() == ticket
+            && running.get(lane) < slots.get(lane)
+            && (lane == Lane.INTERACTIVE || waiting.get(Lane.INTERACTIVE).isEmpty());
+    }
+}
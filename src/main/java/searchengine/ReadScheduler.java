@@ -0,0 +1,173 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Sits between the walkers and the content matcher. Walkers queue candidate files
+// and reader threads take them back in an order that is kinder to the disk than
+// walk order: small files first, so the first results arrive quickly, then files
+// in subtrees where past searches found results (see SubtreeStats), then by
+// directory and inode so reads move forward through the disk instead of seeking
+// back and forth. The queue is bounded, which holds the walkers back when reading
+// falls behind, and only a few large files are read at the same time.
+public class ReadScheduler {
+    private static final int SMALL = 0;
+    private static final int MEDIUM = 1;
+    private static final int LARGE = 2;
+    private static final Pattern INODE = Pattern.compile("ino=(\\d+)");
+    private static final Comparator<Entry> ORDER = Comparator
+        .comparingInt((Entry entry) -> entry.sizeClass)
+        .thenComparing(entry -> !entry.preferred)
+        .thenComparing(entry -> entry.directory)
+        .thenComparingLong(entry -> entry.inode)
+        .thenComparingLong(entry -> entry.sequence);
+    
+    private final int capacity;
+    private final long smallFileSize;
+    private final long largeFileSize;
+    private final int maxLargeReads;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(ORDER);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private long sequence;
+    private int largeReads;
+    private boolean closed;
+    
+    public ReadScheduler(int capacity, long smallFileSize, long largeFileSize, int maxLargeReads) {
+        this.capacity = Math.max(1, capacity);
+        this.smallFileSize = smallFileSize;
+        this.largeFileSize = largeFileSize;
+        this.maxLargeReads = Math.max(1, maxLargeReads);
+    }
+    
+    public interface Reader {
+        void read(Path file, BasicFileAttributes attrs) throws Exception;
+    }
+    
+    // Blocks while the queue is full
+    public void submit(Path file, BasicFileAttributes attrs) throws InterruptedException {
+        submit(file, attrs, false);
+    }
+    
+    // A preferred file is read before others of its size class
+    public void submit(Path file, BasicFileAttributes attrs, boolean preferred) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity && !closed) {
+                changed.await();
+            }
+            if (closed) {
+                return;
+            }
+            queue.add(new Entry(file, attrs, sizeClass(attrs.size()), preferred, sequence++));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // No more files will be submitted; readers finish what is queued and return
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Run by each reader thread until the scheduler is closed and empty. Files the
+    // reader fails on are skipped.
+    public void drain(Reader reader) throws InterruptedException {
+        while (true) {
+            Entry entry = take();
+            if (entry == null) {
+                return;
+            }
+            try {
+                reader.read(entry.file, entry.attrs);
+            } catch (Exception e) {
+                // Skip files with access issues
+            } finally {
+                if (entry.sizeClass == LARGE) {
+                    lock.lock();
+                    try {
+                        largeReads--;
+                        changed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+    
+    private Entry take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Entry head = queue.peek();
+                if (head == null) {
+                    if (closed) {
+                        return null;
+                    }
+                } else if (head.sizeClass != LARGE || largeReads < maxLargeReads) {
+                    // Large files sort last, so waiting here never holds back a smaller one
+                    queue.poll();
+                    if (head.sizeClass == LARGE) {
+                        largeReads++;
+                    }
+                    changed.signalAll();
+                    return head;
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private int sizeClass(long size) {
+        if (size <= smallFileSize) {
+            return SMALL;
+        }
+        return size > largeFileSize ? LARGE : MEDIUM;
+    }
+    
+    // Unix file keys print as "(dev=...,ino=...)"; elsewhere there is no inode to sort by
+    private static long inode(Object fileKey) {
+        if (fileKey == null) {
+            return 0;
+        }
+        Matcher matcher = INODE.matcher(fileKey.toString());
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+    
+    private static final class Entry {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private final int sizeClass;
+        private final boolean preferred;
+        private final String directory;
+        private final long inode;
+        private final long sequence;
+        
+        Entry(Path file, BasicFileAttributes attrs, int sizeClass, boolean preferred, long sequence) {
+            this.file = file;
+            this.attrs = attrs;
+            this.sizeClass = sizeClass;
+            this.preferred = preferred;
+            Path parent = file.getParent();
+            this.directory = parent != null ? parent.toString() : "";
+            this.inode = inode(attrs.fileKey());
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package searchengine;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Matches a query against the path of a file relative to the search directory, written
+// with '/' between elements and starting with one, e.g. /service-a/config/app.yml, so
+// that a term starting with '/' only matches at the start of an element.
+//
+// The part of the path that a directory's files have in common is matched once, when
+// the directory is entered (see Directory): terms found in it are not looked for again,
+// and a term that crosses the last '/' comes down to whether the directory path ends
+// with the part before it. A file then costs one NameMatcher pass over its name, as it
+// does in a name search. A regex has no state to carry over, so its files are matched
+// through a view of the directory path followed by the name instead of a new string.
+public class RelativePathMatcher {
+    private static final int MAX_TERMS = 64; // one bit per term in a long
+    private static final char SEPARATOR = '/';
+    private static final String ROOT = "/";
+    
+    private final String[] terms;
+    private final NameMatcher[] termMatchers;
+    // For a term with a '/' that has chars after its last one: the part up to and including
+    // that '/', which the directory path has to end with, and the rest, which starts the name
+    private final NameMatcher[] heads;
+    private final int[] headLengths;
+    private final NameMatcher[] tails;
+    private final int[] tailLengths;
+    private final long withSeparator; // the terms that cannot be in a name
+    private final NameMatcher regex;
+    private final ThreadLocal<PathView> view;
+    // The matcher for the terms of a name that the directory path does not contain, by those it does
+    private final Map<Long, Optional<NameMatcher>> rest = new ConcurrentHashMap<>();
+    private final Directory root;
+    
+    private RelativePathMatcher(List<String> terms, Pattern pattern) {
+        if (terms.size() > MAX_TERMS) {
+            throw new IllegalArgumentException("A path search takes at most " + MAX_TERMS + " terms");
+        }
+        int count = terms.size();
+        this.terms = new String[count];
+        this.termMatchers = new NameMatcher[count];
+        this.heads = new NameMatcher[count];
+        this.headLengths = new int[count];
+        this.tails = new NameMatcher[count];
+        this.tailLengths = new int[count];
+        long separated = 0;
+        for (int t = 0; t < count; t++) {
+            // Either separator may be typed on Windows
+            String term = terms.get(t).replace(File.separatorChar, SEPARATOR);
+            this.terms[t] = term;
+            termMatchers[t] = NameMatcher.literal(term);
+            int last = term.lastIndexOf(SEPARATOR);
+            if (last >= 0) {
+                separated |= 1L << t;
+                if (last + 1 < term.length()) {
+                    heads[t] = NameMatcher.literal(term.substring(0, last + 1));
+                    headLengths[t] = last + 1;
+                    tails[t] = NameMatcher.literal(term.substring(last + 1));
+                    tailLengths[t] = term.length() - last - 1;
+                }
+            }
+        }
+        this.withSeparator = separated;
+        this.regex = pattern != null ? NameMatcher.regex(pattern) : null;
+        this.view = pattern != null ? ThreadLocal.withInitial(PathView::new) : null;
+        this.root = enter(null, ROOT);
+    }
+    
+    // Paths containing the term, ignoring case
+    public static RelativePathMatcher literal(String term) {
+        return new RelativePathMatcher(Collections.singletonList(term), null);
+    }
+    
+    // Paths containing every one of the terms, ignoring case, in any order
+    public static RelativePathMatcher allOf(List<String> terms) {
+        List<String> nonEmpty = new ArrayList<>();
+        for (String term : terms) {
+            if (!term.isEmpty()) {
+                nonEmpty.add(term);
+            }
+        }
+        return new RelativePathMatcher(nonEmpty, null);
+    }
+    
+    public static RelativePathMatcher regex(Pattern pattern) {
+        return new RelativePathMatcher(Collections.emptyList(), pattern);
+    }
+    
+    public boolean isRegex() {
+        return regex != null;
+    }
+    
+    // The search directory itself
+    public Directory root() {
+        return root;
+    }
+    
+    // A subdirectory of the given directory
+    public Directory child(Directory parent, CharSequence name) {
+        return enter(parent, parent.path + name + SEPARATOR);
+    }
+    
+    // Whether the file whose name is the part of text between start and end, in the
+    // given directory, matches
+    public boolean matches(Directory directory, CharSequence text, int start, int end) {
+        if (regex != null) {
+            PathView path = view.get();
+            path.set(directory.path, text, start, end);
+            try {
+                return regex.matches(path);
+            } finally {
+                path.set(null, null, 0, 0); // don't keep the last path reachable from the thread
+            }
+        }
+        if (directory.rest != null && !directory.rest.matches(text, start, end)) {
+            return false;
+        }
+        for (long bits = withSeparator & ~directory.found; bits != 0; bits &= bits - 1) {
+            int t = Long.numberOfTrailingZeros(bits);
+            if ((directory.headEnds & (1L << t)) == 0 || start + tailLengths[t] > end
+                || !tails[t].matches(text, start, start + tailLengths[t])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private Directory enter(Directory parent, String path) {
+        if (regex != null) {
+            return new Directory(path, 0, 0, null);
+        }
+        long found = parent != null ? parent.found : 0;
+        long headEnds = 0;
+        for (int t = 0; t < terms.length; t++) {
+            long bit = 1L << t;
+            if ((found & bit) != 0) {
+                continue;
+            }
+            // Only an occurrence that reaches into the new element can be new
+            int from = parent != null ? Math.max(0, parent.path.length() - terms[t].length() + 1) : 0;
+            if (termMatchers[t].matches(path, from, path.length())) {
+                found |= bit;
+            } else if (heads[t] != null && path.length() >= headLengths[t]
+                       && heads[t].matches(path, path.length() - headLengths[t], path.length())) {
+                headEnds |= bit;
+            }
+        }
+        long nameTermsFound = found & ~withSeparator;
+        NameMatcher restMatcher = rest.computeIfAbsent(nameTermsFound, key -> {
+            List<String> left = new ArrayList<>();
+            for (int t = 0; t < terms.length; t++) {
+                if ((key & (1L << t)) == 0 && (withSeparator & (1L << t)) == 0) {
+                    left.add(terms[t]);
+                }
+            }
+            return left.isEmpty() ? Optional.empty() : Optional.of(NameMatcher.allOf(left));
+        }).orElse(null);
+        return new Directory(path, found, headEnds, restMatcher);
+    }
+    
+    // What the files of one directory have in common: its path relative to the search
+    // directory, and for a literal query the terms already found in that path, the terms
+    // crossing into the name whose first part it ends with, and the matcher for the
+    // terms left to look for in the name (null if none)
+    public static final class Directory {
+        private final String path; // with a '/' at either end
+        private final long found;
+        private final long headEnds;
+        private final NameMatcher rest;
+        
+        private Directory(String path, long found, long headEnds, NameMatcher rest) {
+            this.path = path;
+            this.found = found;
+            this.headEnds = headEnds;
+            this.rest = rest;
+        }
+        
+        public String getPath() {
+            return path;
+        }
+    }
+    
+    // A directory path followed by part of a text, read in place
+    private static final class PathView implements CharSequence {
+        private String directory;
+        private CharSequence text;
+        private int start;
+        private int length;
+        
+        void set(String directory, CharSequence text, int start, int end) {
+            this.directory = directory;
+            this.text = text;
+            this.start = start;
+            this.length = directory != null ? directory.length() + end - start : 0;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            int inDirectory = directory.length();
+            return index < inDirectory ? directory.charAt(index) : text.charAt(start + index - inDirectory);
+        }
+        
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder path = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                path.append(charAt(i));
+            }
+            return path.toString();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// Worker processes reached through a SearchCoordinator, on this machine or others.
+// They answer name, fuzzy, content and query searches, spread over every worker, at
+// the price of a round trip and of starting the search in each worker. Path searches
+// and ranked searches stay in this process: shards would change the relative paths,
+// and the content index lives here.
+public class RemoteSearchBackend implements SearchBackend {
+    private static final double ROUND_TRIP_MILLIS = 20;
+    private static final double LIST_MILLIS_PER_FILE = 0.006;
+    private static final double READ_MILLIS_PER_FILE = 0.03;
+    
+    private final SearchCoordinator coordinator;
+    private final WalkEstimator estimator;
+    
+    // estimator sizes the roots; workers must see the same paths as this process
+    public RemoteSearchBackend(SearchCoordinator coordinator, WalkEstimator estimator) {
+        this.coordinator = coordinator;
+        this.estimator = estimator;
+    }
+    
+    public SearchCoordinator getCoordinator() {
+        return coordinator;
+    }
+    
+    @Override
+    public String getName() {
+        return coordinator.getWorkerCount() + " workers";
+    }
+    
+    @Override
+    public Kind getKind() {
+        return Kind.REMOTE_DAEMON;
+    }
+    
+    @Override
+    public Cost estimate(SearchRequest request, Path root) {
+        switch (request.getKind()) {
+            case PATH:
+                return Cost.unavailable("shards change relative paths");
+            case RANKED:
+                return Cost.unavailable("content index is in this process");
+            default:
+                break;
+        }
+        long walked = estimator.walkedFiles(root);
+        long files = walked >= 0 ? walked : estimator.estimate(root);
+        if (files < 0) {
+            return Cost.of(ROUND_TRIP_MILLIS, "root not readable here");
+        }
+        double perFile = request.readsContent() ? READ_MILLIS_PER_FILE : LIST_MILLIS_PER_FILE;
+        return Cost.of(ROUND_TRIP_MILLIS + files * perFile / coordinator.getWorkerCount(),
+            String.format("%,d files over %d workers", files, coordinator.getWorkerCount()));
+    }
+    
+    @Override
+    public List<LiveFileSearch.SearchResult> search(SearchRequest request, List<String> rootPaths) {
+        switch (request.getKind()) {
+            case NAME:
+                return coordinator.searchByName(request.getTerm(), rootPaths, request.isRegex(), request.isFuzzy());
+            case CONTENT:
+                return coordinator.searchByContent(request.getTerm(), rootPaths, request.isRegex());
+            case QUERY:
+                return coordinator.searchByQuery(request.getQuery(), rootPaths);
+            default:
+                throw new IllegalArgumentException("Not answered by workers: " + request);
+        }
+    }
+}
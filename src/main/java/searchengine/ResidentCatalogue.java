@@ -0,0 +1,789 @@
+package searchengine;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Every file under a set of roots, kept in memory so that name queries are a scan of
+// memory instead of a walk of the disk. There are no objects per file: the names are
+// packed back to back into direct (off-heap) buffers, one byte per char when a name
+// fits Latin-1 and two otherwise, and the rest lives in parallel primitive arrays
+// (parent directory, size, mtime). Directories are entries as well, so a path is
+// put together from its parents only for the names that match.
+//
+// A catalogue is immutable once built; the engine replaces it with a new one to
+// bring it up to date.
+public class ResidentCatalogue {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024; // bytes of names per buffer
+    private static final int INITIAL_SEGMENT_SIZE = 1024 * 1024;
+    private static final int WIDE = 0x80000000; // set in an offset when the name is UTF-16
+    private static final long DIRECTORY = -1; // the size of a directory entry
+    private static final int MIN_SCAN_TASK = 64 * 1024; // entries
+    private static final int CANDIDATE_COST = 2; // an anchor to check, in words to look at closely
+    
+    private final List<Path> roots;
+    private final long builtMillis;
+    private final ByteBuffer[] segments;
+    // The entries of segment s are segmentStart[s] up to segmentStart[s + 1]
+    private final int[] segmentStart;
+    private final int[] nameOffset;
+    private final int[] parent; // -1 for a root, whose name is its whole path
+    private final long[] size;
+    private final long[] lastModified;
+    private final int fileCount;
+    private final long nameBytes;
+    // Sorted entries of the directories and of the names stored as UTF-16
+    private final int[] directoryEntries;
+    private final int[] wideEntries;
+    // How often each byte, and each pair of adjacent bytes, occurs in the Latin-1 names
+    private final long[] byteCounts;
+    private final long[] pairCounts;
+    
+    private ResidentCatalogue(Builder builder) {
+        this.roots = builder.roots;
+        this.builtMillis = builder.startedMillis;
+        this.segments = builder.segments.toArray(new ByteBuffer[0]);
+        this.segmentStart = new int[segments.length + 1];
+        for (int s = 0; s < builder.segmentStart.size(); s++) {
+            segmentStart[s] = builder.segmentStart.get(s);
+        }
+        segmentStart[segments.length] = builder.count;
+        this.nameOffset = Arrays.copyOf(builder.nameOffset, builder.count);
+        this.parent = Arrays.copyOf(builder.parent, builder.count);
+        this.size = Arrays.copyOf(builder.size, builder.count);
+        this.lastModified = Arrays.copyOf(builder.lastModified, builder.count);
+        this.fileCount = builder.fileCount;
+        long bytes = 0;
+        for (ByteBuffer segment : segments) {
+            bytes += segment.limit();
+        }
+        this.nameBytes = bytes;
+        this.directoryEntries = Arrays.copyOf(builder.directoryEntries, builder.directoryCount);
+        this.wideEntries = Arrays.copyOf(builder.wideEntries, builder.wideCount);
+        this.byteCounts = builder.byteCounts;
+        this.pairCounts = builder.pairCounts;
+    }
+    
+    public List<Path> getRoots() {
+        return roots;
+    }
+    
+    // When the walk that built this catalogue started; files changed since may be missing
+    public long getBuiltMillis() {
+        return builtMillis;
+    }
+    
+    public int getFileCount() {
+        return fileCount;
+    }
+    
+    public int getDirectoryCount() {
+        return nameOffset.length - fileCount;
+    }
+    
+    // Off-heap bytes taken by the names
+    public long getNameBytes() {
+        return nameBytes;
+    }
+    
+    // Whether every file under the directory is in this catalogue
+    public boolean covers(Path directory) {
+        for (Path root : roots) {
+            if (directory.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Adds the files under the query roots, which this catalogue must cover, whose names
+    // the matcher accepts. The entries are split into ranges that the executor scans in
+    // parallel with the calling thread.
+    public void search(List<Path> queryRoots, NameMatcher matcher, List<LiveFileSearch.SearchResult> results,
+                       ExecutorService executor, int parallelism, SearchProfile profile) throws InterruptedException {
+        List<int[]> matches = scanAll((segment, start, end) -> scan(segment, start, end, matcher, profile),
+            executor, parallelism);
+        // Query roots that are catalogue roots take all of their matches without a look at the path
+        boolean whole = roots.containsAll(queryRoots) && queryRoots.containsAll(roots);
+        List<String> rootPaths = new ArrayList<>();
+        for (Path root : queryRoots) {
+            rootPaths.add(root.toString());
+        }
+        addResults(matches, whole ? null : rootPaths, LiveFileSearch.SearchType.NAME, results);
+    }
+    
+    // search for a path query (see RelativePathMatcher), under query roots that are
+    // directories. The query's state for each directory under them is worked out once,
+    // from its parent's, and shared by the directory's files.
+    public void searchPaths(List<Path> queryRoots, RelativePathMatcher matcher, List<LiveFileSearch.SearchResult> results,
+                            ExecutorService executor, int parallelism, SearchProfile profile) throws InterruptedException {
+        RelativePathMatcher.Directory[] directories = directoryStates(queryRoots, matcher);
+        List<int[]> matches = scanAll((segment, start, end) -> scanPaths(segment, start, end, matcher, directories, profile),
+            executor, parallelism);
+        addResults(matches, null, LiveFileSearch.SearchType.PATH, results);
+    }
+    
+    // Scans all entries, range by range, the executor in parallel with the calling thread
+    private List<int[]> scanAll(RangeScan scan, ExecutorService executor, int parallelism) throws InterruptedException {
+        int entries = nameOffset.length;
+        int taskSize = Math.max(MIN_SCAN_TASK, entries / (parallelism * 4) + 1);
+        List<Future<int[]>> tasks = new ArrayList<>();
+        List<int[]> matches = new ArrayList<>();
+        try {
+            for (int s = 0; s < segments.length; s++) {
+                for (int from = segmentStart[s]; from < segmentStart[s + 1]; from += taskSize) {
+                    int segment = s;
+                    int start = from;
+                    int end = Math.min(segmentStart[s + 1], from + taskSize);
+                    if (s == 0 && from == 0) {
+                        continue; // the calling thread's share
+                    }
+                    tasks.add(executor.submit(() -> scan.scan(segment, start, end)));
+                }
+            }
+            if (entries > 0) {
+                matches.add(scan.scan(0, 0, Math.min(segmentStart[1], taskSize)));
+            }
+            for (Future<int[]> task : tasks) {
+                matches.add(task.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Catalogue scan failed", e.getCause());
+        } finally {
+            for (Future<int[]> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        return matches;
+    }
+    
+    // One range of entries of a segment, scanned for matches
+    private interface RangeScan {
+        int[] scan(int segment, int start, int end);
+    }
+    
+    // Adds the matches of scanAll that are under one of rootPaths, or all of them if it is null
+    private void addResults(List<int[]> matches, List<String> rootPaths, LiveFileSearch.SearchType type,
+                            List<LiveFileSearch.SearchResult> results) {
+        Map<Integer, String> directoryPaths = new HashMap<>();
+        for (int[] found : matches) {
+            // The first element is the number of matches
+            for (int m = 1; m <= found[0]; m++) {
+                int entry = found[m];
+                String directory = directoryPath(parent[entry], directoryPaths);
+                String name = name(entry);
+                String path = directory.endsWith(File.separator) ? directory + name : directory + File.separator + name;
+                if (rootPaths == null || isUnder(path, rootPaths)) {
+                    results.add(new LiveFileSearch.SearchResult(path, name, size[entry], lastModified[entry], type));
+                }
+            }
+        }
+    }
+    
+    // Whether the path is one of the roots or below one; a root may also be a file
+    private static boolean isUnder(String path, List<String> rootPaths) {
+        for (String root : rootPaths) {
+            if (path.startsWith(root) && (path.length() == root.length() || root.endsWith(File.separator)
+                                          || path.startsWith(File.separator, root.length()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private int[] scan(int segment, int start, int end, NameMatcher matcher, SearchProfile profile) {
+        int[] found = new int[16];
+        int files = end - start - countBetween(directoryEntries, start, end);
+        Prefilter prefilter = prefilter(matcher);
+        if (prefilter == null) {
+            NameView view = new NameView(segments[segment]);
+            for (int entry = start; entry < end; entry++) {
+                if (size[entry] != DIRECTORY && matches(view, segment, entry, matcher)) {
+                    found = add(found, entry);
+                }
+            }
+        } else {
+            found = scanColumn(segment, start, end, matcher, prefilter, found);
+        }
+        profile.filesConsidered(files);
+        if (matcher.isRegex()) {
+            profile.regexInvoked(files);
+        }
+        return found;
+    }
+    
+    // Matches the files between start and end that are under a directory with a state
+    private int[] scanPaths(int segment, int start, int end, RelativePathMatcher matcher,
+                            RelativePathMatcher.Directory[] directories, SearchProfile profile) {
+        int[] found = new int[16];
+        NameView view = new NameView(segments[segment]);
+        int files = 0;
+        // The files of a directory mostly follow each other
+        int lastParent = -1;
+        RelativePathMatcher.Directory directory = null;
+        for (int entry = start; entry < end; entry++) {
+            if (size[entry] == DIRECTORY) {
+                continue;
+            }
+            if (parent[entry] != lastParent) {
+                lastParent = parent[entry];
+                directory = directories[lowerBound(directoryEntries, lastParent)];
+            }
+            if (directory == null) {
+                continue;
+            }
+            files++;
+            view.set(nameStart(segment, entry), nameEnd(segment, entry), (nameOffset[entry] & WIDE) != 0);
+            if (matcher.matches(directory, view, 0, view.length())) {
+                found = add(found, entry);
+            }
+        }
+        profile.filesConsidered(files);
+        if (matcher.isRegex()) {
+            profile.regexInvoked(files);
+        }
+        return found;
+    }
+    
+    // The matcher's state for each directory entry, by its index in directoryEntries;
+    // null for the directories that are not under one of the query roots
+    private RelativePathMatcher.Directory[] directoryStates(List<Path> queryRoots, RelativePathMatcher matcher) {
+        RelativePathMatcher.Directory[] states = new RelativePathMatcher.Directory[directoryEntries.length];
+        Set<Integer> rootEntries = new HashSet<>();
+        for (Path root : queryRoots) {
+            rootEntries.add(directoryEntry(root));
+        }
+        // A directory is added after its parent, so the parent's state is there first
+        for (int d = 0; d < directoryEntries.length; d++) {
+            int entry = directoryEntries[d];
+            if (rootEntries.contains(entry)) {
+                states[d] = matcher.root();
+            } else if (parent[entry] >= 0) {
+                RelativePathMatcher.Directory parentState = states[lowerBound(directoryEntries, parent[entry])];
+                if (parentState != null) {
+                    states[d] = matcher.child(parentState, name(entry));
+                }
+            }
+        }
+        return states;
+    }
+    
+    // The entry of a directory under a root; -1 if there is none, because no file is under it
+    private int directoryEntry(Path directory) {
+        for (Path root : roots) {
+            if (!directory.startsWith(root)) {
+                continue;
+            }
+            int entry = -1;
+            for (int d = 0; d < directoryEntries.length && entry < 0; d++) {
+                if (parent[directoryEntries[d]] < 0 && name(directoryEntries[d]).equals(root.toString())) {
+                    entry = directoryEntries[d];
+                }
+            }
+            for (Path element : root.relativize(directory)) {
+                if (entry < 0 || element.toString().isEmpty()) {
+                    break;
+                }
+                int parentEntry = entry;
+                entry = -1;
+                for (int d = lowerBound(directoryEntries, parentEntry); d < directoryEntries.length && entry < 0; d++) {
+                    if (parent[directoryEntries[d]] == parentEntry && name(directoryEntries[d]).equals(element.toString())) {
+                        entry = directoryEntries[d];
+                    }
+                }
+            }
+            return entry;
+        }
+        return -1;
+    }
+    
+    // Finds the anchor in the Latin-1 names between start and end eight bytes at a
+    // time, and matches the names it lands in where the rest of the term fits around it.
+    // UTF-16 names are matched one by one.
+    private int[] scanColumn(int segment, int start, int end, NameMatcher matcher, Prefilter prefilter, int[] found) {
+        ByteBuffer names = segments[segment];
+        ByteBuffer words = names.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        NameView view = new NameView(names);
+        int from = nameStart(segment, start);
+        int to = nameStart(segment, end);
+        int entry = start;
+        int position = prefilter == Prefilter.NO_LATIN1 ? to : from;
+        while ((position = prefilter.next(words, position, to)) >= 0) {
+            // Most anchors are not part of the term; only the rest are looked up
+            if (!prefilter.fits(names, position, from, to)) {
+                position++;
+                continue;
+            }
+            entry = entryAt(segment, entry, end, position);
+            int nameStart = nameStart(segment, entry);
+            int nameEnd = nameEnd(segment, entry);
+            if ((nameOffset[entry] & WIDE) != 0) {
+                position = nameEnd;
+            } else if (prefilter.fits(names, position, nameStart, nameEnd)) {
+                if (size[entry] != DIRECTORY && matches(view, segment, entry, matcher)) {
+                    found = add(found, entry);
+                }
+                position = nameEnd;
+            } else {
+                position++;
+            }
+        }
+        int first = lowerBound(wideEntries, start);
+        for (int w = first; w < wideEntries.length && wideEntries[w] < end; w++) {
+            int wide = wideEntries[w];
+            if (size[wide] != DIRECTORY && matches(view, segment, wide, matcher)) {
+                found = add(found, wide);
+            }
+        }
+        return found;
+    }
+    
+    // The pair of adjacent term chars that is cheapest to look for, or the rarest single
+    // char of a term that has no pair, for scanColumn. A pair costs a closer look at every
+    // word its first char is in, and a little more for every place it is found. Only chars
+    // in Latin-1 qualify: no other char of a Latin-1 name matches them. Null for a regex,
+    // or when no term has such a char.
+    private Prefilter prefilter(NameMatcher matcher) {
+        if (matcher.isRegex()) {
+            return null;
+        }
+        Prefilter best = null;
+        long bestCount = Long.MAX_VALUE;
+        boolean bestPair = false;
+        for (char[] term : matcher.lowercaseTerms()) {
+            for (int i = 0; i < term.length; i++) {
+                if (term[i] > 0xFF) {
+                    if (Character.toUpperCase(term[i]) > 0xFF) {
+                        return Prefilter.NO_LATIN1; // not in any Latin-1 name, in either case
+                    }
+                    continue;
+                }
+                if (i + 1 < term.length && term[i + 1] <= 0xFF) {
+                    long count = charCount(term[i]) + CANDIDATE_COST * pairCount(term[i], term[i + 1]);
+                    if (!bestPair || count < bestCount) {
+                        best = new Prefilter(term, i, true);
+                        bestCount = count;
+                        bestPair = true;
+                    }
+                } else if (!bestPair) {
+                    long count = charCount(term[i]);
+                    if (count < bestCount) {
+                        best = new Prefilter(term, i, false);
+                        bestCount = count;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+    
+    // The uppercase form of a Latin-1 char as it can occur in a Latin-1 name
+    private static char latin1Upper(char lower) {
+        char upper = Character.toUpperCase(lower);
+        return upper <= 0xFF ? upper : lower;
+    }
+    
+    private long charCount(char lower) {
+        char upper = latin1Upper(lower);
+        return byteCounts[lower] + (upper != lower ? byteCounts[upper] : 0);
+    }
+    
+    // How often the two chars follow each other in the names, in any case
+    private long pairCount(char first, char second) {
+        char firstUpper = latin1Upper(first);
+        char secondUpper = latin1Upper(second);
+        long count = pairCounts[first << 8 | second];
+        if (secondUpper != second) {
+            count += pairCounts[first << 8 | secondUpper];
+        }
+        if (firstUpper != first) {
+            count += pairCounts[firstUpper << 8 | second];
+            if (secondUpper != second) {
+                count += pairCounts[firstUpper << 8 | secondUpper];
+            }
+        }
+        return count;
+    }
+    
+    private boolean matches(NameView view, int segment, int entry, NameMatcher matcher) {
+        view.set(nameStart(segment, entry), nameEnd(segment, entry), (nameOffset[entry] & WIDE) != 0);
+        return matcher.matches(view, 0, view.length());
+    }
+    
+    // The entry between from and to whose name holds the byte at position. Positions are
+    // looked up in increasing order, so the search gallops forward from the last entry.
+    private int entryAt(int segment, int from, int to, int position) {
+        int low = from;
+        int step = 1;
+        while (low + step < to && (nameOffset[low + step] & ~WIDE) <= position) {
+            low += step;
+            step *= 2;
+        }
+        int high = Math.min(to - 1, low + step - 1);
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if ((nameOffset[middle] & ~WIDE) <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+    
+    private int nameStart(int segment, int entry) {
+        return entry < segmentStart[segment + 1] ? nameOffset[entry] & ~WIDE : segments[segment].limit();
+    }
+    
+    private int nameEnd(int segment, int entry) {
+        return nameStart(segment, entry + 1);
+    }
+    
+    // The first element is the number of entries that follow
+    private static int[] add(int[] found, int entry) {
+        int count = ++found[0];
+        if (count == found.length) {
+            found = Arrays.copyOf(found, found.length * 2);
+        }
+        found[count] = entry;
+        return found;
+    }
+    
+    // Index of the first element not below value in a sorted array
+    private static int lowerBound(int[] sorted, int value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index >= 0 ? index : -index - 1;
+    }
+    
+    private static int countBetween(int[] sorted, int from, int to) {
+        return lowerBound(sorted, to) - lowerBound(sorted, from);
+    }
+    
+    private String name(int entry) {
+        int segment = segmentOf(entry);
+        NameView view = new NameView(segments[segment]);
+        view.set(nameStart(segment, entry), nameEnd(segment, entry), (nameOffset[entry] & WIDE) != 0);
+        return view.toString();
+    }
+    
+    private String directoryPath(int directory, Map<Integer, String> cache) {
+        String path = cache.get(directory);
+        if (path == null) {
+            path = parent[directory] < 0 ? name(directory) : directoryPath(parent[directory], cache);
+            if (parent[directory] >= 0) {
+                path = path.endsWith(File.separator) ? path + name(directory) : path + File.separator + name(directory);
+            }
+            cache.put(directory, path);
+        }
+        return path;
+    }
+    
+    private int segmentOf(int entry) {
+        int s = Arrays.binarySearch(segmentStart, entry);
+        if (s < 0) {
+            return -s - 2;
+        }
+        // Skip empty segments that start at the same entry
+        while (s + 1 < segments.length && segmentStart[s + 1] == entry) {
+            s++;
+        }
+        return s;
+    }
+    
+    // One or two adjacent chars of a term, looked for in a packed Latin-1 column
+    private static final class Prefilter {
+        // For a term that no Latin-1 name can contain
+        static final Prefilter NO_LATIN1 = new Prefilter(new char[] {0}, 0, false);
+        
+        private static final long ONES = 0x0101010101010101L;
+        private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        private static final long HIGH_BITS = 0x8080808080808080L;
+        
+        private final char[] term;
+        private final char[] upper;
+        private final int anchor;
+        private final boolean pair; // whether the char after the anchor is looked for as well
+        private final boolean caseless; // the anchor is not a letter
+        private final long first;
+        private final long firstUpper;
+        private final long second;
+        private final long secondUpper;
+        
+        Prefilter(char[] term, int anchor, boolean pair) {
+            this.term = term;
+            this.upper = new char[term.length];
+            for (int i = 0; i < term.length; i++) {
+                upper[i] = latin1Upper(term[i]);
+            }
+            this.anchor = anchor;
+            this.pair = pair;
+            this.first = ONES * term[anchor];
+            this.firstUpper = ONES * upper[anchor];
+            this.caseless = first == firstUpper;
+            this.second = pair ? ONES * term[anchor + 1] : 0;
+            this.secondUpper = pair ? ONES * upper[anchor + 1] : 0;
+        }
+        
+        // The first position from from on where the anchor is, in either case; -1 if none
+        int next(ByteBuffer words, int from, int to) {
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES) {
+                long word = words.getLong(i);
+                if (!hasByte(word, first) && (caseless || !hasByte(word, firstUpper))) {
+                    continue;
+                }
+                long found = caseless ? equal(word, first) : equal(word, first) | equal(word, firstUpper);
+                if (pair) {
+                    long following = (second == secondUpper
+                        ? equal(word, second)
+                        : equal(word, second) | equal(word, secondUpper)) >>> 8;
+                    // The successor of the last byte is the first byte of the next word
+                    if (i + Long.BYTES < to && matchesAt(words, i + Long.BYTES, anchor + 1)) {
+                        following |= 0x80L << 56;
+                    }
+                    found &= following;
+                }
+                if (found != 0) {
+                    return i + (Long.numberOfTrailingZeros(found) >>> 3);
+                }
+            }
+            for (; i < to; i++) {
+                if (matchesAt(words, i, anchor) && (!pair || (i + 1 < to && matchesAt(words, i + 1, anchor + 1)))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        // Whether the term can be at the anchor found at position, between from and to
+        // (e.g. within one name). Chars outside Latin-1 are left to the NameMatcher.
+        boolean fits(ByteBuffer names, int position, int from, int to) {
+            int start = position - anchor;
+            if (start < from || start + term.length > to) {
+                return false;
+            }
+            for (int i = 0; i < term.length; i++) {
+                if (term[i] <= 0xFF && !matchesAt(names, start + i, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private boolean matchesAt(ByteBuffer names, int position, int index) {
+            int b = names.get(position) & 0xFF;
+            return b == term[index] || b == upper[index];
+        }
+        
+        // Whether any byte of word equals the byte repeated in pattern. Cheaper than equal,
+        // whose answer it would be wrong about only above the lowest equal byte.
+        private static boolean hasByte(long word, long pattern) {
+            long x = word ^ pattern;
+            return ((x - ONES) & ~x & HIGH_BITS) != 0;
+        }
+        
+        // The high bit of every byte of word that equals the byte repeated in pattern
+        private static long equal(long word, long pattern) {
+            long x = word ^ pattern;
+            return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+        }
+    }
+    
+    // A name in a segment, read in place
+    private static final class NameView implements CharSequence {
+        private final ByteBuffer names;
+        private int offset;
+        private int length;
+        private boolean wide;
+        
+        NameView(ByteBuffer names) {
+            this.names = names;
+        }
+        
+        void set(int offset, int end, boolean wide) {
+            this.offset = offset;
+            this.wide = wide;
+            this.length = wide ? (end - offset) / 2 : end - offset;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            return wide ? names.getChar(offset + 2 * index) : (char) (names.get(offset + index) & 0xFF);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+        
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+    
+    // Collects the files of a walk of the roots; the visitor may call addFile from any thread
+    static final class Builder {
+        private final List<Path> roots;
+        private final long startedMillis = System.currentTimeMillis();
+        private final Map<Path, Integer> directories = new HashMap<>();
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private final List<Integer> segmentStart = new ArrayList<>();
+        private ByteBuffer segment;
+        private int[] nameOffset = new int[1024];
+        private int[] parent = new int[1024];
+        private long[] size = new long[1024];
+        private long[] lastModified = new long[1024];
+        private int count;
+        private int fileCount;
+        private int[] directoryEntries = new int[64];
+        private int directoryCount;
+        private int[] wideEntries = new int[64];
+        private int wideCount;
+        private final long[] byteCounts = new long[256];
+        private final long[] pairCounts = new long[256 * 256];
+        
+        Builder(List<Path> roots) {
+            this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+        }
+        
+        synchronized void addFile(Path file, BasicFileAttributes attrs) {
+            Path directory = file.getParent();
+            if (directory == null) {
+                return;
+            }
+            int parentEntry = directory(directory);
+            if (parentEntry >= 0) {
+                add(file.getFileName().toString(), parentEntry, attrs.size(), attrs.lastModifiedTime().toMillis());
+                fileCount++;
+            }
+        }
+        
+        // The entry of a directory, added with its parents the first time one of its files is
+        // seen; -1 if it is not under a root
+        private int directory(Path directory) {
+            Integer entry = directories.get(directory);
+            if (entry == null) {
+                if (roots.contains(directory)) {
+                    entry = add(directory.toString(), -1, DIRECTORY, 0);
+                } else {
+                    Path parentDirectory = directory.getParent();
+                    int parentEntry = parentDirectory != null ? directory(parentDirectory) : -1;
+                    if (parentEntry < 0) {
+                        return -1;
+                    }
+                    entry = add(directory.getFileName().toString(), parentEntry, DIRECTORY, 0);
+                }
+                directories.put(directory, entry);
+            }
+            return entry;
+        }
+        
+        private int add(String name, int parentEntry, long entrySize, long entryModified) {
+            boolean wide = false;
+            for (int i = 0; i < name.length() && !wide; i++) {
+                wide = name.charAt(i) > 0xFF;
+            }
+            int bytes = wide ? name.length() * 2 : name.length();
+            ensureSpace(bytes);
+            if (count == nameOffset.length) {
+                int capacity = count * 2;
+                nameOffset = Arrays.copyOf(nameOffset, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                size = Arrays.copyOf(size, capacity);
+                lastModified = Arrays.copyOf(lastModified, capacity);
+            }
+            nameOffset[count] = segment.position() | (wide ? WIDE : 0);
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (wide) {
+                    segment.putChar(c);
+                } else {
+                    segment.put((byte) c);
+                    byteCounts[c]++;
+                    if (i > 0) {
+                        pairCounts[name.charAt(i - 1) << 8 | c]++;
+                    }
+                }
+            }
+            if (wide) {
+                wideEntries = append(wideEntries, wideCount++, count);
+            }
+            if (entrySize == DIRECTORY) {
+                directoryEntries = append(directoryEntries, directoryCount++, count);
+            }
+            parent[count] = parentEntry;
+            size[count] = entrySize;
+            lastModified[count] = entryModified;
+            return count++;
+        }
+        
+        private static int[] append(int[] array, int index, int value) {
+            if (index == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[index] = value;
+            return array;
+        }
+        
+        // Grows the current buffer by doubling, and starts a new one once it is full size
+        private void ensureSpace(int bytes) {
+            if (segment != null && segment.remaining() >= bytes) {
+                return;
+            }
+            if (segment != null && segment.capacity() < SEGMENT_SIZE) {
+                int capacity = segment.capacity();
+                while (capacity - segment.position() < bytes && capacity < SEGMENT_SIZE) {
+                    capacity *= 2;
+                }
+                if (capacity - segment.position() >= bytes) {
+                    ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(capacity, SEGMENT_SIZE));
+                    segment.flip();
+                    larger.put(segment);
+                    segment = larger;
+                    return;
+                }
+            }
+            if (segment != null) {
+                segments.add(trim(segment));
+            }
+            segment = ByteBuffer.allocateDirect(Math.max(INITIAL_SEGMENT_SIZE, bytes));
+            segmentStart.add(count);
+        }
+        
+        // Copies a buffer that is mostly empty, so the finished catalogue does not keep the slack
+        private static ByteBuffer trim(ByteBuffer buffer) {
+            buffer.flip();
+            if (buffer.limit() > buffer.capacity() / 4 * 3) {
+                return buffer;
+            }
+            ByteBuffer trimmed = ByteBuffer.allocateDirect(buffer.limit());
+            trimmed.put(buffer);
+            trimmed.flip();
+            return trimmed;
+        }
+        
+        synchronized ResidentCatalogue build() {
+            if (segment != null) {
+                segments.add(trim(segment));
+                segment = null;
+            }
+            return new ResidentCatalogue(this);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// Something that can answer searches: the live walk, an index kept in this process, or
+// workers elsewhere. A SearchRouter asks every backend what a search would cost under
+// each root and sends the root to the cheapest one that can answer it.
+public interface SearchBackend {
+    enum Kind {
+        LIVE_WALK, LOCAL_INDEX, REMOTE_DAEMON
+    }
+    
+    String getName();
+    
+    Kind getKind();
+    
+    // What answering request under root would cost, or Cost.unavailable if this
+    // backend cannot answer it there: a kind of search it does not do, or an index that
+    // is missing, does not cover root or is out of date. Called before every search, so
+    // it must be cheap next to the search itself. root is absolute and normalized.
+    Cost estimate(SearchRequest request, Path root);
+    
+    // Results in the order LiveFileSearch returns them. Throws if the backend failed,
+    // in which case the router searches the roots with the live walk instead.
+    List<LiveFileSearch.SearchResult> search(SearchRequest request, List<String> rootPaths);
+    
+    // A backend's estimate: how long it expects to take, and what that is based on, or
+    // why it cannot answer
+    final class Cost {
+        private final double millis;
+        private final String basis;
+        
+        private Cost(double millis, String basis) {
+            this.millis = millis;
+            this.basis = basis;
+        }
+        
+        public static Cost of(double millis, String basis) {
+            if (millis < 0 || Double.isNaN(millis)) {
+                throw new IllegalArgumentException("Cost must not be negative: " + millis);
+            }
+            return new Cost(millis, basis);
+        }
+        
+        public static Cost unavailable(String reason) {
+            return new Cost(-1, reason);
+        }
+        
+        public boolean isAvailable() { return millis >= 0; }
+        // -1 if unavailable
+        public double getMillis() { return millis; }
+        // What the estimate is based on, or why the backend cannot answer
+        public String getBasis() { return basis; }
+        
+        @Override
+        public String toString() {
+            return isAvailable() ? String.format("~%.0fms (%s)", millis, basis) : "unavailable (" + basis + ")";
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Lets a long content search pick up where it stopped after it was cancelled or
+// the JVM went away. While the search runs it tracks, per directory, whether every
+// file in it that had to be read has been read; such a directory is done. Every
+// interval the done directories (with their mtimes) and the files matched so far
+// are written to a small checkpoint file, as they are when the search is cancelled.
+//
+// The next search with the same description and roots loads the checkpoint and
+// still walks everything, but does not read a file again when its directory was done,
+// the directory's mtime is unchanged (no file added, removed or renamed) and the file
+// itself was last modified before the checkpointed run started. Its earlier verdict
+// is used instead. A search that finishes deletes its checkpoint.
+public class SearchCheckpoint {
+    private static final int MAGIC = 0x4C46534B; // "LFSK"
+    private static final int VERSION = 1;
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    
+    private final Path file;
+    private final String key;
+    private final long intervalMillis;
+    private final long startedMillis = System.currentTimeMillis();
+    private final boolean resumed;
+    // From the earlier run: done directories not visited again yet, and its matches
+    private final Map<String, DirectoryState> previous;
+    private final Set<String> previousMatches;
+    // This run
+    private final Map<String, Progress> open = new ConcurrentHashMap<>();
+    private final Map<String, DirectoryState> done = new ConcurrentHashMap<>();
+    private final Set<String> matches = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastSaved = new AtomicLong(startedMillis);
+    private volatile boolean closed;
+    
+    private SearchCheckpoint(Path file, String key, long intervalMillis,
+                             Map<String, DirectoryState> previous, Set<String> previousMatches) {
+        this.file = file;
+        this.key = key;
+        this.intervalMillis = intervalMillis;
+        this.previous = previous;
+        this.previousMatches = previousMatches;
+        this.resumed = !previous.isEmpty();
+    }
+    
+    // The checkpoint for a search, loaded from directory if an earlier run of the same
+    // search left one there. key must identify the search and its roots.
+    public static SearchCheckpoint open(Path directory, String key, long intervalMillis) {
+        Path file = directory.resolve(String.format("%08x.checkpoint", key.hashCode()));
+        Map<String, DirectoryState> previous = new ConcurrentHashMap<>();
+        Set<String> previousMatches = new HashSet<>();
+        if (Files.isRegularFile(file)) {
+            if (!load(file, key, previous, previousMatches)) {
+                previous.clear();
+                previousMatches.clear();
+            }
+        }
+        return new SearchCheckpoint(file, key, intervalMillis, previous, previousMatches);
+    }
+    
+    public boolean isResumed() {
+        return resumed;
+    }
+    
+    // Called by the walker before the directory's files are visited
+    void enterDirectory(Path dir, BasicFileAttributes attrs) {
+        String path = dir.toString();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        DirectoryState before = previous.remove(path);
+        // Files modified at or after this time may have changed since they were read
+        long readSince = before != null && before.lastModified == lastModified ? before.readSince : Long.MIN_VALUE;
+        open.put(path, new Progress(lastModified, readSince));
+    }
+    
+    // Called by the walker once every entry of the directory has been visited
+    void exitDirectory(Path dir) {
+        Progress progress = open.get(dir.toString());
+        if (progress != null) {
+            release(dir.toString(), progress);
+        }
+    }
+    
+    // Whether the earlier run already read the file as it is now
+    boolean isDone(Path file, BasicFileAttributes attrs) {
+        Path dir = file.getParent();
+        Progress progress = dir != null ? open.get(dir.toString()) : null;
+        return progress != null && attrs.lastModifiedTime().toMillis() < progress.readSince;
+    }
+    
+    // Whether the earlier run found a match in the file; only meaningful if isDone.
+    // A match is carried over into this run's checkpoint.
+    boolean matchedBefore(Path file) {
+        String path = file.toString();
+        if (previousMatches.contains(path)) {
+            matches.add(path);
+            return true;
+        }
+        return false;
+    }
+    
+    void fileQueued(Path file) {
+        Progress progress = open.get(String.valueOf(file.getParent()));
+        if (progress != null) {
+            progress.pending.incrementAndGet();
+        }
+    }
+    
+    void fileRead(Path file) {
+        String dir = String.valueOf(file.getParent());
+        Progress progress = open.get(dir);
+        if (progress != null) {
+            release(dir, progress);
+        }
+    }
+    
+    void matched(Path file) {
+        matches.add(file.toString());
+    }
+    
+    private void release(String dir, Progress progress) {
+        if (progress.pending.decrementAndGet() == 0) {
+            done.put(dir, new DirectoryState(progress.lastModified, startedMillis));
+            open.remove(dir);
+            long last = lastSaved.get();
+            long now = System.currentTimeMillis();
+            if (now - last >= intervalMillis && lastSaved.compareAndSet(last, now)) {
+                trySave();
+            }
+        }
+    }
+    
+    // The search stopped before it finished. The checkpoint is kept, unless the search
+    // was short enough that starting over costs less than keeping it around.
+    synchronized void suspend() {
+        if (closed) {
+            return;
+        }
+        if (resumed || System.currentTimeMillis() - startedMillis >= intervalMillis) {
+            trySave();
+        }
+        closed = true;
+    }
+    
+    // The search finished; nothing is left to resume. A search suspended by a shutdown
+    // keeps its checkpoint even if it then runs to the end, since its walk was cut short.
+    synchronized void finish() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Could not delete search checkpoint: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void trySave() {
+        if (closed) {
+            return;
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            System.err.println("Could not save search checkpoint: " + e.getMessage());
+        }
+    }
+    
+    private void save() throws IOException {
+        // Done directories of the earlier run that this run has not reached yet still count
+        Map<String, DirectoryState> directories = new TreeMap<>(previous);
+        directories.putAll(done);
+        Set<String> matched = new TreeSet<>(matches);
+        for (String path : previousMatches) {
+            Path dir = Paths.get(path).getParent();
+            if (dir != null && previous.containsKey(dir.toString())) {
+                matched.add(path);
+            }
+        }
+        
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, key);
+            // Paths are sorted and stored as the length shared with the previous one
+            // plus the rest, which keeps deep trees small
+            out.writeInt(directories.size());
+            String last = "";
+            for (Map.Entry<String, DirectoryState> entry : directories.entrySet()) {
+                last = writePath(out, last, entry.getKey());
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().readSince);
+            }
+            out.writeInt(matched.size());
+            last = "";
+            for (String path : matched) {
+                last = writePath(out, last, path);
+            }
+            // The checksum covers everything written before it
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    // A missing, corrupt, outdated or foreign checkpoint is ignored and deleted
+    private static boolean load(Path file, String key, Map<String, DirectoryState> directories, Set<String> matches) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length >= 8) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes, 0, bytes.length - 8);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+                if (crc.getValue() == java.nio.ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()
+                    && in.readInt() == MAGIC && in.readInt() == VERSION
+                    && System.currentTimeMillis() - in.readLong() < MAX_AGE
+                    && readString(in).equals(key)) {
+                    int count = in.readInt();
+                    String last = "";
+                    for (int i = 0; i < count; i++) {
+                        last = readPath(in, last);
+                        directories.put(last, new DirectoryState(in.readLong(), in.readLong()));
+                    }
+                    count = in.readInt();
+                    last = "";
+                    for (int i = 0; i < count; i++) {
+                        last = readPath(in, last);
+                        matches.add(last);
+                    }
+                    return true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load search checkpoint: " + e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Overwritten by the next save anyway
+        }
+        return false;
+    }
+    
+    private static String writePath(DataOutputStream out, String previous, String path) throws IOException {
+        int shared = 0;
+        int max = Math.min(previous.length(), path.length());
+        while (shared < max && previous.charAt(shared) == path.charAt(shared)) {
+            shared++;
+        }
+        out.writeShort(shared);
+        writeString(out, path.substring(shared));
+        return path;
+    }
+    
+    private static String readPath(DataInputStream in, String previous) throws IOException {
+        int shared = in.readUnsignedShort();
+        return previous.substring(0, shared) + readString(in);
+    }
+    
+    // Unlike writeUTF, not limited to 64KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static final class DirectoryState {
+        private final long lastModified;
+        private final long readSince;
+        
+        DirectoryState(long lastModified, long readSince) {
+            this.lastModified = lastModified;
+            this.readSince = readSince;
+        }
+    }
+    
+    // A directory of this run: its listing and every queued file hold one count
+    private static final class Progress {
+        private final long lastModified;
+        private final long readSince;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        
+        Progress(long lastModified, long readSince) {
+            this.lastModified = lastModified;
+            this.readSince = readSince;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package searchengine;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Spreads a search over several worker processes, so that one JVM's heap and file
+// descriptors no longer bound how much can be searched at once. The roots are cut
+// into shards (whole roots, or the top-level entries of a root when there are fewer
+// roots than workers), workers pull shards until none are left, and the ranked
+// result lists of all shards are merged into the order a single engine returns.
+// When a worker fails, its shard goes back to the queue for another worker, and a
+// local worker is restarted before the next search. A search that still leaves shards
+// unsearched fails with an UncheckedIOException rather than returning part of the
+// results, so that the caller can search those roots some other way.
+//
+// Workers are either started here as local processes, or SearchWorker processes
+// already running elsewhere, given by address.
+public class SearchCoordinator implements AutoCloseable {
+    private static final int SHARDS_PER_WORKER = 4; // so a fast worker can take over more of the work
+    private static final int MAX_SHARD_ATTEMPTS = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // Several missed heartbeats: the worker is hung, not busy (see WorkerProtocol)
+    private static final int READ_TIMEOUT_MILLIS = (int) (6 * WorkerProtocol.HEARTBEAT_MILLIS);
+    private static final long POLL_MILLIS = 100;
+    
+    private final List<Worker> workers = new ArrayList<>();
+    private final ExecutorService executorService;
+    
+    // Starts the given number of worker processes on this machine
+    public SearchCoordinator(int localWorkers) throws IOException {
+        if (localWorkers <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + localWorkers);
+        }
+        this.executorService = newExecutor(localWorkers);
+        try {
+            for (int i = 0; i < localWorkers; i++) {
+                Worker worker = new Worker(null);
+                worker.start();
+                workers.add(worker);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+    
+    // Uses SearchWorker processes that are already listening at the given addresses
+    public SearchCoordinator(List<InetSocketAddress> addresses) {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("No worker addresses given");
+        }
+        this.executorService = newExecutor(addresses.size());
+        for (InetSocketAddress address : addresses) {
+            workers.add(new Worker(address));
+        }
+    }
+    
+    private static ExecutorService newExecutor(int workers) {
+        return Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "shard-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public int getWorkerCount() {
+        return workers.size();
+    }
+    
+    public List<LiveFileSearch.SearchResult> searchByName(String searchTerm, List<String> rootPaths, boolean useRegex, boolean useFuzzy) {
+        if (useFuzzy) {
+            if (LiveFileSearch.splitFuzzyTerms(searchTerm).isEmpty()) {
+                return Collections.emptyList();
+            }
+            return search(new WorkerProtocol.Request(WorkerProtocol.FUZZY, searchTerm, false, rootPaths),
+                LiveFileSearch.fuzzyRelevance(LiveFileSearch.splitFuzzyTerms(searchTerm)));
+        }
+        if (useRegex && !isValidRegex(searchTerm)) {
+            return Collections.emptyList();
+        }
+        return search(new WorkerProtocol.Request(WorkerProtocol.NAME, searchTerm, useRegex, rootPaths),
+            LiveFileSearch.nameRelevance(searchTerm));
+    }
+    
+    public List<LiveFileSearch.SearchResult> searchByContent(String searchTerm, List<String> rootPaths, boolean useRegex) {
+        if (useRegex && !isValidRegex(searchTerm)) {
+            return Collections.emptyList();
+        }
+        return search(new WorkerProtocol.Request(WorkerProtocol.CONTENT, searchTerm, useRegex, rootPaths),
+            Comparator.comparingLong(LiveFileSearch.SearchResult::getSize));
+    }
+    
+    public List<LiveFileSearch.SearchResult> searchByQuery(FileQuery query, List<String> rootPaths) {
+        return search(new WorkerProtocol.Request(WorkerProtocol.QUERY, query.toString(), false, rootPaths),
+            Comparator.comparing(LiveFileSearch.SearchResult::getFilePath));
+    }
+    
+    // Same handling of a bad pattern as LiveFileSearch, without bothering the workers
+    private static boolean isValidRegex(String searchTerm) {
+        try {
+            java.util.regex.Pattern.compile(searchTerm);
+            return true;
+        } catch (java.util.regex.PatternSyntaxException e) {
+            System.err.println("Invalid regex pattern: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private List<LiveFileSearch.SearchResult> search(WorkerProtocol.Request request, Comparator<LiveFileSearch.SearchResult> order) {
+        List<List<String>> shards = planShards(request.roots, workers.size());
+        if (shards.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BlockingQueue<Shard> pending = new LinkedBlockingQueue<>();
+        for (List<String> roots : shards) {
+            pending.add(new Shard(roots));
+        }
+        AtomicInteger remaining = new AtomicInteger(shards.size());
+        List<List<LiveFileSearch.SearchResult>> shardResults = Collections.synchronizedList(new ArrayList<>());
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        
+        List<Future<?>> dispatchers = new ArrayList<>();
+        for (Worker worker : workers) {
+            dispatchers.add(executorService.submit(() -> {
+                dispatch(worker, request, pending, remaining, shardResults, errors);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> dispatcher : dispatchers) {
+                try {
+                    dispatcher.get();
+                } catch (ExecutionException e) {
+                    errors.add(String.valueOf(e.getCause().getMessage()));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Cancelled: stop the dispatchers and drop the shards in flight by closing their connections
+            Thread.currentThread().interrupt();
+            remaining.set(0);
+            pending.clear();
+            for (Future<?> dispatcher : dispatchers) {
+                dispatcher.cancel(true);
+            }
+            for (Worker worker : workers) {
+                worker.disconnect();
+            }
+            return Collections.emptyList();
+        }
+        
+        synchronized (errors) {
+            for (String error : new LinkedHashSet<>(errors)) {
+                System.err.println("Error searching shard: " + error);
+            }
+        }
+        if (remaining.get() > 0) {
+            throw new UncheckedIOException(new IOException(
+                "Search incomplete: " + remaining.get() + " of " + shards.size() + " shards could not be searched"));
+        }
+        return Collections.unmodifiableList(merge(shardResults, order));
+    }
+    
+    // Runs on one dispatcher thread per worker: takes shards until every shard is
+    // done, or until this worker fails, in which case its shard is put back
+    private void dispatch(Worker worker, WorkerProtocol.Request request, BlockingQueue<Shard> pending,
+                          AtomicInteger remaining, List<List<LiveFileSearch.SearchResult>> shardResults,
+                          List<String> errors) throws InterruptedException {
+        if (!worker.ensureRunning()) {
+            return;
+        }
+        while (remaining.get() > 0) {
+            Shard shard = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (shard == null) {
+                continue; // another worker may still fail and give its shard back
+            }
+            try {
+                shardResults.add(worker.search(new WorkerProtocol.Request(request.kind, request.term, request.regex, shard.roots)));
+                remaining.decrementAndGet();
+            } catch (WorkerProtocol.WorkerException e) {
+                // The request itself is bad; every worker would say the same
+                errors.add(e.getMessage());
+                remaining.decrementAndGet();
+            } catch (IOException e) {
+                // Includes SocketTimeoutException from a worker that stopped answering
+                worker.failed(e);
+                if (++shard.attempts < MAX_SHARD_ATTEMPTS) {
+                    pending.add(shard);
+                } else {
+                    errors.add("gave up on " + shard.roots + " after " + shard.attempts + " attempts: " + e.getMessage());
+                    remaining.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+    
+    // Roots are shards of their own when there are enough of them; otherwise directory
+    // roots are split into their top-level entries, dealt round-robin into
+    // SHARDS_PER_WORKER shards per worker. Entries the engine would skip are left out.
+    static List<List<String>> planShards(List<String> rootPaths, int workerCount) {
+        int target = Math.max(1, workerCount * SHARDS_PER_WORKER);
+        List<Path> roots = new ArrayList<>();
+        for (String rootPath : rootPaths) {
+            Path root = Paths.get(rootPath).toAbsolutePath().normalize();
+            if (Files.exists(root) && !isNested(root, roots)) {
+                roots.removeIf(kept -> kept.startsWith(root));
+                roots.add(root);
+            }
+        }
+        
+        List<String> units = new ArrayList<>();
+        for (Path root : roots) {
+            if (roots.size() >= target || !Files.isDirectory(root) || LiveFileSearch.isSkippedDirectory(root)) {
+                units.add(root.toString());
+                continue;
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    // Same as the engine's walk: links are not followed, skipped directories are not entered
+                    if (attrs.isRegularFile() || (attrs.isDirectory() && !LiveFileSearch.isSkippedDirectory(child))) {
+                        units.add(child.toString());
+                    }
+                }
+            } catch (IOException e) {
+                units.add(root.toString()); // let a worker report it
+            }
+        }
+        Collections.sort(units);
+        
+        List<List<String>> shards = new ArrayList<>();
+        for (int i = 0; i < Math.min(target, units.size()); i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (int i = 0; i < units.size(); i++) {
+            shards.get(i % shards.size()).add(units.get(i));
+        }
+        return shards;
+    }
+    
+    private static boolean isNested(Path root, List<Path> roots) {
+        for (Path kept : roots) {
+            if (root.startsWith(kept)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // k-way merge of lists that are each already in order; a path seen twice is kept once.
+    // Ties are broken by path, so the merged order does not depend on which worker
+    // finished first. The SearchRouter merges the results of its backends the same way.
+    static List<LiveFileSearch.SearchResult> merge(List<List<LiveFileSearch.SearchResult>> lists,
+                                                   Comparator<LiveFileSearch.SearchResult> order) {
+        Comparator<LiveFileSearch.SearchResult> total = order.thenComparing(LiveFileSearch.SearchResult::getFilePath);
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> total.compare(a.current(), b.current()));
+        int size = 0;
+        synchronized (lists) {
+            for (List<LiveFileSearch.SearchResult> list : lists) {
+                if (!list.isEmpty()) {
+                    heads.add(new Cursor(list));
+                    size += list.size();
+                }
+            }
+        }
+        List<LiveFileSearch.SearchResult> merged = new ArrayList<>(size);
+        Set<String> seen = new HashSet<>();
+        while (!heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            LiveFileSearch.SearchResult result = cursor.current();
+            if (seen.add(result.getFilePath())) {
+                merged.add(result);
+            }
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+    
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+    }
+    
+    private static final class Shard {
+        private final List<String> roots;
+        private int attempts;
+        
+        Shard(List<String> roots) {
+            this.roots = roots;
+        }
+    }
+    
+    private static final class Cursor {
+        private final List<LiveFileSearch.SearchResult> list;
+        private int index;
+        
+        Cursor(List<LiveFileSearch.SearchResult> list) {
+            this.list = list;
+        }
+        
+        LiveFileSearch.SearchResult current() {
+            return list.get(index);
+        }
+        
+        boolean advance() {
+            return ++index < list.size();
+        }
+    }
+    
+    // One worker and the coordinator's connection to it. Only its dispatcher thread
+    // uses the connection; disconnect and stop may come from others.
+    private static final class Worker {
+        private final InetSocketAddress remoteAddress; // null for a local process
+        private Process process;
+        private InetSocketAddress address;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        
+        Worker(InetSocketAddress remoteAddress) {
+            this.remoteAddress = remoteAddress;
+            this.address = remoteAddress;
+        }
+        
+        // Starts a local worker process and waits for it to report its port
+        synchronized void start() throws IOException {
+            String javaBinary = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder builder = new ProcessBuilder(javaBinary, "-cp", System.getProperty("java.class.path"),
+                SearchWorker.class.getName(), "--attached", "0");
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(WorkerProtocol.LISTENING + " ")) {
+                process.destroyForcibly();
+                throw new IOException("Worker process did not start: " + line);
+            }
+            int port = Integer.parseInt(line.substring(WorkerProtocol.LISTENING.length() + 1).trim());
+            address = new InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), port);
+        }
+        
+        // Restarts a local worker that has died; a remote one is simply retried
+        synchronized boolean ensureRunning() {
+            if (remoteAddress != null || (process != null && process.isAlive())) {
+                return true;
+            }
+            disconnect();
+            try {
+                start();
+                return true;
+            } catch (IOException e) {
+                System.err.println("Could not restart worker: " + e.getMessage());
+                return false;
+            }
+        }
+        
+        List<LiveFileSearch.SearchResult> search(WorkerProtocol.Request request) throws IOException, WorkerProtocol.WorkerException {
+            DataInputStream input;
+            synchronized (this) {
+                if (socket == null) {
+                    Socket s = new Socket();
+                    try {
+                        s.connect(address, CONNECT_TIMEOUT_MILLIS);
+                        s.setKeepAlive(true);
+                        s.setSoTimeout(READ_TIMEOUT_MILLIS);
+                    } catch (IOException e) {
+                        s.close();
+                        throw e;
+                    }
+                    socket = s;
+                    in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                    out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    out.writeUTF(WorkerProtocol.configuredToken());
+                }
+                request.write(out);
+                input = in;
+            }
+            // Read without holding the lock, so disconnect can close the socket meanwhile
+            return WorkerProtocol.readResults(input);
+        }
+        
+        void failed(IOException e) {
+            System.err.println("Worker " + address + " failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName()));
+            disconnect();
+            // A local worker that stopped answering is killed, so ensureRunning starts a fresh one
+            if (e instanceof java.net.SocketTimeoutException) {
+                synchronized (this) {
+                    if (process != null) {
+                        process.destroyForcibly();
+                    }
+                }
+            }
+        }
+        
+        synchronized void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+                socket = null;
+                in = null;
+                out = null;
+            }
+        }
+        
+        synchronized void stop() {
+            disconnect();
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+}
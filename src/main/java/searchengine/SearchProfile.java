@@ -0,0 +1,295 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// What one search did and where its time went: phases, directories pruned by each
+// rule, files considered and read, bytes read, regex invocations and time per
+// top-level subdirectory. Every search fills one in; explain* returns it and slow
+// searches are written to the slow-query log. Counters are updated from the walker
+// and reader threads concurrently.
+public class SearchProfile {
+    private static final int MAX_SUBTREES_SHOWN = 20;
+    
+    private final String description;
+    private final List<String> rootPaths;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private long lastMarkNanos = startNanos;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, LongAdder> pruned = new ConcurrentHashMap<>();
+    private final Map<String, Subtree> subtrees = new ConcurrentHashMap<>();
+    private final LongAdder directoriesVisited = new LongAdder();
+    private final LongAdder filesConsidered = new LongAdder();
+    private final LongAdder filesRead = new LongAdder();
+    private final LongAdder attributeReads = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder regexInvocations = new LongAdder();
+    private final LongAdder indexPostings = new LongAdder();
+    private final LongAdder indexScored = new LongAdder();
+    private final LongAdder filesResumed = new LongAdder();
+    private final LongAdder matchesResumed = new LongAdder();
+    private final LongAdder documentsExtracted = new LongAdder();
+    private final LongAdder extractedTextReused = new LongAdder();
+    private final LongAdder filesQueued = new LongAdder();
+    private volatile boolean walkFinished;
+    private volatile boolean background;
+    private volatile boolean walkOnly;
+    private volatile List<Path> roots = Collections.emptyList();
+    // Work that never went through admission gets no priority
+    private volatile QueryScheduler.Lane lane = QueryScheduler.Lane.BULK;
+    private volatile long admissionNanos;
+    private volatile List<LiveFileSearch.SearchResult> results = Collections.emptyList();
+    private volatile long totalNanos;
+    
+    public SearchProfile(String description, List<String> rootPaths) {
+        this.description = description;
+        this.rootPaths = new ArrayList<>(rootPaths);
+    }
+    
+    // Ends the current phase; phases are consecutive, so they add up to the total
+    public synchronized void mark(String phase) {
+        long now = System.nanoTime();
+        phases.merge(phase, now - lastMarkNanos, Long::sum);
+        lastMarkNanos = now;
+    }
+    
+    void admitted(QueryScheduler.Lane lane, long waitNanos) {
+        this.lane = lane;
+        this.admissionNanos = waitNanos;
+    }
+    
+    void setRoots(List<Path> roots) {
+        this.roots = new ArrayList<>(roots);
+    }
+    
+    void complete(List<LiveFileSearch.SearchResult> results) {
+        this.results = results;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+    
+    void directoryPruned(String rule) {
+        pruned.computeIfAbsent(rule, key -> new LongAdder()).increment();
+    }
+    
+    void directoryVisited() {
+        directoriesVisited.increment();
+    }
+    
+    void fileConsidered() {
+        filesConsidered.increment();
+    }
+    
+    void filesConsidered(long count) {
+        filesConsidered.add(count);
+    }
+    
+    // A file handed to the readers; together with filesRead, how far reading has got
+    void fileQueued() {
+        filesQueued.increment();
+    }
+    
+    void walkFinished() {
+        walkFinished = true;
+    }
+    
+    // Work the engine does on its own, such as a catalogue refresh, is not reported as progress
+    void runInBackground() {
+        background = true;
+    }
+    
+    boolean isBackground() {
+        return background;
+    }
+    
+    // A search that must see the disk as it is now, not the catalogues
+    void walkOnly() {
+        walkOnly = true;
+    }
+    
+    boolean isWalkOnly() {
+        return walkOnly;
+    }
+    
+    void attributesRead() {
+        attributeReads.increment();
+    }
+    
+    void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+    
+    void regexInvoked() {
+        regexInvocations.increment();
+    }
+    
+    void regexInvoked(long count) {
+        regexInvocations.add(count);
+    }
+    
+    // A file not read again because a checkpoint of an earlier run covers it
+    void fileResumed(boolean matched) {
+        filesResumed.increment();
+        if (matched) {
+            matchesResumed.increment();
+        }
+    }
+    
+    // A ranked query over the content index scored documents out of the postings of its words
+    void indexScored(long documents, long postings) {
+        indexScored.add(documents);
+        indexPostings.add(postings);
+    }
+    
+    // A document turned into text by a TextExtractor, or whose text was already cached
+    void documentExtracted() {
+        documentsExtracted.increment();
+    }
+    
+    void extractedTextReused() {
+        extractedTextReused.increment();
+    }
+    
+    // The subtree a file belongs to: the top-level subdirectory of its root, or the
+    // root itself for files directly in it
+    Subtree subtree(Path file) {
+        for (Path root : roots) {
+            if (file.startsWith(root)) {
+                Path relative = root.relativize(file);
+                return unit(relative.getNameCount() > 1 ? root.resolve(relative.getName(0)) : root);
+            }
+        }
+        return unit(file);
+    }
+    
+    Subtree unit(Path topLevelDirectory) {
+        return subtrees.computeIfAbsent(topLevelDirectory.toString(), Subtree::new);
+    }
+    
+    // Files the walk has seen under root, over the subtrees it was divided into
+    long filesUnder(Path root) {
+        long files = 0;
+        for (Subtree subtree : subtrees.values()) {
+            if (Paths.get(subtree.path).startsWith(root)) {
+                files += subtree.files.sum();
+            }
+        }
+        return files;
+    }
+    
+    void fileRead(Path file, long nanos) {
+        filesRead.increment();
+        Subtree subtree = subtree(file);
+        subtree.filesRead.increment();
+        subtree.readNanos.add(nanos);
+    }
+    
+    public String getDescription() { return description; }
+    public List<Path> getRoots() { return roots; }
+    public List<LiveFileSearch.SearchResult> getResults() { return results; }
+    public long getTotalMillis() { return TimeUnit.NANOSECONDS.toMillis(totalNanos); }
+    public QueryScheduler.Lane getLane() { return lane; }
+    public long getAdmissionMillis() { return TimeUnit.NANOSECONDS.toMillis(admissionNanos); }
+    public long getDirectoriesVisited() { return directoriesVisited.sum(); }
+    public long getFilesConsidered() { return filesConsidered.sum(); }
+    public long getFilesRead() { return filesRead.sum(); }
+    public long getFilesQueued() { return filesQueued.sum(); }
+    // Whether the search's walk has ended, so getFilesConsidered is final
+    public boolean isWalkFinished() { return walkFinished; }
+    public long getAttributeReads() { return attributeReads.sum(); }
+    public long getBytesRead() { return bytesRead.sum(); }
+    public long getRegexInvocations() { return regexInvocations.sum(); }
+    public long getIndexPostings() { return indexPostings.sum(); }
+    public long getIndexScored() { return indexScored.sum(); }
+    public long getFilesResumed() { return filesResumed.sum(); }
+    public long getDocumentsExtracted() { return documentsExtracted.sum(); }
+    public long getExtractedTextReused() { return extractedTextReused.sum(); }
+    
+    public long getDirectoriesPruned() {
+        long total = 0;
+        for (LongAdder count : pruned.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+    
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append("Search: ").append(description).append('\n');
+        out.append("Roots: ").append(String.join(java.io.File.pathSeparator, rootPaths)).append('\n');
+        out.append(String.format("Started: %tF %<tT, total %d ms, %d results%n", new Date(startMillis), getTotalMillis(), results.size()));
+        out.append(String.format("Lane: %s, waited %d ms for admission%n", lane.name().toLowerCase(), getAdmissionMillis()));
+        
+        out.append("Phases:\n");
+        synchronized (this) {
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                out.append(String.format("  %-24s %8d ms%n", phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue())));
+            }
+        }
+        
+        out.append(String.format("Directories: %d visited, %d pruned%n", getDirectoriesVisited(), getDirectoriesPruned()));
+        List<Map.Entry<String, LongAdder>> rules = new ArrayList<>(pruned.entrySet());
+        rules.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+        for (Map.Entry<String, LongAdder> rule : rules) {
+            out.append(String.format("  pruned by %-30s %8d%n", rule.getKey(), rule.getValue().sum()));
+        }
+        out.append(String.format("Files: %d considered, %d read, %s read%n", getFilesConsidered(), getFilesRead(), formatBytes(getBytesRead())));
+        if (getFilesResumed() > 0) {
+            out.append(String.format("Resumed from checkpoint: %d files not read again, %d matches carried over%n",
+                getFilesResumed(), matchesResumed.sum()));
+        }
+        if (getDocumentsExtracted() + getExtractedTextReused() > 0) {
+            out.append(String.format("Documents: %d extracted, %d read from the text cache%n",
+                getDocumentsExtracted(), getExtractedTextReused()));
+        }
+        out.append("Attribute reads: ").append(getAttributeReads()).append('\n');
+        out.append("Regex invocations: ").append(getRegexInvocations()).append('\n');
+        if (getIndexPostings() > 0) {
+            out.append(String.format("Index: %d documents scored out of %d postings%n", getIndexScored(), getIndexPostings()));
+        }
+        
+        List<Subtree> sorted = new ArrayList<>(subtrees.values());
+        sorted.sort((a, b) -> Long.compare(b.walkNanos.sum() + b.readNanos.sum(), a.walkNanos.sum() + a.readNanos.sum()));
+        if (!sorted.isEmpty()) {
+            out.append("Time by top-level subdirectory (walk / read, summed over threads):\n");
+            for (Subtree subtree : sorted.subList(0, Math.min(MAX_SUBTREES_SHOWN, sorted.size()))) {
+                out.append(String.format("  %-50s %8d ms / %8d ms  %7d files, %6d read%n", subtree.path,
+                    TimeUnit.NANOSECONDS.toMillis(subtree.walkNanos.sum()),
+                    TimeUnit.NANOSECONDS.toMillis(subtree.readNanos.sum()),
+                    subtree.files.sum(), subtree.filesRead.sum()));
+            }
+            if (sorted.size() > MAX_SUBTREES_SHOWN) {
+                out.append("  ... ").append(sorted.size() - MAX_SUBTREES_SHOWN).append(" more\n");
+            }
+        }
+        return out.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return format();
+    }
+    
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+    
+    static final class Subtree {
+        private final String path;
+        final LongAdder walkNanos = new LongAdder();
+        final LongAdder readNanos = new LongAdder();
+        final LongAdder files = new LongAdder();
+        final LongAdder filesRead = new LongAdder();
+        
+        Subtree(String path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package searchengine;
+
+// How far a running search has got, as reported to the engine's progress listener
+// (see LiveFileSearch.setProgressListener). Estimates are -1 while unknown: the
+// total comes from WalkEstimator, so it is exact for a root walked before and a
+// sample otherwise, and a search that reads files is only as far along as the
+// share of the files it walked that it has also read.
+public final class SearchProgress {
+    private final long id;
+    private final String description;
+    private final long elapsedMillis;
+    private final long filesConsidered;
+    private final long filesRead;
+    private final long bytesRead;
+    private final long estimatedFiles;
+    private final double fraction;
+    private final double filesPerSecond;
+    private final double bytesPerSecond;
+    private final long etaMillis;
+    private final boolean done;
+    
+    SearchProgress(long id, String description, long elapsedMillis, long filesConsidered, long filesRead,
+                   long bytesRead, long estimatedFiles, double fraction, double filesPerSecond,
+                   double bytesPerSecond, long etaMillis, boolean done) {
+        this.id = id;
+        this.description = description;
+        this.elapsedMillis = elapsedMillis;
+        this.filesConsidered = filesConsidered;
+        this.filesRead = filesRead;
+        this.bytesRead = bytesRead;
+        this.estimatedFiles = estimatedFiles;
+        this.fraction = fraction;
+        this.filesPerSecond = filesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.etaMillis = etaMillis;
+        this.done = done;
+    }
+    
+    // Tells concurrent searches apart; a later search has a higher id
+    public long getId() { return id; }
+    public String getDescription() { return description; }
+    public long getElapsedMillis() { return elapsedMillis; }
+    public long getFilesConsidered() { return filesConsidered; }
+    public long getFilesRead() { return filesRead; }
+    public long getBytesRead() { return bytesRead; }
+    // Files the walk is expected to see in all, or -1
+    public long getEstimatedFiles() { return estimatedFiles; }
+    // Between 0 and 1, or -1 if unknown
+    public double getFraction() { return fraction; }
+    public double getFilesPerSecond() { return filesPerSecond; }
+    public double getBytesPerSecond() { return bytesPerSecond; }
+    // Time left, or -1 if unknown
+    public long getEtaMillis() { return etaMillis; }
+    // The last report of a search, sent when it finishes or is cancelled
+    public boolean isDone() { return done; }
+    
+    // One line, e.g. "37%, 12,345 of ~33,000 files, 2,100 files/s, 4.1 MB/s, 0:12 left"
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        if (fraction >= 0) {
+            out.append((int) (fraction * 100)).append("%, ");
+        }
+        out.append(String.format("%,d", filesConsidered));
+        if (estimatedFiles >= 0 && !done) {
+            out.append(String.format(" of ~%,d", estimatedFiles));
+        }
+        out.append(String.format(" files, %,.0f files/s", filesPerSecond));
+        if (bytesRead > 0) {
+            out.append(", ").append(formatBytes(bytesPerSecond)).append("/s");
+        }
+        if (etaMillis >= 0 && !done) {
+            out.append(", ").append(formatDuration(etaMillis)).append(" left");
+        }
+        return out.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return format();
+    }
+    
+    private static String formatBytes(double bytes) {
+        if (bytes < 1024) return String.format("%.0f B", bytes);
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+    }
+    
+    private static String formatDuration(long millis) {
+        long seconds = (millis + 999) / 1000;
+        if (seconds < 3600) {
+            return String.format("%d:%02d", seconds / 60, seconds % 60);
+        }
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,90 @@
+package searchengine;
+
+import java.util.*;
+
+// One search, as handed to a SearchBackend: what kind it is and its term, without the
+// roots, which the SearchRouter hands out to backends root by root
+public final class SearchRequest {
+    public enum Kind {
+        NAME, PATH, CONTENT, QUERY, RANKED
+    }
+    
+    private final Kind kind;
+    private final String term;
+    private final boolean regex;
+    private final boolean fuzzy;
+    private final FileQuery query; // only for QUERY
+    private final int limit; // only for RANKED
+    
+    private SearchRequest(Kind kind, String term, boolean regex, boolean fuzzy, FileQuery query, int limit) {
+        this.kind = kind;
+        this.term = term;
+        this.regex = regex;
+        this.fuzzy = fuzzy;
+        this.query = query;
+        this.limit = limit;
+    }
+    
+    public static SearchRequest byName(String term, boolean regex, boolean fuzzy) {
+        return new SearchRequest(Kind.NAME, term, regex, fuzzy, null, 0);
+    }
+    
+    public static SearchRequest byPath(String term, boolean regex, boolean fuzzy) {
+        return new SearchRequest(Kind.PATH, term, regex, fuzzy, null, 0);
+    }
+    
+    public static SearchRequest byContent(String term, boolean regex) {
+        return new SearchRequest(Kind.CONTENT, term, regex, false, null, 0);
+    }
+    
+    public static SearchRequest byQuery(FileQuery query) {
+        return new SearchRequest(Kind.QUERY, query.getText(), false, false, query, 0);
+    }
+    
+    public static SearchRequest byRelevance(String words, int limit) {
+        return new SearchRequest(Kind.RANKED, words, false, false, null, limit);
+    }
+    
+    public Kind getKind() { return kind; }
+    public String getTerm() { return term; }
+    public boolean isRegex() { return regex; }
+    public boolean isFuzzy() { return fuzzy; }
+    public FileQuery getQuery() { return query; }
+    public int getLimit() { return limit; }
+    
+    // Whether answering it means reading files, not just listing them
+    public boolean readsContent() {
+        return kind == Kind.CONTENT || kind == Kind.RANKED || (kind == Kind.QUERY && query.readsContent());
+    }
+    
+    // The order LiveFileSearch returns the results in, so that the results of several
+    // backends can be merged into it; null for ranked results, which cannot be
+    Comparator<LiveFileSearch.SearchResult> order() {
+        switch (kind) {
+            case NAME:
+                return fuzzy
+                    ? LiveFileSearch.fuzzyRelevance(LiveFileSearch.splitFuzzyTerms(term))
+                    : LiveFileSearch.nameRelevance(term);
+            case CONTENT:
+                return Comparator.comparingLong(LiveFileSearch.SearchResult::getSize);
+            case PATH:
+            case QUERY:
+                return Comparator.comparing(LiveFileSearch.SearchResult::getFilePath);
+            default:
+                return null;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        String modifier = fuzzy ? "fuzzy " : regex ? "regex " : "";
+        switch (kind) {
+            case QUERY:
+                return "query " + query.plan();
+            case RANKED:
+                return "ranked \"" + term + "\"";
+            default:
+                return modifier + kind.name().toLowerCase() + " \"" + term + "\"";
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package searchengine;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Sends each search to the backend that can answer it fastest, root by root: every
+// backend estimates its cost under the root (see SearchBackend), and the cheapest one
+// that can answer gets it. Roots no other backend can answer, because their index is
+// missing or stale, go to the live walk, which answers everything; so do the roots of
+// a backend that fails. The backends of one search run at the same time, so it takes
+// as long as the slowest of them, and their results are merged into the order one
+// engine returns. Ranked results cannot be merged, so a ranked search goes to one
+// backend for all of its roots.
+//
+// Estimates are corrected by what the backends actually took: per backend and kind of
+// search, the router keeps a running ratio of actual to estimated time and multiplies
+// new estimates by it, so a backend that underestimates its disk or its network stops
+// winning. The decisions and the latencies of every backend are kept for monitoring.
+public class SearchRouter {
+    private static final int MAX_DECISIONS = 100;
+    private static final int DECISIONS_SHOWN = 10;
+    private static final int LATENCY_SAMPLES = 256;
+    private static final double CALIBRATION_WEIGHT = 0.2; // of the latest search
+    private static final double MIN_CALIBRATION = 0.01;
+    private static final double MAX_CALIBRATION = 100;
+    // Runs the backends of a search other than the first, which runs on the caller's
+    // thread. Not the engine's executor: a backend's walk needs that one's threads.
+    private static final ExecutorService BACKENDS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "search-router");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final SearchBackend fallback;
+    private final List<SearchBackend> backends = new CopyOnWriteArrayList<>();
+    private final Map<SearchBackend, BackendStats> stats = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Deque<Decision> decisions = new ArrayDeque<>(); // newest last
+    
+    // Routes between the live walk of the engine and the indexes it keeps
+    public SearchRouter(LiveFileSearch engine) {
+        this(new LiveSearchBackend(engine));
+        addBackend(new IndexSearchBackend(engine));
+    }
+    
+    // fallback answers whatever no other backend can, and must answer every search
+    public SearchRouter(SearchBackend fallback) {
+        this.fallback = fallback;
+        addBackend(fallback);
+    }
+    
+    public void addBackend(SearchBackend backend) {
+        stats.put(backend, new BackendStats(backend));
+        backends.add(backend);
+    }
+    
+    public void removeBackend(SearchBackend backend) {
+        if (backend == fallback) {
+            throw new IllegalArgumentException("The fallback backend cannot be removed");
+        }
+        backends.remove(backend);
+        stats.remove(backend);
+    }
+    
+    public List<SearchBackend> getBackends() {
+        return Collections.unmodifiableList(new ArrayList<>(backends));
+    }
+    
+    public List<LiveFileSearch.SearchResult> search(SearchRequest request, List<String> rootPaths) {
+        List<Route> routes = new ArrayList<>();
+        if (request.order() == null) {
+            routes.add(choose(request, rootPaths));
+        } else {
+            Map<SearchBackend, Route> byBackend = new LinkedHashMap<>();
+            for (String rootPath : rootPaths) {
+                Route route = choose(request, Collections.singletonList(rootPath));
+                Route shared = byBackend.get(route.backend);
+                if (shared == null) {
+                    byBackend.put(route.backend, route);
+                } else {
+                    shared.add(route);
+                }
+            }
+            routes.addAll(byBackend.values());
+        }
+        if (routes.size() == 1) {
+            return run(request, routes.get(0));
+        }
+        List<Future<List<LiveFileSearch.SearchResult>>> others = new ArrayList<>();
+        for (Route route : routes.subList(1, routes.size())) {
+            others.add(BACKENDS.submit(() -> run(request, route)));
+        }
+        List<List<LiveFileSearch.SearchResult>> lists = new ArrayList<>();
+        try {
+            lists.add(run(request, routes.get(0)));
+            for (Future<List<LiveFileSearch.SearchResult>> other : others) {
+                lists.add(other.get());
+            }
+        } catch (InterruptedException e) {
+            // Cancelled, like a single engine's search: the caller drops the results
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            // Stops the others when one failed or the search was cancelled
+            for (Future<List<LiveFileSearch.SearchResult>> other : others) {
+                other.cancel(true);
+            }
+        }
+        return Collections.unmodifiableList(SearchCoordinator.merge(lists, request.order()));
+    }
+    
+    // The cheapest backend that can answer under all of the roots. The live walk is only
+    // asked when some other backend can answer: sizing a root may mean sampling it.
+    private Route choose(SearchRequest request, List<String> rootPaths) {
+        List<Path> roots = new ArrayList<>();
+        for (String rootPath : rootPaths) {
+            roots.add(Paths.get(rootPath).toAbsolutePath().normalize());
+        }
+        Map<String, String> alternatives = new LinkedHashMap<>();
+        Route best = null;
+        for (SearchBackend backend : backends) {
+            if (backend == fallback) {
+                continue;
+            }
+            Route route = estimate(backend, request, rootPaths, roots, alternatives);
+            if (route != null && (best == null || route.estimatedMillis < best.estimatedMillis)) {
+                best = route;
+            }
+        }
+        if (best == null) {
+            Route route = new Route(fallback, rootPaths, -1, -1);
+            route.alternatives.putAll(alternatives);
+            return route;
+        }
+        Route live = estimate(fallback, request, rootPaths, roots, alternatives);
+        if (live != null && live.estimatedMillis < best.estimatedMillis) {
+            best = live;
+        }
+        alternatives.remove(best.backend.getName());
+        best.alternatives.putAll(alternatives);
+        return best;
+    }
+    
+    // The backend's route for the roots, or null if it cannot answer under one of them;
+    // either way noted in alternatives
+    private Route estimate(SearchBackend backend, SearchRequest request, List<String> rootPaths, List<Path> roots,
+                           Map<String, String> alternatives) {
+        BackendStats backendStats = statsFor(backend);
+        double calibration = backendStats != null ? backendStats.getCalibration(request.getKind()) : 1;
+        double raw = 0;
+        String basis = null;
+        for (Path root : roots) {
+            SearchBackend.Cost cost = backend.estimate(request, root);
+            if (!cost.isAvailable()) {
+                alternatives.put(backend.getName(), cost.getBasis());
+                return null;
+            }
+            raw += cost.getMillis();
+            basis = cost.getBasis();
+        }
+        double calibrated = raw * calibration;
+        alternatives.put(backend.getName(), roots.size() == 1
+            ? String.format("~%.0fms, %s", calibrated, basis)
+            : String.format("~%.0fms", calibrated));
+        return new Route(backend, rootPaths, raw, calibrated);
+    }
+    
+    private List<LiveFileSearch.SearchResult> run(SearchRequest request, Route route) {
+        long start = System.nanoTime();
+        List<LiveFileSearch.SearchResult> results;
+        try {
+            results = route.backend.search(request, route.roots);
+        } catch (QueryRejectedException e) {
+            // A busy engine, not a broken backend
+            throw e;
+        } catch (RuntimeException e) {
+            if (route.backend == fallback) {
+                throw e;
+            }
+            BackendStats backendStats = statsFor(route.backend);
+            if (backendStats != null) {
+                backendStats.failed();
+            }
+            System.err.println("Search backend " + route.backend.getName() + " failed, using the "
+                + fallback.getName() + ": " + e.getMessage());
+            Route retry = new Route(fallback, route.roots, -1, -1);
+            retry.alternatives.putAll(route.alternatives);
+            retry.alternatives.remove(fallback.getName());
+            retry.fallbackReason = route.backend.getName() + " failed: " + e.getMessage();
+            return run(request, retry);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        BackendStats backendStats = statsFor(route.backend);
+        // A cancelled search took less than the whole search would have
+        if (backendStats != null && !Thread.currentThread().isInterrupted()) {
+            backendStats.completed(request.getKind(), millis, route.rawMillis);
+        }
+        synchronized (decisions) {
+            decisions.addLast(new Decision(System.currentTimeMillis(), request.toString(), route, millis, results.size()));
+            while (decisions.size() > MAX_DECISIONS) {
+                decisions.removeFirst();
+            }
+        }
+        return results;
+    }
+    
+    private BackendStats statsFor(SearchBackend backend) {
+        return stats.get(backend);
+    }
+    
+    // The latest routing decisions, oldest first
+    public List<Decision> getRecentDecisions() {
+        synchronized (decisions) {
+            return new ArrayList<>(decisions);
+        }
+    }
+    
+    // Per backend, in the order they were added
+    public List<BackendStats> getStats() {
+        synchronized (stats) {
+            return new ArrayList<>(stats.values());
+        }
+    }
+    
+    // The backends' latencies and the latest decisions, as shown by the CLI
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append("Backends:\n");
+        for (BackendStats backendStats : getStats()) {
+            out.append("  ").append(backendStats).append('\n');
+        }
+        List<Decision> recent = getRecentDecisions();
+        if (!recent.isEmpty()) {
+            out.append("Recent decisions:\n");
+            for (Decision decision : recent.subList(Math.max(0, recent.size() - DECISIONS_SHOWN), recent.size())) {
+                out.append("  ").append(decision).append('\n');
+            }
+        }
+        return out.toString();
+    }
+    
+    // Roots sent to one backend
+    private static final class Route {
+        private final SearchBackend backend;
+        private final List<String> roots = new ArrayList<>();
+        private double rawMillis; // as the backend estimated it; -1 if not asked
+        private double estimatedMillis; // corrected by past searches; -1 if not asked
+        private final Map<String, String> alternatives = new LinkedHashMap<>(); // other backends' estimates
+        private String fallbackReason;
+        
+        Route(SearchBackend backend, List<String> roots, double rawMillis, double estimatedMillis) {
+            this.backend = backend;
+            this.roots.addAll(roots);
+            this.rawMillis = rawMillis;
+            this.estimatedMillis = estimatedMillis;
+        }
+        
+        // Takes over the roots of another route to the same backend
+        void add(Route other) {
+            roots.addAll(other.roots);
+            if (rawMillis >= 0 && other.rawMillis >= 0) {
+                rawMillis += other.rawMillis;
+                estimatedMillis += other.estimatedMillis;
+            } else {
+                rawMillis = -1;
+                estimatedMillis = -1;
+            }
+            for (Map.Entry<String, String> alternative : other.alternatives.entrySet()) {
+                alternatives.merge(alternative.getKey(), alternative.getValue(), (a, b) -> a + "; " + b);
+            }
+        }
+    }
+    
+    // Where some roots of a search went and how long they took
+    public static final class Decision {
+        private final long timeMillis;
+        private final String request;
+        private final List<String> roots;
+        private final String backend;
+        private final double estimatedMillis;
+        private final long actualMillis;
+        private final int results;
+        private final Map<String, String> alternatives;
+        private final String fallbackReason;
+        
+        Decision(long timeMillis, String request, Route route, long actualMillis, int results) {
+            this.timeMillis = timeMillis;
+            this.request = request;
+            this.roots = Collections.unmodifiableList(new ArrayList<>(route.roots));
+            this.backend = route.backend.getName();
+            this.estimatedMillis = route.estimatedMillis;
+            this.actualMillis = actualMillis;
+            this.results = results;
+            this.alternatives = Collections.unmodifiableMap(new LinkedHashMap<>(route.alternatives));
+            this.fallbackReason = route.fallbackReason;
+        }
+        
+        public long getTimeMillis() { return timeMillis; }
+        public String getRequest() { return request; }
+        public List<String> getRoots() { return roots; }
+        public String getBackend() { return backend; }
+        // -1 if the backend was the only one able to answer and was not asked
+        public double getEstimatedMillis() { return estimatedMillis; }
+        public long getActualMillis() { return actualMillis; }
+        public int getResults() { return results; }
+        // What the other backends estimated, or why they could not answer
+        public Map<String, String> getAlternatives() { return alternatives; }
+        // Why the search fell back to the live walk after the chosen backend failed, or null
+        public String getFallbackReason() { return fallbackReason; }
+        
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%tT %s %s -> %s", timeMillis, request, roots, backend));
+            if (estimatedMillis >= 0) {
+                out.append(String.format(" (~%.0fms)", estimatedMillis));
+            }
+            out.append(String.format(": %dms, %d results", actualMillis, results));
+            if (fallbackReason != null) {
+                out.append(", after ").append(fallbackReason);
+            }
+            for (Map.Entry<String, String> alternative : alternatives.entrySet()) {
+                out.append("; ").append(alternative.getKey()).append(": ").append(alternative.getValue());
+            }
+            return out.toString();
+        }
+    }
+    
+    // How one backend has done
+    public static final class BackendStats {
+        private final String name;
+        private final SearchBackend.Kind kind;
+        private final long[] latencies = new long[LATENCY_SAMPLES]; // the latest, round robin
+        private final Map<SearchRequest.Kind, Double> calibration = new EnumMap<>(SearchRequest.Kind.class);
+        private long searches;
+        private long failures;
+        private long totalMillis;
+        private long maxMillis;
+        
+        BackendStats(SearchBackend backend) {
+            this.name = backend.getName();
+            this.kind = backend.getKind();
+        }
+        
+        synchronized void completed(SearchRequest.Kind request, long millis, double estimatedMillis) {
+            latencies[(int) (searches % LATENCY_SAMPLES)] = millis;
+            searches++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            if (estimatedMillis > 0) {
+                double ratio = Math.max(1, millis) / estimatedMillis;
+                double previous = calibration.getOrDefault(request, 1.0);
+                double next = previous + CALIBRATION_WEIGHT * (ratio - previous);
+                calibration.put(request, Math.max(MIN_CALIBRATION, Math.min(MAX_CALIBRATION, next)));
+            }
+        }
+        
+        synchronized void failed() {
+            failures++;
+        }
+        
+        public String getName() { return name; }
+        public SearchBackend.Kind getKind() { return kind; }
+        public synchronized long getSearches() { return searches; }
+        public synchronized long getFailures() { return failures; }
+        public synchronized long getMaxMillis() { return maxMillis; }
+        
+        public synchronized double getMeanMillis() {
+            return searches > 0 ? (double) totalMillis / searches : 0;
+        }
+        
+        // Over the latest searches, e.g. 0.95 for the 95th percentile; 0 if none
+        public synchronized long getPercentileMillis(double fraction) {
+            int count = (int) Math.min(searches, LATENCY_SAMPLES);
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(fraction * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, rank))];
+        }
+        
+        // What the backend's estimates for the kind of search are multiplied by
+        public synchronized double getCalibration(SearchRequest.Kind request) {
+            return calibration.getOrDefault(request, 1.0);
+        }
+        
+        @Override
+        public synchronized String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%s (%s): %d searches, %d failed", name, kind, searches, failures));
+            if (searches > 0) {
+                out.append(String.format(", p50 %dms, p95 %dms, max %dms",
+                    getPercentileMillis(0.5), getPercentileMillis(0.95), maxMillis));
+            }
+            for (Map.Entry<SearchRequest.Kind, Double> entry : calibration.entrySet()) {
+                out.append(String.format(", %s x%.2f", entry.getKey().name().toLowerCase(), entry.getValue()));
+            }
+            return out.toString();
+        }
+    }
+}
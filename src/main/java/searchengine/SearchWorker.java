@@ -0,0 +1,177 @@
+package searchengine;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// One worker process of a sharded search. It listens on a TCP port, runs the shard
+// searches a SearchCoordinator sends it on its own LiveFileSearch and streams back
+// the results (see WorkerProtocol). Each connection is served on its own thread.
+//
+// Usage: java -cp target/classes searchengine.SearchWorker [--attached] [port] [bind address]
+// Port 0 (the default) picks a free port; the address defaults to loopback, so a
+// worker is only reachable from other machines when an address is given. It then
+// serves anyone who can reach the port, so such a worker refuses to start without a
+// token in SEARCH_WORKER_TOKEN, which every connection has to present. An
+// --attached worker exits when its stdin closes, i.e. when the coordinator that
+// started it is gone.
+public class SearchWorker {
+    private final LiveFileSearch searchEngine;
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "worker-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    public SearchWorker(int port, InetAddress bindAddress, String token) throws IOException {
+        if (token.isEmpty() && !bindAddress.isLoopbackAddress()) {
+            throw new IllegalArgumentException("A worker bound to " + bindAddress.getHostAddress()
+                + " needs a token in " + WorkerProtocol.TOKEN_VARIABLE);
+        }
+        this.token = token;
+        this.searchEngine = new LiveFileSearch(null); // shards change from search to search
+        // Workers share the coordinator's stderr; a profile per shard would only clutter it
+        this.searchEngine.setSlowQueryThreshold(Long.MAX_VALUE);
+        // Nothing keeps the catalogue a full walk would record
+        this.searchEngine.setLazyNameWalk(true);
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+    }
+    
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    // Serves connections until the server socket is closed
+    public void serve() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Error accepting connection: " + e.getMessage());
+                }
+                continue;
+            }
+            Thread thread = new Thread(() -> handle(socket), "worker-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        heartbeats.shutdownNow();
+        searchEngine.shutdown();
+    }
+    
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+    
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setKeepAlive(true);
+            if (!WorkerProtocol.tokenMatches(token, in.readUTF())) {
+                out.writeByte(WorkerProtocol.ERROR);
+                out.writeUTF("Wrong worker token");
+                out.flush();
+                return;
+            }
+            while (true) {
+                WorkerProtocol.Request request;
+                try {
+                    request = WorkerProtocol.Request.read(in);
+                } catch (EOFException e) {
+                    return; // the coordinator closed the connection
+                }
+                List<LiveFileSearch.SearchResult> results;
+                ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay(() -> beat(out),
+                    WorkerProtocol.HEARTBEAT_MILLIS, WorkerProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                try {
+                    results = search(request);
+                } catch (IllegalArgumentException | QueryRejectedException e) {
+                    synchronized (out) {
+                        out.writeByte(WorkerProtocol.ERROR);
+                        out.writeUTF(String.valueOf(e.getMessage()));
+                        out.flush();
+                    }
+                    continue;
+                } finally {
+                    heartbeat.cancel(false);
+                }
+                synchronized (out) {
+                    for (LiveFileSearch.SearchResult result : results) {
+                        WorkerProtocol.writeResult(out, result);
+                    }
+                    out.writeByte(WorkerProtocol.END);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The coordinator went away, or never sent a token; it will re-assign the shard if it still needs it
+        }
+    }
+    
+    // A heartbeat still running when its search ends may land after END; the
+    // coordinator skips it wherever it comes
+    private static void beat(DataOutputStream out) {
+        synchronized (out) {
+            try {
+                out.writeByte(WorkerProtocol.HEARTBEAT);
+                out.flush();
+            } catch (IOException e) {
+                // The coordinator went away; the connection thread finds out on its next write
+            }
+        }
+    }
+    
+    private List<LiveFileSearch.SearchResult> search(WorkerProtocol.Request request) {
+        switch (request.kind) {
+            case WorkerProtocol.NAME:
+                return searchEngine.searchByName(request.term, request.roots, request.regex, false);
+            case WorkerProtocol.FUZZY:
+                return searchEngine.searchByNameFuzzy(request.term, request.roots);
+            case WorkerProtocol.CONTENT:
+                return searchEngine.searchByContent(request.term, request.roots, request.regex);
+            case WorkerProtocol.QUERY:
+                return searchEngine.searchByQuery(FileQuery.parse(request.term), request.roots);
+            default:
+                throw new IllegalArgumentException("Unknown search kind: " + request.kind);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        boolean attached = args.length > 0 && args[0].equals("--attached");
+        int first = attached ? 1 : 0;
+        int port = args.length > first ? Integer.parseInt(args[first]) : 0;
+        InetAddress bindAddress = args.length > first + 1 ? InetAddress.getByName(args[first + 1]) : InetAddress.getLoopbackAddress();
+        SearchWorker worker = new SearchWorker(port, bindAddress, WorkerProtocol.configuredToken());
+        if (attached) {
+            Thread watcher = new Thread(() -> {
+                try {
+                    while (System.in.read() >= 0) {
+                        // Nothing is sent on stdin; it only stays open while the coordinator runs
+                    }
+                } catch (IOException e) {
+                    // Treat as closed
+                }
+                System.exit(0);
+            }, "parent-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        System.out.println(WorkerProtocol.LISTENING + " " + worker.getPort());
+        System.out.flush();
+        // A coordinator that started this process stops reading its stdout after the
+        // port, so anything printed later goes to stderr rather than filling the pipe
+        System.setOut(System.err);
+        worker.serve();
+    }
+}
@@ -2,32 +2,78 @@ package searchengine;
 
 import java.io.*;
 import java.nio.file.*;
+import java.nio.charset.Charset;
 import java.util.*;
-import java.awt.Desktop;
 
 public class SimpleLiveSearchCLI {
+    private static final int RANKED_RESULTS = 20;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    private static final long PROGRESS_DELAY_MS = 1000; // quick searches show no progress line
+    
     private final LiveFileSearch searchEngine;
-    private final Scanner scanner;
-    private String currentSearchPath;
+    // Not a Scanner: that would load regex and locale data before the first prompt
+    private final BufferedReader console;
+    private List<String> currentSearchPaths;
     private List<LiveFileSearch.SearchResult> lastResults;
+    private final SearchRouter router;
+    private RemoteSearchBackend workers; // null unless searches are sharded over workers
+    private int progressWidth; // of the progress line on screen, 0 if none
     
     public SimpleLiveSearchCLI() {
         this.searchEngine = new LiveFileSearch();
-        this.scanner = new Scanner(System.in);
-        this.currentSearchPath = System.getProperty("user.home");
+        this.console = new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset()));
+        this.currentSearchPaths = Collections.singletonList(System.getProperty("user.home"));
         this.lastResults = new ArrayList<>();
+        this.router = new SearchRouter(searchEngine);
+        // Redrawing a line in place only works on a terminal, not in a pipe or a file
+        if (System.console() != null) {
+            searchEngine.setProgressListener(this::showProgress, PROGRESS_INTERVAL_MS);
+        }
+    }
+    
+    // Draws the progress of a running search over itself on one line, and clears it
+    // when the search is done, before its results are printed. Sharded searches run in
+    // the workers and show none.
+    private synchronized void showProgress(SearchProgress progress) {
+        if (progress.isDone()) {
+            if (progressWidth > 0) {
+                System.out.print("\r" + " ".repeat(progressWidth) + "\r");
+                System.out.flush();
+                progressWidth = 0;
+            }
+            return;
+        }
+        if (progress.getElapsedMillis() < PROGRESS_DELAY_MS) {
+            return;
+        }
+        String line = "  " + progress.format();
+        System.out.print("\r" + line + " ".repeat(Math.max(0, progressWidth - line.length())));
+        System.out.flush();
+        progressWidth = Math.max(progressWidth, line.length());
     }
     
     public void start() {
         System.out.println("=== Simple Live File Search ===");
-        System.out.println("Search path: " + currentSearchPath);
+        System.out.println("Search path: " + describeSearchPaths());
         System.out.println("Commands:");
         System.out.println("  <search term> - Search by file name");
         System.out.println("  content <term> - Search by file content");
         System.out.println("  fuzzy <term1 term2 ...> - Search by file name (all terms must be present)");
         System.out.println("  regex <term> - Search by file name using regex");
+        System.out.println("  <term>/<term> - Search by path below the search directories, also with fuzzy, e.g. fuzzy prod/ .log");
+        System.out.println("  path-regex <term> - Search by path below the search directories using regex, e.g. ^/src/.*Test");
         System.out.println("  content-regex <term> - Search by file content using regex");
-        System.out.println("  path <directory> - Change search directory");
+        System.out.println("  ranked <words> - Files most relevant to the words, from the content index");
+        System.out.println("  index - Bring the content index up to date for the search directories");
+        System.out.println("  resident [off] - Keep every file name of the search directories in memory for name searches");
+        System.out.println("  lazy [off] - Read attributes only for matching names in name and path searches");
+        System.out.println("  query <expression> - Combine predicates, e.g. name:*.log AND content:OOM AND NOT path:archive");
+        System.out.println("  dupes - Find duplicate files in the search directories");
+        System.out.println("  explain <search> - Run any of the searches above and show where its time went");
+        System.out.println("  shards <count>|<host:port>[,<host:port>...]|off - Spread searches over worker processes");
+        System.out.println("  backends - Show which backend answered recent searches and how fast each one is");
+        System.out.println("  throttle [files=<n>] [bytes=<n>[k|m|g]] [dirs=<n>] [nocache] | off - Limit bulk searches per second");
+        System.out.println("  path <directory>[" + File.pathSeparator + "<directory>...] - Change search directories");
         System.out.println("  open <number> - Open file by number");
         System.out.println("  delete <number> - Delete file by number");
         System.out.println("  <number> - Open file by number (shortcut)");
@@ -36,65 +82,162 @@ public class SimpleLiveSearchCLI {
         
         while (true) {
             System.out.print("Search> ");
-            String input = scanner.nextLine().trim();
-            
-            if (input.isEmpty()) {
-                continue;
-            }
-            
-            if (input.equalsIgnoreCase("quit")) {
+            String line = readLine();
+            if (line == null || line.trim().equalsIgnoreCase("quit")) {
                 break;
             }
-            
-            if (input.startsWith("content ")) {
-                String term = input.substring(8).trim();
-                if (!term.isEmpty()) {
-                    searchByContent(term, false);
-                }
-            } else if (input.startsWith("regex ")) {
-                String term = input.substring(6).trim();
-                if (!term.isEmpty()) {
-                    searchByName(term, true);
-                }
-            } else if (input.startsWith("content-regex ")) {
-                String term = input.substring(14).trim();
-                if (!term.isEmpty()) {
-                    searchByContent(term, true);
-                }
-            } else if (input.startsWith("fuzzy ")) {
-                String term = input.substring(6).trim();
-                if (!term.isEmpty()) {
-                    searchByNameFuzzy(term);
-                }
-            } else if (input.startsWith("path ")) {
-                String path = input.substring(5).trim();
-                changeSearchPath(path);
-            } else if (input.startsWith("open ")) {
-                String numberStr = input.substring(5).trim();
-                openFileByNumber(numberStr);
-            } else if (input.startsWith("delete ")) {
-                String numberStr = input.substring(7).trim();
-                deleteFileByNumber(numberStr);
-            } else if (input.matches("\\d+")) {
-                // Just a number - open file by number
-                openFileByNumber(input);
-            } else {
-                // Default: search by file name
-                searchByName(input, false);
+            execute(line.trim());
+        }
+        close();
+    }
+    
+    // Runs each command as if typed at the prompt, without the banner, then exits.
+    // This path never touches AWT or Swing unless a command opens a file.
+    public void runBatch(List<String> commands) {
+        for (String command : commands) {
+            String line = command.trim();
+            if (line.equalsIgnoreCase("quit")) {
+                break;
             }
+            execute(line);
+        }
+        close();
+    }
+    
+    private void close() {
+        if (workers != null) {
+            workers.getCoordinator().close();
         }
-        
         searchEngine.shutdown();
-        scanner.close();
+    }
+    
+    // Null at end of input
+    private String readLine() {
+        try {
+            return console.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
+    private void execute(String input) {
+        try {
+            dispatch(input);
+        } catch (QueryRejectedException e) {
+            // The engine is shared and busy; the user can simply try again
+            System.out.println("❌ " + e.getMessage());
+        }
+    }
+    
+    private void dispatch(String input) {
+        if (input.isEmpty()) {
+            return;
+        }
+        
+        if (input.startsWith("content ")) {
+            String term = input.substring(8).trim();
+            if (!term.isEmpty()) {
+                searchByContent(term, false);
+            }
+        } else if (input.startsWith("regex ")) {
+            String term = input.substring(6).trim();
+            if (!term.isEmpty()) {
+                searchByName(term, true);
+            }
+        } else if (input.startsWith("content-regex ")) {
+            String term = input.substring(14).trim();
+            if (!term.isEmpty()) {
+                searchByContent(term, true);
+            }
+        } else if (input.startsWith("path-regex ")) {
+            String term = input.substring(11).trim();
+            if (!term.isEmpty()) {
+                searchByPath(term, true, false);
+            }
+        } else if (input.startsWith("fuzzy ")) {
+            String term = input.substring(6).trim();
+            if (LiveFileSearch.isPathTerm(term, false)) {
+                searchByPath(term, false, true);
+            } else if (!term.isEmpty()) {
+                searchByNameFuzzy(term);
+            }
+        } else if (input.startsWith("ranked ")) {
+            String words = input.substring(7).trim();
+            if (!words.isEmpty()) {
+                searchByRelevance(words);
+            }
+        } else if (input.equalsIgnoreCase("index")) {
+            updateContentIndex();
+        } else if (input.equalsIgnoreCase("resident")) {
+            loadResidentCatalogue();
+        } else if (input.equalsIgnoreCase("resident off")) {
+            searchEngine.dropResidentCatalogue();
+            System.out.println("✓ Name searches walk the disk again");
+        } else if (input.equalsIgnoreCase("lazy")) {
+            searchEngine.setLazyNameWalk(true);
+            System.out.println("✓ Name and path searches read attributes only where they need them; they no longer update the catalogue");
+        } else if (input.equalsIgnoreCase("lazy off")) {
+            searchEngine.setLazyNameWalk(false);
+            System.out.println("✓ Name and path searches read every attribute and update the catalogue");
+        } else if (input.startsWith("query ")) {
+            String expression = input.substring(6).trim();
+            if (!expression.isEmpty()) {
+                searchByQuery(expression);
+            }
+        } else if (input.startsWith("explain ")) {
+            String search = input.substring(8).trim();
+            if (!search.isEmpty()) {
+                explain(search);
+            }
+        } else if (input.equalsIgnoreCase("dupes")) {
+            findDuplicates();
+        } else if (input.equalsIgnoreCase("backends")) {
+            System.out.print(router.format());
+            System.out.println();
+        } else if (input.startsWith("shards ")) {
+            changeShards(input.substring(7).trim());
+        } else if (input.startsWith("throttle ")) {
+            changeThrottle(input.substring(9).trim());
+        } else if (input.startsWith("path ")) {
+            String path = input.substring(5).trim();
+            changeSearchPath(path);
+        } else if (input.startsWith("open ")) {
+            String numberStr = input.substring(5).trim();
+            openFileByNumber(numberStr);
+        } else if (input.startsWith("delete ")) {
+            String numberStr = input.substring(7).trim();
+            deleteFileByNumber(numberStr);
+        } else if (input.matches("\\d+")) {
+            // Just a number - open file by number
+            openFileByNumber(input);
+        } else if (LiveFileSearch.isPathTerm(input, false)) {
+            searchByPath(input, false, false);
+        } else {
+            // Default: search by file name
+            searchByName(input, false);
+        }
     }
     
     private void searchByName(String searchTerm, boolean useRegex) {
         String searchType = useRegex ? "Regex name search" : "Name search";
         System.out.println("Searching for files with name " + (useRegex ? "matching regex" : "containing") + ": " + searchTerm);
-        System.out.println("Searching in: " + currentSearchPath);
+        System.out.println("Searching in: " + describeSearchPaths());
         
         long startTime = System.currentTimeMillis();
-        lastResults = searchEngine.searchByName(searchTerm, currentSearchPath, useRegex);
+        lastResults = router.search(SearchRequest.byName(searchTerm, useRegex, false), currentSearchPaths);
+        long endTime = System.currentTimeMillis();
+        
+        displayResults(searchType, endTime - startTime);
+    }
+    
+    private void searchByPath(String searchTerm, boolean useRegex, boolean useFuzzy) {
+        String searchType = useFuzzy ? "Fuzzy path search" : useRegex ? "Regex path search" : "Path search";
+        System.out.println("Searching for files with path " + (useFuzzy ? "containing all terms" : useRegex ? "matching regex" : "containing")
+            + ": " + searchTerm);
+        System.out.println("Searching in: " + describeSearchPaths());
+        
+        long startTime = System.currentTimeMillis();
+        lastResults = router.search(SearchRequest.byPath(searchTerm, useRegex, useFuzzy), currentSearchPaths);
         long endTime = System.currentTimeMillis();
         
         displayResults(searchType, endTime - startTime);
@@ -103,26 +246,148 @@ public class SimpleLiveSearchCLI {
     private void searchByContent(String searchTerm, boolean useRegex) {
         String searchType = useRegex ? "Regex content search" : "Content search";
         System.out.println("Searching for files with content " + (useRegex ? "matching regex" : "containing") + ": " + searchTerm);
-        System.out.println("Searching in: " + currentSearchPath);
+        System.out.println("Searching in: " + describeSearchPaths());
         
         long startTime = System.currentTimeMillis();
-        lastResults = searchEngine.searchByContent(searchTerm, currentSearchPath, useRegex);
+        lastResults = router.search(SearchRequest.byContent(searchTerm, useRegex), currentSearchPaths);
         long endTime = System.currentTimeMillis();
         
         displayResults(searchType, endTime - startTime);
     }
     
+    private void searchByRelevance(String words) {
+        System.out.println("Ranking files by relevance to: " + words);
+        System.out.println("Searching in: " + describeSearchPaths());
+        
+        long startTime = System.currentTimeMillis();
+        lastResults = router.search(SearchRequest.byRelevance(words, RANKED_RESULTS), currentSearchPaths);
+        long endTime = System.currentTimeMillis();
+        
+        displayResults("Ranked search", endTime - startTime);
+    }
+    
+    private void updateContentIndex() {
+        System.out.println("Indexing: " + describeSearchPaths());
+        SearchProfile profile = searchEngine.updateContentIndex(currentSearchPaths);
+        System.out.println("✓ Read " + profile.getFilesRead() + " new or changed files in "
+            + profile.getTotalMillis() + "ms");
+        System.out.println();
+    }
+    
+    private void loadResidentCatalogue() {
+        System.out.println("Loading file names into memory: " + describeSearchPaths());
+        SearchProfile profile = searchEngine.loadResidentCatalogue(currentSearchPaths);
+        ResidentCatalogue resident = searchEngine.getResidentCatalogue();
+        if (resident == null) {
+            System.out.println("❌ Could not load the file names");
+            return;
+        }
+        System.out.println("✓ " + resident.getFileCount() + " files in " + resident.getDirectoryCount()
+            + " directories loaded in " + profile.getTotalMillis() + "ms (" + (resident.getNameBytes() >> 10)
+            + "KB of names off-heap)");
+        System.out.println();
+    }
+    
     private void searchByNameFuzzy(String searchTerm) {
         System.out.println("Fuzzy searching for files with name containing all terms: " + searchTerm);
-        System.out.println("Searching in: " + currentSearchPath);
+        System.out.println("Searching in: " + describeSearchPaths());
         
         long startTime = System.currentTimeMillis();
-        lastResults = searchEngine.searchByNameFuzzy(searchTerm, currentSearchPath);
+        lastResults = router.search(SearchRequest.byName(searchTerm, false, true), currentSearchPaths);
         long endTime = System.currentTimeMillis();
         
         displayResults("Fuzzy name search", endTime - startTime);
     }
     
+    private void searchByQuery(String expression) {
+        FileQuery query;
+        try {
+            query = FileQuery.parse(expression);
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ Invalid query: " + e.getMessage());
+            return;
+        }
+        System.out.println("Searching for files matching: " + query.plan());
+        System.out.println("Searching in: " + describeSearchPaths());
+        
+        long startTime = System.currentTimeMillis();
+        lastResults = router.search(SearchRequest.byQuery(query), currentSearchPaths);
+        long endTime = System.currentTimeMillis();
+        
+        displayResults("Query", endTime - startTime);
+    }
+    
+    // Runs a search given the way it would be typed at the prompt and prints its
+    // results followed by its profile
+    private void explain(String search) {
+        SearchProfile profile;
+        if (search.startsWith("content ")) {
+            profile = searchEngine.explainByContent(search.substring(8).trim(), currentSearchPaths, false);
+        } else if (search.startsWith("content-regex ")) {
+            profile = searchEngine.explainByContent(search.substring(14).trim(), currentSearchPaths, true);
+        } else if (search.startsWith("regex ")) {
+            profile = searchEngine.explainByName(search.substring(6).trim(), currentSearchPaths, true, false);
+        } else if (search.startsWith("path-regex ")) {
+            profile = searchEngine.explainByPath(search.substring(11).trim(), currentSearchPaths, true, false);
+        } else if (search.startsWith("fuzzy ")) {
+            String terms = search.substring(6).trim();
+            profile = LiveFileSearch.isPathTerm(terms, false)
+                ? searchEngine.explainByPath(terms, currentSearchPaths, false, true)
+                : searchEngine.explainByName(terms, currentSearchPaths, false, true);
+        } else if (search.startsWith("ranked ")) {
+            profile = searchEngine.explainByRelevance(search.substring(7).trim(), currentSearchPaths, RANKED_RESULTS);
+        } else if (search.startsWith("query ")) {
+            try {
+                profile = searchEngine.explainByQuery(FileQuery.parse(search.substring(6).trim()), currentSearchPaths);
+            } catch (IllegalArgumentException e) {
+                System.out.println("❌ Invalid query: " + e.getMessage());
+                return;
+            }
+        } else if (LiveFileSearch.isPathTerm(search, false)) {
+            profile = searchEngine.explainByPath(search, currentSearchPaths, false, false);
+        } else {
+            profile = searchEngine.explainByName(search, currentSearchPaths, false, false);
+        }
+        
+        lastResults = profile.getResults();
+        displayResults("Explain " + profile.getDescription(), profile.getTotalMillis());
+        System.out.println("=== Profile ===");
+        System.out.println(profile.format());
+    }
+    
+    // Lists duplicates group by group; the numbering continues across groups so
+    // open and delete work on any copy
+    private void findDuplicates() {
+        System.out.println("Finding duplicate files in: " + describeSearchPaths());
+        
+        long startTime = System.currentTimeMillis();
+        List<DuplicateFinder.DuplicateGroup> groups = searchEngine.findDuplicates(currentSearchPaths);
+        long endTime = System.currentTimeMillis();
+        
+        lastResults = new ArrayList<>();
+        System.out.println();
+        System.out.println("=== Duplicate Files (" + (endTime - startTime) + "ms) ===");
+        if (groups.isEmpty()) {
+            System.out.println("No duplicate files found.");
+            System.out.println();
+            return;
+        }
+        long wasted = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            DuplicateFinder.DuplicateGroup group = groups.get(g);
+            wasted += group.getWastedBytes();
+            System.out.println("Group " + (g + 1) + ": " + group.getFiles().size() + " copies of "
+                + group.getSize() + " bytes");
+            for (LiveFileSearch.SearchResult result : group.getFiles()) {
+                lastResults.add(result);
+                System.out.printf("%-4d | %s%n", lastResults.size(), result.getFilePath());
+            }
+        }
+        System.out.println();
+        System.out.println(groups.size() + " groups, " + wasted + " bytes could be reclaimed");
+        System.out.println();
+    }
+    
     private void displayResults(String searchType, long searchTime) {
         System.out.println();
         System.out.println("=== " + searchType + " Results (" + searchTime + "ms) ===");
@@ -149,14 +414,130 @@ public class SimpleLiveSearchCLI {
         System.out.println();
     }
     
-    private void changeSearchPath(String path) {
-        Path newPath = Paths.get(path);
-        if (Files.exists(newPath) && Files.isDirectory(newPath)) {
-            currentSearchPath = newPath.toAbsolutePath().toString();
-            System.out.println("Search path changed to: " + currentSearchPath);
+    // A number starts that many local worker processes; host:port pairs use workers
+    // already running (java -cp ... searchengine.SearchWorker <port> <address>). The
+    // router sends a search to the workers only where they are expected to be faster.
+    private void changeShards(String spec) {
+        if (workers != null) {
+            router.removeBackend(workers);
+            workers.getCoordinator().close();
+            workers = null;
+        }
+        if (spec.equalsIgnoreCase("off")) {
+            System.out.println("✓ Searching in this process");
+            return;
+        }
+        try {
+            SearchCoordinator coordinator;
+            if (spec.matches("\\d+")) {
+                coordinator = new SearchCoordinator(Integer.parseInt(spec));
+            } else {
+                List<java.net.InetSocketAddress> addresses = new ArrayList<>();
+                for (String part : spec.split(",")) {
+                    int colon = part.lastIndexOf(':');
+                    if (colon <= 0) {
+                        System.out.println("❌ Expected host:port, got: " + part.trim());
+                        return;
+                    }
+                    addresses.add(new java.net.InetSocketAddress(part.substring(0, colon).trim(),
+                        Integer.parseInt(part.substring(colon + 1).trim())));
+                }
+                coordinator = new SearchCoordinator(addresses);
+            }
+            workers = new RemoteSearchBackend(coordinator, searchEngine.getWalkEstimator());
+            router.addBackend(workers);
+            System.out.println("✓ Searches can be spread over " + coordinator.getWorkerCount() + " workers");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("❌ Could not set up workers: " + e.getMessage());
+        }
+    }
+    
+    // Sets the limits of the bulk lane, e.g. "files=200 bytes=20m dirs=500 nocache";
+    // limits not given are lifted
+    private void changeThrottle(String spec) {
+        IoThrottle throttle = searchEngine.getQueryScheduler().getBulkThrottle();
+        Map<IoThrottle.Resource, Long> limits = new EnumMap<>(IoThrottle.Resource.class);
+        boolean nocache = false;
+        if (!spec.equalsIgnoreCase("off")) {
+            for (String part : spec.toLowerCase().split("\\s+")) {
+                int equals = part.indexOf('=');
+                String name = equals > 0 ? part.substring(0, equals) : part;
+                try {
+                    if (name.equals("nocache") && equals < 0) {
+                        nocache = true;
+                    } else if (name.equals("files") && equals > 0) {
+                        limits.put(IoThrottle.Resource.FILES, parseLimit(part.substring(equals + 1)));
+                    } else if (name.equals("bytes") && equals > 0) {
+                        limits.put(IoThrottle.Resource.BYTES, parseLimit(part.substring(equals + 1)));
+                    } else if (name.equals("dirs") && equals > 0) {
+                        limits.put(IoThrottle.Resource.DIRECTORIES, parseLimit(part.substring(equals + 1)));
+                    } else {
+                        System.out.println("❌ Unknown throttle setting: " + part);
+                        return;
+                    }
+                } catch (NumberFormatException e) {
+                    System.out.println("❌ Invalid limit: " + part);
+                    return;
+                }
+            }
+        }
+        for (IoThrottle.Resource resource : IoThrottle.Resource.values()) {
+            throttle.setLimit(resource, limits.getOrDefault(resource, 0L));
+        }
+        throttle.setBypassPageCache(nocache);
+        if (limits.isEmpty() && !nocache) {
+            System.out.println("✓ Bulk searches are not throttled");
         } else {
+            System.out.println("✓ Bulk searches limited to " + describeLimit(limits, IoThrottle.Resource.FILES, "files")
+                + ", " + describeLimit(limits, IoThrottle.Resource.BYTES, "bytes")
+                + ", " + describeLimit(limits, IoThrottle.Resource.DIRECTORIES, "directories") + " per second"
+                + (nocache ? ", bypassing the page cache" : ""));
+        }
+    }
+    
+    private static long parseLimit(String value) {
+        long multiplier = 1;
+        char unit = value.isEmpty() ? ' ' : value.charAt(value.length() - 1);
+        if (unit == 'k' || unit == 'm' || unit == 'g') {
+            multiplier = unit == 'k' ? 1024L : unit == 'm' ? 1024L * 1024 : 1024L * 1024 * 1024;
+            value = value.substring(0, value.length() - 1);
+        }
+        long limit = Long.parseLong(value) * multiplier;
+        if (limit < 0) {
+            throw new NumberFormatException(value);
+        }
+        return limit;
+    }
+    
+    private static String describeLimit(Map<IoThrottle.Resource, Long> limits, IoThrottle.Resource resource, String unit) {
+        Long limit = limits.get(resource);
+        return limit == null || limit == 0 ? "any " + unit : limit + " " + unit;
+    }
+    
+    // Accepts several directories separated by the platform path separator
+    private void changeSearchPath(String path) {
+        List<String> newPaths = new ArrayList<>();
+        for (String part : path.split(java.util.regex.Pattern.quote(File.pathSeparator))) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            Path newPath = Paths.get(part.trim());
+            if (!Files.exists(newPath) || !Files.isDirectory(newPath)) {
+                System.out.println("Invalid directory: " + part.trim());
+                return;
+            }
+            newPaths.add(newPath.toAbsolutePath().toString());
+        }
+        if (newPaths.isEmpty()) {
             System.out.println("Invalid directory: " + path);
+            return;
         }
+        currentSearchPaths = newPaths;
+        System.out.println("Search path changed to: " + describeSearchPaths());
+    }
+    
+    private String describeSearchPaths() {
+        return String.join(File.pathSeparator, currentSearchPaths);
     }
     
     private void openFileByNumber(String numberStr) {
@@ -189,9 +570,9 @@ public class SimpleLiveSearchCLI {
             if (Files.exists(path)) {
                 System.out.println("File exists, opening with system default application...");
                 boolean opened = false;
-                if (Desktop.isDesktopSupported()) {
+                if (DesktopOpener.isSupported()) {
                     try {
-                        Desktop.getDesktop().open(path.toFile());
+                        DesktopOpener.open(path);
                         System.out.println("✓ File opened successfully with Desktop API: " + path.getFileName());
                         opened = true;
                     } catch (Exception e) {
@@ -244,10 +625,12 @@ public class SimpleLiveSearchCLI {
                 System.out.println("Full path: " + result.getFilePath());
                 System.out.print("Are you sure? Type 'yes' to confirm: ");
                 
-                String confirmation = scanner.nextLine().trim();
+                String line = readLine();
+                String confirmation = line != null ? line.trim() : "";
                 if ("yes".equalsIgnoreCase(confirmation)) {
                     deleteFile(result.getFilePath());
-                    // Remove from results list
+                    // Remove from results list; the engine's lists are immutable
+                    lastResults = new ArrayList<>(lastResults);
                     lastResults.remove(number - 1);
                     System.out.println("✓ File deleted successfully. Removed from results.");
                 } else {
@@ -284,8 +667,13 @@ public class SimpleLiveSearchCLI {
         }
     }
     
+    // With arguments, each one is run as a command and the CLI exits
     public static void main(String[] args) {
         SimpleLiveSearchCLI cli = new SimpleLiveSearchCLI();
-        cli.start();
+        if (args.length > 0) {
+            cli.runBatch(Arrays.asList(args));
+        } else {
+            cli.start();
+        }
     }
 } 
\ No newline at end of file
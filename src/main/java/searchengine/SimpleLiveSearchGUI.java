@@ -16,7 +16,13 @@ import java.io.*;
 import java.awt.Desktop;
 
 public class SimpleLiveSearchGUI extends JFrame {
+    private static final int TYPING_DELAY_MS = 250;
+    private static final int PROGRESS_INTERVAL_MS = 250;
+    private static final int PROGRESS_STEPS = 1000;
+    private static final int MIN_CONTENT_TYPING_LENGTH = 3;
+    
     private final LiveFileSearch searchEngine;
+    private final SearchRouter router; // refinements of the last results skip it
     private final JTextField searchField;
     private final JList<String> resultsList;
     private final JLabel statusLabel;
@@ -26,27 +32,51 @@ public class SimpleLiveSearchGUI extends JFrame {
     private final JTextField selectedFilePathField;
     private final JCheckBox regexCheckBox;
     private final JCheckBox fuzzyCheckBox;
+    private final javax.swing.Timer typingTimer;
+    // Only read and replaced on the EDT. The lists are immutable snapshots, so a
+    // background refinement can read the previous one while the EDT moves on.
     private List<LiveFileSearch.SearchResult> lastResults;
+    private SwingWorker<List<LiveFileSearch.SearchResult>, Void> currentSearch;
+    // Query that produced lastResults, used to decide whether a new query can refine them
+    private String lastQueryKey;
+    private String lastSearchTerm;
+    // Progress reports of searches older than the current one are ignored; EDT only
+    private long latestProgressId;
+    private long progressFloor;
     
     public SimpleLiveSearchGUI() {
         this.searchEngine = new LiveFileSearch();
-        this.lastResults = new java.util.ArrayList<>();
+        this.router = new SearchRouter(searchEngine);
+        this.lastResults = java.util.Collections.emptyList();
+        searchEngine.setProgressListener(progress -> SwingUtilities.invokeLater(() -> showProgress(progress)),
+            PROGRESS_INTERVAL_MS);
         
         setTitle("File Search");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Shut the engine down before exit so its file catalogue is saved
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                searchEngine.shutdown();
+            }
+        });
         setSize(1200, 600);
         setLocationRelativeTo(null);
         
         // Create components
         searchField = new JTextField(30);
-        searchTypeCombo = new JComboBox<>(new String[]{"Name", "Content"});
+        searchTypeCombo = new JComboBox<>(new String[]{"Name", "Path", "Content", "Query"});
         pathField = new JTextField(System.getProperty("user.home"), 30);
         resultsList = new JList<>();
         statusLabel = new JLabel("Ready");
         progressBar = new JProgressBar();
+        // Shows the progress, throughput and ETA a running search reports
+        progressBar.setStringPainted(true);
         selectedFilePathField = new JTextField(80);
         regexCheckBox = new JCheckBox("Use Regex");
         fuzzyCheckBox = new JCheckBox("Fuzzy Search");
+        typingTimer = new javax.swing.Timer(TYPING_DELAY_MS, e -> performSearch(true));
+        typingTimer.setRepeats(false);
         
         // Setup layout
         setupLayout();
@@ -119,8 +149,10 @@ public class SimpleLiveSearchGUI extends JFrame {
         JPanel topRow = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JButton clearButton = new JButton("Clear Results");
         JButton deleteButton = new JButton("Delete Selected");
+        JButton duplicatesButton = new JButton("Find Duplicates");
         topRow.add(clearButton);
         topRow.add(deleteButton);
+        topRow.add(duplicatesButton);
         bottomPanel.add(topRow, BorderLayout.NORTH);
         
         // Bottom row with file path display
@@ -134,20 +166,36 @@ public class SimpleLiveSearchGUI extends JFrame {
         add(bottomPanel, BorderLayout.SOUTH);
         
         // Setup actions with direct button references
-        setupActions(searchButton, clearButton, deleteButton);
+        setupActions(searchButton, clearButton, deleteButton, duplicatesButton);
     }
     
-    private void setupActions(JButton searchButton, JButton clearButton, JButton deleteButton) {
+    private void setupActions(JButton searchButton, JButton clearButton, JButton deleteButton, JButton duplicatesButton) {
+        // Duplicate finder over the search path
+        duplicatesButton.addActionListener(e -> findDuplicates());
+        
         // Search button action
-        searchButton.addActionListener(e -> performSearch());
+        searchButton.addActionListener(e -> performSearch(false));
         
         // Enter key in search field
-        searchField.addActionListener(e -> performSearch());
+        searchField.addActionListener(e -> performSearch(false));
+        
+        // Search as you type: refinements run at once, anything else once typing pauses
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) { onSearchTermEdited(); }
+            
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) { onSearchTermEdited(); }
+            
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) { }
+        });
         
         // Clear button action
         clearButton.addActionListener(e -> {
             resultsList.setListData(new String[]{});
-            lastResults.clear();
+            lastResults = java.util.Collections.emptyList();
+            lastQueryKey = null;
             selectedFilePathField.setText("");
             statusLabel.setText("Results cleared");
         });
@@ -156,7 +204,34 @@ public class SimpleLiveSearchGUI extends JFrame {
         deleteButton.addActionListener(e -> deleteSelectedFile());
     }
     
-    private void performSearch() {
+    private void onSearchTermEdited() {
+        SwingUtilities.invokeLater(() -> {
+            String searchTerm = searchField.getText().trim();
+            if (!searchTerm.isEmpty() && canRefine((String) searchTypeCombo.getSelectedItem())
+                && currentQueryKey().equals(lastQueryKey)
+                && LiveFileSearch.narrows(lastSearchTerm, searchTerm, regexCheckBox.isSelected(), fuzzyCheckBox.isSelected())) {
+                performSearch(true);
+            } else {
+                typingTimer.restart();
+            }
+        });
+    }
+    
+    // Whether results of the search type can be narrowed without searching again;
+    // refineByName looks at names only, not at the paths a path search matched
+    private static boolean canRefine(String searchType) {
+        return "Name".equals(searchType) || "Content".equals(searchType);
+    }
+    
+    private String currentQueryKey() {
+        return searchTypeCombo.getSelectedItem() + "|" + pathField.getText().trim() + "|"
+            + regexCheckBox.isSelected() + "|" + fuzzyCheckBox.isSelected();
+    }
+    
+    // typing is true for searches triggered by editing the search term rather than by
+    // Enter or the Search button. A newer search always cancels the one in progress.
+    private void performSearch(boolean typing) {
+        typingTimer.stop();
         String searchTerm = searchField.getText().trim();
         String searchPath = pathField.getText().trim();
         String searchType = (String) searchTypeCombo.getSelectedItem();
@@ -164,7 +239,12 @@ public class SimpleLiveSearchGUI extends JFrame {
         boolean useFuzzy = fuzzyCheckBox.isSelected();
         
         if (searchTerm.isEmpty()) {
-            statusLabel.setText("Please enter a search term");
+            cancelCurrentSearch();
+            statusLabel.setText(typing ? "Ready" : "Please enter a search term");
+            return;
+        }
+        
+        if (typing && "Content".equals(searchType) && searchTerm.length() < MIN_CONTENT_TYPING_LENGTH) {
             return;
         }
         
@@ -173,8 +253,21 @@ public class SimpleLiveSearchGUI extends JFrame {
             return;
         }
         
+        // A query expression carries its own regexes; while typing it is often incomplete
+        final FileQuery query;
+        if ("Query".equals(searchType)) {
+            try {
+                query = FileQuery.parse(searchTerm);
+            } catch (IllegalArgumentException e) {
+                statusLabel.setText("Invalid query: " + e.getMessage());
+                return;
+            }
+        } else {
+            query = null;
+        }
+        
         // Validate regex if enabled
-        if (useRegex) {
+        if (useRegex && query == null) {
             try {
                 java.util.regex.Pattern.compile(searchTerm);
             } catch (java.util.regex.PatternSyntaxException e) {
@@ -183,47 +276,194 @@ public class SimpleLiveSearchGUI extends JFrame {
             }
         }
         
-        // Validate path
-        Path path = Paths.get(searchPath);
-        if (!Files.exists(path) || !Files.isDirectory(path)) {
-            statusLabel.setText("Invalid search path: " + searchPath);
-            return;
+        // Validate paths; several directories can be separated by the platform path separator
+        List<String> searchPaths = new java.util.ArrayList<>();
+        for (String part : searchPath.split(java.util.regex.Pattern.quote(File.pathSeparator))) {
+            if (part.trim().isEmpty()) {
+                continue;
+            }
+            Path path = Paths.get(part.trim());
+            if (!Files.exists(path) || !Files.isDirectory(path)) {
+                statusLabel.setText("Invalid search path: " + part.trim());
+                return;
+            }
+            searchPaths.add(part.trim());
         }
         
+        // While typing, a query that narrows the previous one filters its results instead
+        // of walking again; Enter and the Search button always walk so results are current
+        final String queryKey = currentQueryKey();
+        final boolean refine = typing && canRefine(searchType) && queryKey.equals(lastQueryKey)
+            && LiveFileSearch.narrows(lastSearchTerm, searchTerm, useRegex, useFuzzy);
+        final List<LiveFileSearch.SearchResult> previousResults = lastResults;
+        
+        cancelCurrentSearch();
+        
         // Show progress bar and disable search button
-        progressBar.setVisible(true);
-        progressBar.setIndeterminate(true);
-        statusLabel.setText("Searching...");
+        startProgress();
+        statusLabel.setText(refine ? "Refining..." : "Searching...");
         
         // Perform search in background
-        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+        SwingWorker<List<LiveFileSearch.SearchResult>, Void> worker = new SwingWorker<List<LiveFileSearch.SearchResult>, Void>() {
+            private long searchTime;
+            
             @Override
-            protected Void doInBackground() throws Exception {
+            protected List<LiveFileSearch.SearchResult> doInBackground() throws Exception {
                 long startTime = System.currentTimeMillis();
+                List<LiveFileSearch.SearchResult> results;
                 
-                if ("Content".equals(searchType)) {
-                    lastResults = searchEngine.searchByContent(searchTerm, searchPath, useRegex, useFuzzy);
+                if (query != null) {
+                    results = router.search(SearchRequest.byQuery(query), searchPaths);
+                } else if ("Path".equals(searchType)) {
+                    results = router.search(SearchRequest.byPath(searchTerm, useRegex, useFuzzy), searchPaths);
+                } else if ("Content".equals(searchType)) {
+                    results = refine
+                        ? searchEngine.refineByContent(previousResults, searchTerm, useRegex)
+                        : router.search(SearchRequest.byContent(searchTerm, useRegex), searchPaths);
                 } else {
-                    lastResults = searchEngine.searchByName(searchTerm, searchPath, useRegex, useFuzzy);
+                    results = refine
+                        ? searchEngine.refineByName(previousResults, searchTerm, useRegex, useFuzzy)
+                        : router.search(SearchRequest.byName(searchTerm, useRegex, useFuzzy), searchPaths);
                 }
                 
                 long endTime = System.currentTimeMillis();
-                long searchTime = endTime - startTime;
-                
-                SwingUtilities.invokeLater(() -> {
-                    displayResults(searchType, searchTime);
-                    // Hide progress bar
-                    progressBar.setVisible(false);
-                    progressBar.setIndeterminate(false);
-                });
-                
-                return null;
+                searchTime = endTime - startTime;
+                return results;
+            }
+            
+            @Override
+            protected void done() {
+                // A superseded search is dropped; the newer one owns the progress bar
+                if (isCancelled() || currentSearch != this) {
+                    return;
+                }
+                currentSearch = null;
+                hideProgress();
+                try {
+                    lastResults = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    statusLabel.setText(failureMessage("Search failed", e));
+                    return;
+                }
+                lastQueryKey = queryKey;
+                lastSearchTerm = searchTerm;
+                displayResults(searchType, searchTime);
             }
         };
         
+        currentSearch = worker;
         worker.execute();
     }
     
+    // A search turned away by the engine's scheduler is not an error, just a busy engine
+    private static String failureMessage(String prefix, Exception e) {
+        if (e.getCause() instanceof QueryRejectedException) {
+            return "❌ " + e.getCause().getMessage();
+        }
+        return "❌ " + prefix + ": " + e.getMessage();
+    }
+    
+    // Copies of the same content are listed next to each other, largest waste first
+    private void findDuplicates() {
+        typingTimer.stop();
+        final List<String> searchPaths = new java.util.ArrayList<>();
+        for (String part : pathField.getText().trim().split(java.util.regex.Pattern.quote(File.pathSeparator))) {
+            if (!part.trim().isEmpty()) {
+                searchPaths.add(part.trim());
+            }
+        }
+        if (searchPaths.isEmpty()) {
+            statusLabel.setText("Please enter a search path");
+            return;
+        }
+        
+        cancelCurrentSearch();
+        startProgress();
+        statusLabel.setText("Finding duplicates...");
+        
+        SwingWorker<List<LiveFileSearch.SearchResult>, Void> worker = new SwingWorker<List<LiveFileSearch.SearchResult>, Void>() {
+            private long searchTime;
+            private int groupCount;
+            private long wastedBytes;
+            
+            @Override
+            protected List<LiveFileSearch.SearchResult> doInBackground() throws Exception {
+                long startTime = System.currentTimeMillis();
+                List<DuplicateFinder.DuplicateGroup> groups = searchEngine.findDuplicates(searchPaths);
+                List<LiveFileSearch.SearchResult> results = new java.util.ArrayList<>();
+                for (DuplicateFinder.DuplicateGroup group : groups) {
+                    results.addAll(group.getFiles());
+                    wastedBytes += group.getWastedBytes();
+                }
+                groupCount = groups.size();
+                searchTime = System.currentTimeMillis() - startTime;
+                return java.util.Collections.unmodifiableList(results);
+            }
+            
+            @Override
+            protected void done() {
+                if (isCancelled() || currentSearch != this) {
+                    return;
+                }
+                currentSearch = null;
+                hideProgress();
+                try {
+                    lastResults = get();
+                } catch (InterruptedException | java.util.concurrent.ExecutionException e) {
+                    statusLabel.setText(failureMessage("Duplicate search failed", e));
+                    return;
+                }
+                // Duplicate results cannot be refined by a search term
+                lastQueryKey = null;
+                displayResults("Duplicates", searchTime);
+                statusLabel.setText(String.format("Found %d duplicate files in %d groups (%d bytes reclaimable) in %dms",
+                    lastResults.size(), groupCount, wastedBytes, searchTime));
+            }
+        };
+        
+        currentSearch = worker;
+        worker.execute();
+    }
+    
+    // Indeterminate until the engine reports how far the new search has got
+    private void startProgress() {
+        progressFloor = latestProgressId + 1;
+        progressBar.setVisible(true);
+        progressBar.setIndeterminate(true);
+        progressBar.setString("Searching...");
+    }
+    
+    private void showProgress(SearchProgress progress) {
+        latestProgressId = Math.max(latestProgressId, progress.getId());
+        if (currentSearch == null || progress.isDone() || progress.getId() < progressFloor) {
+            return;
+        }
+        // A search that starts later belongs to a newer query
+        progressFloor = progress.getId();
+        if (progress.getFraction() >= 0) {
+            progressBar.setIndeterminate(false);
+            progressBar.setMaximum(PROGRESS_STEPS);
+            progressBar.setValue((int) (progress.getFraction() * PROGRESS_STEPS));
+        }
+        progressBar.setString(progress.format());
+    }
+    
+    // Clears the finished search's figures, so the next one does not start out showing them
+    private void hideProgress() {
+        progressBar.setVisible(false);
+        progressBar.setIndeterminate(false);
+        progressBar.setValue(0);
+        progressBar.setString("");
+    }
+    
+    private void cancelCurrentSearch() {
+        if (currentSearch != null) {
+            currentSearch.cancel(true);
+            currentSearch = null;
+            hideProgress();
+        }
+    }
+    
     private void displayResults(String searchType, long searchTime) {
         if (lastResults.isEmpty()) {
             resultsList.setListData(new String[]{"No files found."});
@@ -253,10 +493,6 @@ public class SimpleLiveSearchGUI extends JFrame {
         // Set monospaced font for better column alignment
         resultsList.setFont(new Font("Monospaced", Font.PLAIN, 12));
         
-        // Setup progress bar
-        progressBar.setStringPainted(true);
-        progressBar.setString("Searching...");
-        
         // Add selection listener to show file path
         resultsList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
@@ -360,8 +596,10 @@ public class SimpleLiveSearchGUI extends JFrame {
                 if (Files.exists(path)) {
                     boolean deleted = Files.deleteIfExists(path);
                     if (deleted) {
-                        // Remove from results list
-                        lastResults.remove(index - 2);
+                        // Remove from results list by replacing the snapshot
+                        List<LiveFileSearch.SearchResult> remaining = new java.util.ArrayList<>(lastResults);
+                        remaining.remove(index - 2);
+                        lastResults = java.util.Collections.unmodifiableList(remaining);
                         // Refresh the display
                         displayResults("Name search", 0); // Reuse existing method
                         statusLabel.setText("✓ File deleted successfully: " + fileName);
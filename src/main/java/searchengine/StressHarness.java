@@ -0,0 +1,216 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs a mix of name, content and regex queries from many threads against one shared
+// engine and a generated directory tree, then reports throughput and latency
+// percentiles per query. Every result is compared with a single-threaded baseline,
+// so a race that changes results shows up as a mismatch.
+//
+// Usage: java -cp target/classes searchengine.StressHarness [threads] [seconds] [directories] [filesPerDirectory]
+public class StressHarness {
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa"
+    };
+    private static final String RARE_WORD = "zephyr";
+    
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int directories = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        int filesPerDirectory = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        
+        System.out.println("=== Search Engine Stress Test ===");
+        System.out.println("Threads: " + threads + ", duration: " + seconds + "s, tree: "
+            + directories + " directories x " + filesPerDirectory + " files");
+        
+        Path root = Files.createTempDirectory("stress-tree");
+        LiveFileSearch engine = new LiveFileSearch(null); // no snapshot, every query walks the disk
+        try {
+            generateTree(root, directories, filesPerDirectory);
+            List<Query> queries = queries(engine, root.toString());
+            
+            // Single-threaded baseline
+            for (Query query : queries) {
+                query.expected = paths(query.run());
+                System.out.printf("Baseline %-28s %6d results%n", query.name, query.expected.size());
+            }
+            
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            AtomicLong mismatches = new AtomicLong();
+            AtomicLong failures = new AtomicLong();
+            AtomicLong rejections = new AtomicLong();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long started = System.nanoTime();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                workers.add(pool.submit(() -> {
+                    Random random = new Random(seed);
+                    while (System.nanoTime() < deadline) {
+                        Query query = queries.get(random.nextInt(queries.size()));
+                        long start = System.nanoTime();
+                        List<LiveFileSearch.SearchResult> results;
+                        try {
+                            results = query.run();
+                        } catch (QueryRejectedException e) {
+                            rejections.incrementAndGet();
+                            continue;
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                            continue;
+                        }
+                        query.record(System.nanoTime() - start);
+                        if (!paths(results).equals(query.expected)) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            double elapsed = (System.nanoTime() - started) / 1e9;
+            pool.shutdown();
+            
+            report(queries, elapsed, mismatches.get(), failures.get(), rejections.get());
+        } finally {
+            engine.shutdown();
+            deleteTree(root);
+        }
+    }
+    
+    private static List<Query> queries(LiveFileSearch engine, String root) {
+        List<String> roots = Collections.singletonList(root);
+        return Arrays.asList(
+            new Query("name 'report'", () -> engine.searchByName("report", roots, false, false)),
+            new Query("name 'notes-1'", () -> engine.searchByName("notes-1", roots, false, false)),
+            new Query("fuzzy 'report 7'", () -> engine.searchByNameFuzzy("report 7", roots)),
+            new Query("regex name 'data-\\d{2}\\.log'", () -> engine.searchByName("data-\\d{2}\\.log", roots, true, false)),
+            new Query("content 'golf'", () -> engine.searchByContent("golf", roots, false)),
+            new Query("content '" + RARE_WORD + "'", () -> engine.searchByContent(RARE_WORD, roots, false)),
+            new Query("content regex 'zeph\\w+ alpha'", () -> engine.searchByContent("zeph\\w+ alpha", roots, true))
+        );
+    }
+    
+    private static void generateTree(Path root, int directories, int filesPerDirectory) throws IOException {
+        Random random = new Random(42);
+        String[] prefixes = {"report-", "notes-", "data-"};
+        String[] extensions = {".txt", ".md", ".log"};
+        for (int d = 0; d < directories; d++) {
+            Path dir = root.resolve(String.format("group-%02d", d % 8)).resolve(String.format("dir-%03d", d));
+            Files.createDirectories(dir);
+            for (int f = 0; f < filesPerDirectory; f++) {
+                int kind = f % prefixes.length;
+                StringBuilder content = new StringBuilder();
+                int lines = 5 + random.nextInt(60);
+                for (int l = 0; l < lines; l++) {
+                    for (int w = 0; w < 10; w++) {
+                        // The rare word appears in about one file in ten
+                        content.append(random.nextInt(3500) == 0 ? RARE_WORD : WORDS[random.nextInt(WORDS.length)]).append(' ');
+                    }
+                    content.append('\n');
+                }
+                Files.write(dir.resolve(prefixes[kind] + f + extensions[kind]), content.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+    
+    private static void report(List<Query> queries, double elapsed, long mismatches, long failures, long rejections) {
+        List<Long> all = new ArrayList<>();
+        System.out.println();
+        System.out.printf("%-32s %8s %10s %10s %10s%n", "Query", "Count", "p50 (ms)", "p99 (ms)", "max (ms)");
+        for (Query query : queries) {
+            List<Long> latencies = query.latencies();
+            all.addAll(latencies);
+            printRow(query.name, latencies);
+        }
+        printRow("all", all);
+        System.out.println();
+        System.out.printf("Throughput: %.1f queries/s over %.1fs%n", all.size() / elapsed, elapsed);
+        System.out.println("Result mismatches: " + mismatches);
+        System.out.println("Failed queries: " + failures);
+        System.out.println("Rejected queries: " + rejections + " (waited longer than the scheduler allows)");
+        if (mismatches == 0 && failures == 0) {
+            System.out.println("✓ All concurrent results matched the baseline");
+        } else {
+            System.out.println("❌ Concurrent results differed from the baseline");
+        }
+    }
+    
+    private static void printRow(String name, List<Long> latencies) {
+        Collections.sort(latencies);
+        System.out.printf("%-32s %8d %10.1f %10.1f %10.1f%n", name, latencies.size(),
+            percentile(latencies, 50), percentile(latencies, 99),
+            latencies.isEmpty() ? 0.0 : latencies.get(latencies.size() - 1) / 1e6);
+    }
+    
+    // Nearest-rank percentile of sorted nanosecond latencies, in milliseconds
+    private static double percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0.0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1)) / 1e6;
+    }
+    
+    private static Set<String> paths(List<LiveFileSearch.SearchResult> results) {
+        Set<String> paths = new HashSet<>();
+        for (LiveFileSearch.SearchResult result : results) {
+            paths.add(result.getFilePath());
+        }
+        return paths;
+    }
+    
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(root)) {
+            walk.forEach(paths::add);
+        }
+        Collections.reverse(paths);
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+    
+    private static class Query {
+        private final String name;
+        private final Callable<List<LiveFileSearch.SearchResult>> search;
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        private Set<String> expected;
+        
+        Query(String name, Callable<List<LiveFileSearch.SearchResult>> search) {
+            this.name = name;
+            this.search = search;
+        }
+        
+        List<LiveFileSearch.SearchResult> run() {
+            try {
+                return search.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        void record(long nanos) {
+            latencies.add(nanos);
+        }
+        
+        List<Long> latencies() {
+            synchronized (latencies) {
+                return new ArrayList<>(latencies);
+            }
+        }
+    }
+}
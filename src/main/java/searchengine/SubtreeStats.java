@@ -0,0 +1,224 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Remembers which subtrees past searches found results in, so walks can visit them
+// first. Every search that has results credits each directory between its root and
+// a result (down to MAX_DEPTH levels below the root) with one hit, however many
+// results the directory holds. Hits decay with a half-life, so subtrees that stop
+// producing results lose their place over a few weeks.
+//
+// Walks order subdirectories by priority: the decayed hits, plus a recency term in
+// (0, 1] for how recently the directory was modified, so a subtree with results
+// comes before merely busy ones, and busy ones before the rest. Subtrees whose hits
+// are still worth HOT_HITS are hot and go ahead of everything else. Ordering only
+// changes which results arrive first; every walk still visits everything.
+//
+// Directories are keyed by absolute path, so a search of a parent root benefits a
+// later search of a child root and the other way around. The stats are saved to a
+// checksummed file on shutdown, like the content index.
+public class SubtreeStats {
+    private static final int MAGIC = 0x4C465359; // "LFSY"
+    private static final int VERSION = 1;
+    private static final int MAX_DEPTH = 4;
+    private static final int MAX_DIRECTORIES = 50_000;
+    public static final long DEFAULT_HALF_LIFE = 7L * 24 * 60 * 60 * 1000; // ms
+    private static final long RECENCY_HALF_LIFE = 24L * 60 * 60 * 1000; // ms
+    // Decayed hits for a subtree to go first: one hit no older than a half-life
+    private static final double HOT_HITS = 0.5;
+    
+    private final Map<String, Score> scores = new ConcurrentHashMap<>();
+    private volatile long halfLife = DEFAULT_HALF_LIFE;
+    private volatile boolean dirty;
+    
+    // How long it takes for a subtree's hits to count half as much
+    public void setHalfLife(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive: " + millis);
+        }
+        this.halfLife = millis;
+    }
+    
+    public long getHalfLife() {
+        return halfLife;
+    }
+    
+    public boolean isEmpty() {
+        return scores.isEmpty();
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    // Credits the subtrees of the roots that hold the results with one hit each
+    public void record(List<Path> roots, List<LiveFileSearch.SearchResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        // Results share directories, so each directory is placed once
+        Set<String> parents = new HashSet<>();
+        for (LiveFileSearch.SearchResult result : results) {
+            String path = result.getFilePath();
+            parents.add(path.substring(0, Math.max(0, path.lastIndexOf(File.separatorChar))));
+        }
+        Set<String> credited = new HashSet<>();
+        for (String parent : parents) {
+            Path directory = Paths.get(parent.isEmpty() ? File.separator : parent);
+            for (Path root : roots) {
+                if (!directory.startsWith(root) || directory.equals(root)) {
+                    continue;
+                }
+                Path relative = root.relativize(directory);
+                Path credit = root;
+                for (int depth = 0; depth < Math.min(MAX_DEPTH, relative.getNameCount()); depth++) {
+                    credit = credit.resolve(relative.getName(depth));
+                    credited.add(credit.toString());
+                }
+                break;
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (String directory : credited) {
+            scores.computeIfAbsent(directory, key -> new Score()).add(1, now, halfLife);
+        }
+        if (!credited.isEmpty()) {
+            dirty = true;
+        }
+        if (scores.size() > MAX_DIRECTORIES) {
+            trim(now);
+        }
+    }
+    
+    // The decayed hits of the subtree at dir
+    public double hits(Path dir) {
+        Score score = scores.get(dir.toString());
+        return score != null ? score.value(System.currentTimeMillis(), halfLife) : 0;
+    }
+    
+    // Whether the subtree at dir has had results recently enough to go first
+    public boolean isHot(Path dir) {
+        return hits(dir) >= HOT_HITS;
+    }
+    
+    // Whether dir or a directory above it is hot
+    public boolean isUnderHot(Path dir) {
+        if (scores.isEmpty()) {
+            return false;
+        }
+        for (Path directory = dir; directory != null; directory = directory.getParent()) {
+            if (isHot(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Walk order of a subdirectory: higher first
+    public double priority(Path dir, long lastModified) {
+        long age = Math.max(0, System.currentTimeMillis() - lastModified);
+        return hits(dir) + Math.pow(0.5, (double) age / RECENCY_HALF_LIFE);
+    }
+    
+    // Drops the directories with the fewest decayed hits, down to nine tenths of the cap
+    private synchronized void trim(long now) {
+        if (scores.size() <= MAX_DIRECTORIES) {
+            return;
+        }
+        List<Map.Entry<Double, String>> byValue = new ArrayList<>();
+        for (Map.Entry<String, Score> entry : scores.entrySet()) {
+            byValue.add(new AbstractMap.SimpleImmutableEntry<>(entry.getValue().value(now, halfLife), entry.getKey()));
+        }
+        byValue.sort(Map.Entry.comparingByKey());
+        int drop = scores.size() - MAX_DIRECTORIES + MAX_DIRECTORIES / 10;
+        for (int i = 0; i < drop && i < byValue.size(); i++) {
+            scores.remove(byValue.get(i).getValue());
+        }
+    }
+    
+    public synchronized void save(Path statsFile) throws IOException {
+        Files.createDirectories(statsFile.toAbsolutePath().getParent());
+        Path temp = statsFile.resolveSibling(statsFile.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            List<Map.Entry<String, Score>> entries = new ArrayList<>(scores.entrySet());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Score> entry : entries) {
+                synchronized (entry.getValue()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeDouble(entry.getValue().value);
+                    out.writeLong(entry.getValue().updated);
+                }
+            }
+            // The checksum covers everything written before it
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temp, statsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, statsFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+    
+    // Loads stats written by save(). A missing, corrupt or older-version file is
+    // ignored and walks start in file system order.
+    public synchronized boolean load(Path statsFile) {
+        if (!Files.isRegularFile(statsFile)) {
+            return false;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(statsFile);
+            if (bytes.length < 20) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+                System.err.println("Ignoring corrupt subtree stats: " + statsFile);
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String directory = in.readUTF();
+                Score score = new Score();
+                score.value = in.readDouble();
+                score.updated = in.readLong();
+                scores.put(directory, score);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load subtree stats: " + e.getMessage());
+            scores.clear();
+            return false;
+        }
+    }
+    
+    // Hits as of the last update; decayed to the present when read
+    private static final class Score {
+        private double value;
+        private long updated;
+        
+        synchronized void add(double hits, long now, long halfLife) {
+            value = value(now, halfLife) + hits;
+            updated = now;
+        }
+        
+        synchronized double value(long now, long halfLife) {
+            return value * Math.pow(0.5, (double) Math.max(0, now - updated) / halfLife);
+        }
+    }
+}
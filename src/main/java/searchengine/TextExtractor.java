@@ -0,0 +1,21 @@
+package searchengine;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Set;
+
+// Turns documents of some file types into plain text, so content searches can look
+// inside them. The engine picks an extractor by file extension. Besides the bundled
+// ZipXmlExtractor, extractors can be passed to LiveFileSearch.registerExtractor or
+// listed in META-INF/services/searchengine.TextExtractor.
+// Each document is extracted once and its text kept in an ExtractedTextCache.
+public interface TextExtractor {
+    // The extensions handled, lowercase and without the dot, e.g. "docx"
+    Set<String> getExtensions();
+    
+    // Writes the text of the document. Regex searches match the text line by line,
+    // so paragraphs, rows and the like should each end with a line break. A document
+    // that cannot be read as it is throws UnreadableDocumentException.
+    void extract(Path file, Writer text) throws IOException;
+}
@@ -0,0 +1,15 @@
+package searchengine;
+
+import java.io.IOException;
+
+// Thrown by a TextExtractor for a document it will never read as it is: corrupt,
+// encrypted, or not the type its name says. The document is then taken to have no
+// text until it changes. Any other IOException is taken to be passing, like a locked
+// file or an interrupted read, and the document is extracted again next time.
+public class UnreadableDocumentException extends IOException {
+    private static final long serialVersionUID = 1L;
+    
+    public UnreadableDocumentException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,225 @@
+package searchengine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Estimates how many files a walk of a root will see, so a running search can tell
+// how far along it is. The best estimate is the count of the last complete walk of
+// the same root, which is remembered for every root and saved to a checksummed file
+// on shutdown. A root walked for the first time is sampled instead: the directories
+// nearest the root are listed outright, and the subtrees below them are estimated
+// with Knuth's estimator for the size of a tree, random descents each counting the
+// files of the directories they pass weighted by the product of the fan-outs above
+// them. The average over the descents is an unbiased estimate, read from at most
+// SAMPLE_BUDGET directory entries rather than a walk; a small tree is counted exactly.
+public class WalkEstimator {
+    private static final int MAGIC = 0x4C465357; // "LFSW"
+    private static final int VERSION = 1;
+    private static final int PROBES = 256;
+    private static final int MAX_PROBE_DEPTH = 64;
+    private static final int SAMPLE_BUDGET = 20_000; // entries read per sample
+    private static final int MAX_ROOTS = 1_000;
+    
+    private final Map<String, Long> walked = new ConcurrentHashMap<>(); // files, by root
+    private final Map<String, Long> sampled = new ConcurrentHashMap<>(); // kept for the session only
+    private volatile boolean dirty;
+    
+    // Records the files of a complete walk of root
+    public void record(Path root, long files) {
+        Long previous = walked.put(root.toString(), files);
+        if (previous == null || previous != files) {
+            dirty = true;
+        }
+        if (walked.size() > MAX_ROOTS) {
+            // Which root goes hardly matters; it is sampled again when next searched
+            Iterator<String> roots = walked.keySet().iterator();
+            while (walked.size() > MAX_ROOTS && roots.hasNext()) {
+                if (!roots.next().equals(root.toString())) {
+                    roots.remove();
+                }
+            }
+        }
+    }
+    
+    // The files the last complete walk of root saw, or -1
+    public long walkedFiles(Path root) {
+        Long files = walked.get(root.toString());
+        return files != null ? files : -1;
+    }
+    
+    // The files a walk of root is expected to see: as last walked, or else sampled
+    // (once per session); -1 if the root cannot be read
+    public long estimate(Path root) {
+        long files = walkedFiles(root);
+        if (files >= 0) {
+            return files;
+        }
+        return sampled.computeIfAbsent(root.toString(), key -> sample(root));
+    }
+    
+    public boolean isDirty() {
+        return dirty;
+    }
+    
+    private static long sample(Path root) {
+        BasicFileAttributes rootAttrs;
+        try {
+            rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return -1;
+        }
+        if (!rootAttrs.isDirectory()) {
+            return rootAttrs.isRegularFile() ? 1 : 0;
+        }
+        // The directories nearest the root are listed outright, breadth first, with half
+        // the budget: their files are counted exactly, and a subtree that holds most of
+        // the files (which descents would rarely enter) is usually among them
+        int[] budget = {SAMPLE_BUDGET};
+        long exact = 0;
+        List<Path> frontier = new ArrayList<>();
+        frontier.add(root);
+        int next = 0;
+        while (next < frontier.size() && budget[0] > SAMPLE_BUDGET / 2) {
+            Listing listing = list(frontier.get(next), budget);
+            if (listing == null) {
+                break;
+            }
+            next++;
+            exact += listing.files;
+            frontier.addAll(listing.subdirectories);
+        }
+        frontier = frontier.subList(next, frontier.size());
+        if (frontier.isEmpty()) {
+            return exact;
+        }
+        
+        // The rest are estimated by descents from directories on the frontier, picked at
+        // random; the same root is estimated the same way every time
+        Random random = new Random(root.toString().hashCode());
+        // Descents share directories near their start, which are listed once
+        Map<Path, Listing> listings = new HashMap<>();
+        double total = 0;
+        int probes = 0;
+        while (probes < PROBES) {
+            double weight = frontier.size();
+            double files = 0;
+            Path dir = frontier.get(random.nextInt(frontier.size()));
+            for (int depth = 0; depth < MAX_PROBE_DEPTH && dir != null; depth++) {
+                Listing listing = listings.get(dir);
+                if (listing == null) {
+                    listing = list(dir, budget);
+                    if (listing == null) {
+                        // A descent cut short would count too few files; only whole ones count
+                        return probes > 0 ? exact + Math.round(total / probes) : -1;
+                    }
+                    listings.put(dir, listing);
+                }
+                files += weight * listing.files;
+                weight *= listing.subdirectories.size();
+                dir = listing.subdirectories.isEmpty()
+                    ? null
+                    : listing.subdirectories.get(random.nextInt(listing.subdirectories.size()));
+            }
+            total += files;
+            probes++;
+        }
+        return exact + Math.round(total / probes);
+    }
+    
+    // The files of dir and the subdirectories a walk would enter; null if the listing
+    // ran out of budget part way. A directory that cannot be listed is walked as an
+    // empty one.
+    private static Listing list(Path dir, int[] budget) {
+        Listing listing = new Listing();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                if (--budget[0] < 0) {
+                    return null;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+                if (attrs.isRegularFile()) {
+                    listing.files++;
+                } else if (attrs.isDirectory() && !LiveFileSearch.isSkippedDirectory(child)) {
+                    listing.subdirectories.add(child);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            return new Listing();
+        }
+        return listing;
+    }
+    
+    public synchronized void save(Path sizesFile) throws IOException {
+        Files.createDirectories(sizesFile.toAbsolutePath().getParent());
+        Path temp = sizesFile.resolveSibling(sizesFile.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new java.util.zip.CheckedOutputStream(Files.newOutputStream(temp), crc)))) {
+            List<Map.Entry<String, Long>> entries = new ArrayList<>(walked.entrySet());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Long> entry : entries) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            // The checksum covers everything written before it
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+        try {
+            Files.move(temp, sizesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, sizesFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+    
+    // Loads counts written by save(). A missing, corrupt or older-version file is
+    // ignored and roots are sampled until walked again.
+    public synchronized boolean load(Path sizesFile) {
+        if (!Files.isRegularFile(sizesFile)) {
+            return false;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(sizesFile);
+            if (bytes.length < 20) {
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+                System.err.println("Ignoring corrupt walk sizes: " + sizesFile);
+                return false;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                walked.put(in.readUTF(), in.readLong());
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load walk sizes: " + e.getMessage());
+            walked.clear();
+            return false;
+        }
+    }
+    
+    private static final class Listing {
+        int files;
+        final List<Path> subdirectories = new ArrayList<>();
+    }
+}
@@ -0,0 +1,145 @@
+package searchengine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+// The wire format between SearchCoordinator and SearchWorker, over a plain TCP
+// connection. A connection opens with the coordinator's token and then carries one
+// request at a time:
+//
+//   token:    shared secret (UTF), empty when none is configured
+//   request:  kind (UTF), term (UTF), regex (boolean), root count (int), roots (UTF each)
+//   response: any number of RESULT records, then END, or ERROR and a message (UTF)
+//   result:   path (UTF), name (UTF), size (long), modified (long), type (UTF)
+//
+// Results are sent in the order the worker's engine returned them. While a search
+// runs the worker sends a HEARTBEAT every HEARTBEAT_MILLIS, so the coordinator can
+// tell a long search from a hung worker; heartbeats may come anywhere in a response.
+// A worker answers a wrong token with ERROR and closes the connection.
+final class WorkerProtocol {
+    static final String NAME = "NAME";
+    static final String FUZZY = "FUZZY";
+    static final String CONTENT = "CONTENT";
+    static final String QUERY = "QUERY";
+    
+    static final int RESULT = 1;
+    static final int END = 0;
+    static final int ERROR = 2;
+    static final int HEARTBEAT = 3;
+    
+    static final long HEARTBEAT_MILLIS = 5000;
+    
+    // First line a worker prints on stdout, followed by its port
+    static final String LISTENING = "LISTENING";
+    
+    // Environment variable with the token; local workers inherit it from their coordinator
+    static final String TOKEN_VARIABLE = "SEARCH_WORKER_TOKEN";
+    
+    private WorkerProtocol() {
+    }
+    
+    static String configuredToken() {
+        String token = System.getenv(TOKEN_VARIABLE);
+        return token != null ? token : "";
+    }
+    
+    // Compared in constant time, so the token cannot be guessed byte by byte
+    static boolean tokenMatches(String expected, String given) {
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    static final class Request {
+        final String kind;
+        final String term;
+        final boolean regex;
+        final List<String> roots;
+        
+        Request(String kind, String term, boolean regex, List<String> roots) {
+            this.kind = kind;
+            this.term = term;
+            this.regex = regex;
+            this.roots = roots;
+        }
+        
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(kind);
+            out.writeUTF(term);
+            out.writeBoolean(regex);
+            out.writeInt(roots.size());
+            for (String root : roots) {
+                out.writeUTF(root);
+            }
+            out.flush();
+        }
+        
+        static Request read(DataInputStream in) throws IOException {
+            String kind = in.readUTF();
+            String term = in.readUTF();
+            boolean regex = in.readBoolean();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Bad root count: " + count);
+            }
+            List<String> roots = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                roots.add(in.readUTF());
+            }
+            return new Request(kind, term, regex, roots);
+        }
+    }
+    
+    static void writeResult(DataOutputStream out, LiveFileSearch.SearchResult result) throws IOException {
+        out.writeByte(RESULT);
+        out.writeUTF(result.getFilePath());
+        out.writeUTF(result.getFileName());
+        out.writeLong(result.getSize());
+        out.writeLong(result.getLastModified());
+        out.writeUTF(result.getSearchType().name());
+    }
+    
+    // Reads a response up to END. An ERROR response is thrown as an exception of
+    // its own type, so it is not mistaken for a failed worker.
+    static List<LiveFileSearch.SearchResult> readResults(DataInputStream in) throws IOException, WorkerException {
+        List<LiveFileSearch.SearchResult> results = new ArrayList<>();
+        while (true) {
+            int tag = in.readByte();
+            if (tag == END) {
+                return results;
+            }
+            if (tag == HEARTBEAT) {
+                continue;
+            }
+            if (tag == ERROR) {
+                throw new WorkerException(in.readUTF());
+            }
+            if (tag != RESULT) {
+                throw new IOException("Bad record tag: " + tag);
+            }
+            String path = in.readUTF();
+            String name = in.readUTF();
+            long size = in.readLong();
+            long modified = in.readLong();
+            LiveFileSearch.SearchType type;
+            try {
+                type = LiveFileSearch.SearchType.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad result type", e);
+            }
+            results.add(new LiveFileSearch.SearchResult(path, name, size, modified, type));
+        }
+    }
+    
+    // The worker understood the request and could not run it, e.g. an invalid regex
+    static final class WorkerException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        WorkerException(String message) {
+            super(message);
+        }
+    }
+}
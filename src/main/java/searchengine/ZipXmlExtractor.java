@@ -0,0 +1,224 @@
+package searchengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// Extracts the text of the ZIP-based office formats with the JDK alone: Office Open
+// XML (docx, xlsx, pptx and their macro variants) and OpenDocument (odt, ods, odp).
+// The XML parts that hold the text are streamed with StAX, without building a tree
+// and without resolving DTDs or external entities, so neither a large document nor
+// a hostile one costs more than a pass over its parts.
+public class ZipXmlExtractor implements TextExtractor {
+    private static final Set<String> WORD = new HashSet<>(Arrays.asList("docx", "docm", "dotx"));
+    private static final Set<String> SHEET = new HashSet<>(Arrays.asList("xlsx", "xlsm", "xltx"));
+    private static final Set<String> SLIDES = new HashSet<>(Arrays.asList("pptx", "pptm", "potx"));
+    private static final Set<String> OPEN_DOCUMENT = new HashSet<>(Arrays.asList("odt", "ods", "odp"));
+    private static final Pattern WORD_PARTS = Pattern.compile(
+        "word/(document|header\\d*|footer\\d*|footnotes|endnotes|comments)\\.xml");
+    private static final Pattern SHEET_PARTS = Pattern.compile("xl/(sharedStrings|worksheets/sheet\\d+)\\.xml");
+    private static final Pattern SLIDE_PARTS = Pattern.compile("ppt/(slides/slide|notesSlides/notesSlide)(\\d+)\\.xml");
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final long MAX_TEXT_CHARS = 64L * 1024 * 1024; // of one document; the rest is dropped
+    
+    private final XMLInputFactory factory;
+    
+    public ZipXmlExtractor() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    }
+    
+    @Override
+    public Set<String> getExtensions() {
+        Set<String> extensions = new HashSet<>();
+        extensions.addAll(WORD);
+        extensions.addAll(SHEET);
+        extensions.addAll(SLIDES);
+        extensions.addAll(OPEN_DOCUMENT);
+        return extensions;
+    }
+    
+    @Override
+    public void extract(Path file, Writer text) throws IOException {
+        String extension = extension(file);
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Budget budget = new Budget();
+            for (ZipEntry part : parts(zip, extension)) {
+                try (InputStream in = zip.getInputStream(part)) {
+                    if (OPEN_DOCUMENT.contains(extension)) {
+                        openDocumentText(in, text, budget);
+                    } else {
+                        officeText(in, text, SHEET.contains(extension) && part.getName().contains("worksheets/"), budget);
+                    }
+                }
+                if (budget.spent()) {
+                    break;
+                }
+            }
+        } catch (ZipException e) {
+            throw new UnreadableDocumentException("Not a readable archive: " + e.getMessage(), e);
+        } catch (XMLStreamException e) {
+            throw new UnreadableDocumentException("Malformed document part: " + e.getMessage(), e);
+        }
+    }
+    
+    private static String extension(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+    
+    // The parts holding the document's text, in reading order
+    private static List<ZipEntry> parts(ZipFile zip, String extension) {
+        List<ZipEntry> parts = new ArrayList<>();
+        if (OPEN_DOCUMENT.contains(extension)) {
+            ZipEntry content = zip.getEntry("content.xml");
+            if (content != null) {
+                parts.add(content);
+            }
+            return parts;
+        }
+        Pattern names = WORD.contains(extension) ? WORD_PARTS : SHEET.contains(extension) ? SHEET_PARTS : SLIDE_PARTS;
+        for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+            ZipEntry entry = entries.nextElement();
+            if (names.matcher(entry.getName()).matches()) {
+                parts.add(entry);
+            }
+        }
+        // The main part first, then numbered parts in number order (slide2 before slide10)
+        parts.sort(Comparator.comparing((ZipEntry part) -> !part.getName().equals("word/document.xml"))
+            .thenComparing(part -> part.getName().contains("notesSlide"))
+            .thenComparingLong(part -> number(part.getName()))
+            .thenComparing(ZipEntry::getName));
+        return parts;
+    }
+    
+    private static long number(String name) {
+        Matcher digits = NUMBER.matcher(name.substring(name.lastIndexOf('/') + 1));
+        return digits.find() ? Long.parseLong(digits.group()) : 0;
+    }
+    
+    // Office Open XML keeps text in <t> elements (w:t, a:t, and t in shared strings),
+    // and a worksheet keeps numbers and formula results in <v> elements. A <v> of a
+    // cell of type "s" is an index into the shared strings, which are written anyway.
+    private void officeText(InputStream in, Writer text, boolean worksheet, Budget budget)
+            throws XMLStreamException, IOException {
+        XMLStreamReader xml = factory.createXMLStreamReader(in);
+        try {
+            boolean inText = false;
+            boolean sharedStringCell = false;
+            while (xml.hasNext() && !budget.spent()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = xml.getLocalName();
+                        if (name.equals("t")) {
+                            inText = true;
+                        } else if (name.equals("v")) {
+                            inText = worksheet && !sharedStringCell;
+                        } else if (name.equals("c")) {
+                            sharedStringCell = "s".equals(xml.getAttributeValue(null, "t"));
+                        } else if (name.equals("tab")) {
+                            budget.write(text, "\t");
+                        } else if (name.equals("br") || name.equals("cr")) {
+                            budget.write(text, "\n");
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (inText) {
+                            budget.write(text, xml.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        String end = xml.getLocalName();
+                        if (end.equals("t") || end.equals("v")) {
+                            inText = false;
+                        } else if (end.equals("c")) {
+                            budget.write(text, "\t");
+                        } else if (end.equals("p") || end.equals("si") || end.equals("row")) {
+                            budget.write(text, "\n");
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+    
+    // OpenDocument keeps all of its text as character data under office:body
+    private void openDocumentText(InputStream in, Writer text, Budget budget) throws XMLStreamException, IOException {
+        XMLStreamReader xml = factory.createXMLStreamReader(in);
+        try {
+            int bodyDepth = 0;
+            while (xml.hasNext() && !budget.spent()) {
+                switch (xml.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = xml.getLocalName();
+                        if (name.equals("body") || bodyDepth > 0) {
+                            bodyDepth++;
+                        }
+                        if (name.equals("tab")) {
+                            budget.write(text, "\t");
+                        } else if (name.equals("s") || name.equals("line-break")) {
+                            budget.write(text, name.equals("s") ? " " : "\n");
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (bodyDepth > 0) {
+                            budget.write(text, xml.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (bodyDepth > 0) {
+                            bodyDepth--;
+                            String end = xml.getLocalName();
+                            if (end.equals("p") || end.equals("h")) {
+                                budget.write(text, "\n");
+                            } else if (end.equals("table-cell")) {
+                                budget.write(text, "\t");
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+    
+    // Caps the text of one document, so a compressed bomb cannot fill the cache
+    private static final class Budget {
+        private long left = MAX_TEXT_CHARS;
+        
+        void write(Writer text, String chars) throws IOException {
+            if (left <= 0) {
+                return;
+            }
+            int length = (int) Math.min(chars.length(), left);
+            text.write(chars, 0, length);
+            left -= length;
+        }
+        
+        boolean spent() {
+            return left <= 0;
+        }
+    }
+}